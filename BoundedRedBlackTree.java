@@ -0,0 +1,396 @@
+
+    import java.util.ArrayDeque;
+    import java.util.ArrayList;
+    import java.util.Arrays;
+    import java.util.Collection;
+    import java.util.Comparator;
+    import java.util.Iterator;
+    import java.util.List;
+    import java.util.Random;
+    import java.util.TreeSet;
+    import java.util.function.Function;
+    import java.util.stream.IntStream;
+    import static org.junit.jupiter.api.Assertions.*;
+    import org.junit.jupiter.api.Test;
+
+    /**
+     * RedBlackTree that keeps at most capacity values: the greatest ones in the
+     * order of the tree, like a leaderboard of the best K scores (create it
+     * with Comparator.reverseOrder() to keep the smallest ones instead).
+     *
+     * The lowest and highest nodes are cached, so a full tree rejects a value
+     * that is not better than its lowest one with a single comparison, before
+     * any descent. A better value is inserted in O(log n) and the lowest node
+     * is evicted, its successor becoming the new lowest one. The evicted node
+     * holds the next inserted value, so a full tree neither grows nor allocates
+     * however many values are offered.
+     *
+     * The cached nodes are valid while modCount has not changed behind the
+     * back of this class (by a removal, clear or one of the bulk operations),
+     * otherwise they are looked up again in O(log n).
+     */
+    public class BoundedRedBlackTree<T extends Comparable<T>> extends RedBlackTree<T> {
+
+        private int capacity; // set by the factory methods
+        private Node<T> lowest; // node of the smallest value, valid when endsModCount == modCount
+        private Node<T> highest; // node of the greatest value, valid when endsModCount == modCount
+        private int endsModCount = -1;
+        private Node<T> spare; // the last evicted node, reused by the next insertion
+        private long evictions; // number of values evicted to make room
+
+        private BoundedRedBlackTree() {
+        }
+
+        /**
+         * Creates an empty tree keeping the capacity greatest values in their
+         * natural ordering.
+         * @throws IllegalArgumentException when capacity is smaller than 1
+         */
+        public static <T extends Comparable<T>> BoundedRedBlackTree<T> withCapacity(int capacity)
+                throws IllegalArgumentException {
+            return withCapacity(capacity, null);
+        }
+
+        /**
+         * Creates an empty tree keeping the capacity greatest values in the
+         * order of comparator.
+         * @param comparator the ordering of the values, null for their natural
+         *      ordering
+         * @throws IllegalArgumentException when capacity is smaller than 1
+         */
+        public static <T extends Comparable<T>> BoundedRedBlackTree<T> withCapacity(int capacity,
+                Comparator<? super T> comparator) throws IllegalArgumentException {
+            if (capacity < 1) throw new IllegalArgumentException("The capacity must be at least 1.");
+            BoundedRedBlackTree<T> tree = new BoundedRedBlackTree<>();
+            tree.capacity = capacity;
+            tree.setComparator(comparator);
+            return tree;
+        }
+
+        /**
+         * @return the greatest number of values this tree keeps
+         */
+        public int capacity() {
+            return capacity;
+        }
+
+        /**
+         * @return the number of values that were evicted to make room for better
+         *      ones
+         */
+        public long evictions() {
+            return evictions;
+        }
+
+        /**
+         * Inserts data unless an equal value is already stored or the tree is
+         * full and data is smaller than every value in it. When the tree was full,
+         * its smallest value is evicted.
+         * @param data to be added into this tree
+         * @return true if the value was inserted, false if it was already stored
+         *      or rejected
+         * @throws NullPointerException when the provided data argument is null
+         */
+        @Override
+        public boolean tryInsert(T data) throws NullPointerException {
+            if (data == null) throw new NullPointerException(
+                    "This RedBlackTree cannot store null references.");
+            updateEnds();
+            // equal to the lowest value means already stored
+            if (size >= capacity && compare(data, lowest.data) <= 0) return false;
+            int sizeBefore = size;
+            Node<T> node = findOrInsert(data, null);
+            if (size == sizeBefore) return false;
+            if (lowest == null || compare(node.data, lowest.data) < 0) lowest = node;
+            if (highest == null || compare(node.data, highest.data) > 0) highest = node;
+            if (size > capacity) {
+                Node<T> evicted = lowest;
+                lowest = successor(evicted);
+                removeNode(evicted);
+                evicted.data = null;
+                spare = evicted;
+                evictions++;
+            }
+            endsModCount = modCount;
+            return true;
+        }
+
+        /**
+         * Inserts data like tryInsert.
+         * @param data to be added into this tree
+         * @return true if the value was inserted, false if it was rejected
+         * @throws NullPointerException when the provided data argument is null
+         * @throws IllegalArgumentException when data is already contained in the tree
+         */
+        @Override
+        public boolean insert(T data) throws NullPointerException, IllegalArgumentException {
+            if (tryInsert(data)) return true;
+            if (contains(data)) throw new IllegalArgumentException(
+                    "This RedBlackTree already contains that value.");
+            return false;
+        }
+
+        /**
+         * Inserts data like tryInsert. The finger of RedBlackTree does not pay
+         * off here, because the evictions remove the nodes around it.
+         */
+        @Override
+        public boolean insertNearFinger(T data) throws NullPointerException {
+            return tryInsert(data);
+        }
+
+        /**
+         * Not supported: the returned value could be one the bound rejects.
+         * @throws UnsupportedOperationException always
+         */
+        @Override
+        public T insertOrGet(T data) {
+            throw new UnsupportedOperationException("A BoundedRedBlackTree cannot return rejected values.");
+        }
+
+        /**
+         * Not supported: the returned value could be one the bound rejects.
+         * @throws UnsupportedOperationException always
+         */
+        @Override
+        public T computeIfAbsent(T probe, Function<? super T, ? extends T> factory) {
+            throw new UnsupportedOperationException("A BoundedRedBlackTree cannot return rejected values.");
+        }
+
+        /**
+         * Merges sorted values into this tree with the linear merge of
+         * RedBlackTree, then evicts the smallest values until the tree is back
+         * at its capacity. The values are filtered while they are read: a full
+         * tree drops those not greater than its lowest value, and only the
+         * capacity greatest of the rest are kept, so a batch of any length
+         * allocates at most capacity nodes and the rebuild stays O(capacity).
+         * @return the number of values the tree grew by: the values added minus
+         *      the values evicted
+         */
+        @Override
+        public int insertAllSorted(Iterator<? extends T> values)
+                throws NullPointerException, IllegalArgumentException {
+            updateEnds();
+            T floor = size >= capacity ? lowest.data : null; // values up to this one would be evicted at once
+            ArrayDeque<T> best = new ArrayDeque<>(); // the greatest values read so far, at most capacity
+            T previous = null;
+            while (values.hasNext()) {
+                T value = values.next();
+                if (value == null) throw new NullPointerException(
+                        "This RedBlackTree cannot store null references.");
+                if (previous != null) {
+                    int compare = compare(value, previous);
+                    if (compare < 0) throw new IllegalArgumentException(
+                            "The values are not sorted in ascending order.");
+                    if (compare == 0) continue; // repeated in the input
+                }
+                previous = value;
+                if (floor != null && compare(value, floor) <= 0) continue;
+                if (best.size() == capacity) best.pollFirst();
+                best.addLast(value);
+            }
+            int sizeBefore = size;
+            super.insertAllSorted(best.iterator());
+            if (size > capacity) {
+                Node<T> evicted = firstNode(root);
+                for (int excess = size - capacity; excess > 0; excess--) {
+                    Node<T> next = successor(evicted);
+                    removeNode(evicted);
+                    evictions++;
+                    evicted = next;
+                }
+            }
+            return Math.max(size - sizeBefore, 0);
+        }
+
+        /**
+         * Adds the values of an unsorted batch to this tree. Instead of sorting
+         * the whole batch, the values are first offered to a scratch tree of the
+         * same capacity, which rejects most of them with a single comparison and
+         * keeps the capacity greatest ones; only those are merged into this tree
+         * by insertAllSorted. This takes O(m log capacity) for m values and
+         * O(capacity) memory.
+         * The tree is left unchanged when an exception is thrown.
+         * @return the number of values the tree grew by: the values added minus
+         *      the values evicted
+         * @throws NullPointerException when values holds a null reference
+         */
+        @Override
+        public int insertAll(Collection<? extends T> values) throws NullPointerException {
+            updateEnds();
+            T floor = size >= capacity ? lowest.data : null;
+            BoundedRedBlackTree<T> best = BoundedRedBlackTree.<T>withCapacity(capacity, comparator());
+            for (T value : values) {
+                if (value == null) throw new NullPointerException(
+                        "This RedBlackTree cannot store null references.");
+                if (floor == null || compare(value, floor) > 0) best.tryInsert(value);
+            }
+            return insertAllSorted(best.iterator());
+        }
+
+        /**
+         * Not supported: split, join and the set operations would build trees
+         * that are not bounded by the capacity.
+         * @throws UnsupportedOperationException always
+         */
+        @Override
+        protected RedBlackTree<T> emptyCopy() {
+            throw new UnsupportedOperationException("A BoundedRedBlackTree cannot be split, joined or combined.");
+        }
+
+        @Override
+        protected Node<T> newNode(T data) {
+            Node<T> node = spare;
+            if (node == null) return super.newNode(data);
+            spare = null;
+            node.data = data;
+            node.blackHeight = 0;
+            return node;
+        }
+
+        /**
+         * Looks the lowest and highest nodes up again when the tree was modified
+         * since they were cached.
+         */
+        private void updateEnds() {
+            if (endsModCount == modCount) return;
+            lowest = firstNode(root);
+            highest = lastNode(root);
+            endsModCount = modCount;
+        }
+
+        /**
+         * @return the smallest value, from the cached lowest node
+         * @throws java.util.NoSuchElementException when the tree is empty
+         */
+        @Override
+        public T first() {
+            updateEnds();
+            return lowest == null ? super.first() : lowest.data;
+        }
+
+        /**
+         * @return the greatest value, from the cached highest node
+         * @throws java.util.NoSuchElementException when the tree is empty
+         */
+        @Override
+        public T last() {
+            updateEnds();
+            return highest == null ? super.last() : highest.data;
+        }
+
+        /**
+         * Streams random values through trees of several capacities and checks
+         * that they hold the greatest values of the stream, like a TreeSet that
+         * is trimmed after every insertion.
+         */
+        @Test
+        public void testAgainstTrimmedTreeSet() {
+            Random random = new Random(24);
+            for (int capacity : new int[] { 1, 2, 7, 100 }) {
+                BoundedRedBlackTree<Integer> tree = BoundedRedBlackTree.withCapacity(capacity);
+                TreeSet<Integer> expected = new TreeSet<>();
+                long evicted = 0;
+                for (int i = 0; i < 5000; i++) {
+                    int value = random.nextInt(2000);
+                    boolean stored = expected.add(value);
+                    if (expected.size() > capacity) {
+                        stored &= expected.pollFirst() != value;
+                        evicted++;
+                    }
+                    assertEquals(stored, tree.add(value));
+                    assertEquals(expected.first(), tree.first());
+                    assertEquals(expected.last(), tree.last());
+                    if (i % 50 == 0 && tree.size() > 1) {
+                        // a removal behind the back of the cache
+                        Integer removed = tree.pollLast();
+                        assertEquals(expected.pollLast(), removed);
+                    }
+                }
+                assertEquals(new ArrayList<>(expected), new ArrayList<>(tree));
+                RedBlackTree.assertValidRedBlackTree(tree);
+                assertTrue(tree.evictions() > 0);
+                assertTrue(tree.evictions() <= evicted);
+            }
+        }
+
+        /**
+         * Checks the other ways of adding values: insert, a reversed ordering,
+         * the bulk insertions and the operations that are not supported.
+         */
+        @Test
+        public void testInsertVariants() {
+            BoundedRedBlackTree<Integer> smallest = BoundedRedBlackTree.<Integer>withCapacity(3, Comparator.reverseOrder());
+            for (int value : new int[] { 5, 1, 9, 3, 7, 2 }) smallest.tryInsert(value);
+            assertEquals(List.of(3, 2, 1), new ArrayList<>(smallest));
+            assertFalse(smallest.insert(4)); // rejected, smaller values are kept
+            assertThrows(IllegalArgumentException.class, () -> smallest.insert(2));
+            assertTrue(smallest.insertNearFinger(0));
+            assertEquals(List.of(2, 1, 0), new ArrayList<>(smallest));
+            assertEquals(3, smallest.evictions());
+
+            BoundedRedBlackTree<Integer> top = BoundedRedBlackTree.withCapacity(100);
+            List<Integer> batch = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) batch.add((i * 7919) % 1000);
+            assertEquals(100, top.insertAll(batch));
+            assertEquals(100, top.size());
+            assertEquals(900, top.first());
+            assertEquals(999, top.last());
+            RedBlackTree.assertValidRedBlackTree(top);
+            assertEquals(0, top.insertAll(List.of(5, 6)));
+            assertFalse(top.add(899));
+            assertTrue(top.add(1000));
+            assertEquals(901, top.first());
+
+            top.clear();
+            assertTrue(top.add(3));
+            assertEquals(3, top.first());
+            assertEquals(3, top.last());
+            assertThrows(UnsupportedOperationException.class, () -> top.insertOrGet(4));
+            assertThrows(UnsupportedOperationException.class, () -> top.computeIfAbsent(4, v -> v));
+            assertThrows(UnsupportedOperationException.class, () -> top.split(3));
+            assertThrows(UnsupportedOperationException.class, () -> RedBlackTree.union(new RedBlackTree<>(), top));
+            assertEquals(List.of(3), new ArrayList<>(top));
+            assertThrows(IllegalArgumentException.class, () -> BoundedRedBlackTree.withCapacity(0));
+        }
+
+        /**
+         * Streams a batch far larger than the capacity through insertAllSorted
+         * and insertAll. Both must keep only the greatest values, and the few
+         * evictions show that the rest of the batch never reached the tree.
+         */
+        @Test
+        public void testLargeBatches() {
+            int count = 5_000_000;
+            BoundedRedBlackTree<Integer> top = BoundedRedBlackTree.withCapacity(100);
+            for (int value = 0; value < 100; value++) top.add(2 * count + value); // full, above the whole batch
+            assertEquals(0, top.insertAllSorted(IntStream.range(0, count).iterator()));
+            assertEquals(0, top.evictions());
+            assertEquals(2 * count, top.first());
+
+            BoundedRedBlackTree<Integer> fresh = BoundedRedBlackTree.withCapacity(100);
+            fresh.add(count / 2);
+            assertEquals(3, fresh.insertAllSorted(List.of(1, 2, 3).iterator()));
+            assertEquals(96, fresh.insertAllSorted(IntStream.range(0, count).iterator()));
+            assertEquals(count - 100, fresh.first());
+            assertEquals(count - 1, fresh.last());
+            assertEquals(100, fresh.size());
+            assertTrue(fresh.evictions() <= 100);
+            RedBlackTree.assertValidRedBlackTree(fresh);
+            assertThrows(IllegalArgumentException.class, () -> fresh.insertAllSorted(List.of(count + 2, count + 1).iterator()));
+            assertEquals(count - 100, fresh.first());
+
+            Random random = new Random(25);
+            List<Integer> batch = new ArrayList<>();
+            for (int i = 0; i < 1_000_000; i++) batch.add(random.nextInt(count));
+            TreeSet<Integer> expected = new TreeSet<>(batch);
+            expected.addAll(fresh);
+            while (expected.size() > 100) expected.pollFirst();
+            fresh.insertAll(batch);
+            assertEquals(new ArrayList<>(expected), new ArrayList<>(fresh));
+            assertTrue(fresh.evictions() <= 200);
+            RedBlackTree.assertValidRedBlackTree(fresh);
+            assertThrows(NullPointerException.class, () -> fresh.insertAll(Arrays.asList(count + 5, null)));
+            assertEquals(new ArrayList<>(expected), new ArrayList<>(fresh));
+        }
+    }
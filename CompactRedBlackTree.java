@@ -0,0 +1,633 @@
+
+    import java.util.AbstractSet;
+    import java.util.ArrayDeque;
+    import java.util.ArrayList;
+    import java.util.Comparator;
+    import java.util.ConcurrentModificationException;
+    import java.util.Iterator;
+    import java.util.List;
+    import java.util.NoSuchElementException;
+    import java.util.Random;
+    import java.util.TreeSet;
+    import static org.junit.jupiter.api.Assertions.*;
+    import org.junit.jupiter.api.Test;
+    import org.openjdk.jol.info.ClassLayout;
+    import org.openjdk.jol.info.GraphLayout;
+
+    /**
+     * Red-black tree with a smaller node than RedBlackTree. A node only holds its
+     * value, its two children and one int: the number of nodes in its subtree,
+     * with the color packed into the sign bit. There is no parent reference, so
+     * insert and remove record the nodes of their descent in a path stack and
+     * the fixups walk back up that stack instead of following parent links.
+     *
+     * On a 64-bit JVM with compressed references a node of OrderStatisticTree,
+     * which also keeps rank and select, takes 40 bytes (header, blackHeight,
+     * subtreeSize and four references) and a node of this tree 32 bytes,
+     * without compressed references 56 and 48 bytes. The values themselves are
+     * not included. Rank and select are kept, while the views, floor/ceiling
+     * and split/join of RedBlackTree are not.
+     * This tree will not hold null values.
+     */
+    public class CompactRedBlackTree<T extends Comparable<T>> extends AbstractSet<T> {
+
+        private static final int RED = Integer.MIN_VALUE; // color bit of sizeAndColor
+        // the height of a red-black tree of n nodes is at most 2 * log2(n + 1)
+        private static final int MAX_DEPTH = 2 * Integer.SIZE + 2;
+
+        /**
+         * Node without a parent reference. sizeAndColor holds the size of the
+         * subtree rooted at this node in its low 31 bits and RED for red nodes.
+         */
+        protected static final class Node<T> {
+            public int sizeAndColor = RED | 1; // new nodes are red leaves
+            public T data;
+            public Node<T> leftChild;
+            public Node<T> rightChild;
+            public Node(T data) { this.data = data; }
+
+            boolean isRed() {
+                return sizeAndColor < 0;
+            }
+
+            int subtreeSize() {
+                return sizeAndColor & ~RED;
+            }
+
+            void setRed(boolean red) {
+                sizeAndColor = red ? sizeAndColor | RED : sizeAndColor & ~RED;
+            }
+
+            void setSubtreeSize(int size) {
+                sizeAndColor = (sizeAndColor & RED) | size;
+            }
+        }
+
+        private Comparator<? super T> comparator; // null for the natural ordering, only set by withComparator
+        protected Node<T> root; // reference to root node of tree, null when empty
+        protected int size = 0; // the number of values in the tree
+        protected int modCount = 0; // number of structural changes, lets iterators fail fast
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private final Node<T>[] path = new Node[MAX_DEPTH + 1]; // nodes of the last descent, root first
+
+        /**
+         * Creates an empty tree ordered by the natural ordering of its values.
+         * Use withComparator for any other ordering.
+         */
+        public CompactRedBlackTree() {
+        }
+
+        /**
+         * Creates an empty tree ordered by comparator.
+         * @param comparator the ordering of the values, null for their natural
+         *      ordering
+         */
+        public static <T extends Comparable<T>> CompactRedBlackTree<T> withComparator(
+                Comparator<? super T> comparator) {
+            CompactRedBlackTree<T> tree = new CompactRedBlackTree<>();
+            tree.comparator = comparator;
+            return tree;
+        }
+
+        private int compare(T a, T b) {
+            return comparator == null ? a.compareTo(b) : comparator.compare(a, b);
+        }
+
+        /**
+         * @return the comparator ordering the values, or null for their natural
+         *      ordering
+         */
+        public Comparator<? super T> comparator() {
+            return comparator;
+        }
+
+        private static int sizeOf(Node<?> node) {
+            return node == null ? 0 : node.subtreeSize();
+        }
+
+        private static boolean isBlack(Node<?> node) {
+            return node == null || !node.isRed();
+        }
+
+        /**
+         * Performs a naive insertion into a binary search tree: adding the input
+         * data value to a new node in a leaf position within the tree. After
+         * this insertion, no attempt is made to restructure or balance the tree.
+         * @param data the value to insert
+         * @return the depth of the new node in path, or -1 when data is already
+         *      contained in the tree
+         */
+        private int insertLeaf(T data) {
+            if (root == null) {
+                root = new Node<>(data);
+                path[0] = root;
+                return 0;
+            }
+            int depth = 0;
+            Node<T> node = root;
+            int compare;
+            while (true) {
+                path[depth] = node;
+                compare = compare(data, node.data);
+                if (compare == 0) return -1;
+                Node<T> next = compare < 0 ? node.leftChild : node.rightChild;
+                if (next == null) break;
+                node = next;
+                depth++;
+            }
+            Node<T> newNode = new Node<>(data);
+            if (compare < 0) node.leftChild = newNode;
+            else node.rightChild = newNode;
+            for (int i = 0; i <= depth; i++) path[i].sizeAndColor++;
+            path[++depth] = newNode;
+            return depth;
+        }
+
+        /**
+         * Inserts a new value into the tree and restores the red-black tree
+         * properties by walking back up the path of the insertion.
+         * @param data the value to insert
+         * @return true when the value was inserted
+         * @throws NullPointerException when the provided data argument is null
+         * @throws IllegalArgumentException when data is already contained in the tree
+         */
+        public boolean insert(T data) throws NullPointerException, IllegalArgumentException {
+            if (!add(data)) throw new IllegalArgumentException("This RedBlackTree already contains that value.");
+            return true;
+        }
+
+        /**
+         * Adds a value to the tree, unless it is already contained.
+         * @return true when the value was added, false when it was already there
+         * @throws NullPointerException when the provided data argument is null
+         */
+        @Override
+        public boolean add(T data) throws NullPointerException {
+            if (data == null) throw new NullPointerException("This RedBlackTree cannot store null references.");
+            int depth = insertLeaf(data);
+            if (depth < 0) return false;
+            size++;
+            modCount++;
+            enforceRBTreePropertiesAfterInsert(depth);
+            return true;
+        }
+
+        /**
+         * Resolves a red node with a red parent, the node being path[depth].
+         */
+        private void enforceRBTreePropertiesAfterInsert(int depth) {
+            while (depth >= 2 && path[depth - 1].isRed()) {
+                Node<T> node = path[depth];
+                Node<T> parent = path[depth - 1];
+                Node<T> grandparent = path[depth - 2];
+                Node<T> above = depth >= 3 ? path[depth - 3] : null;
+                boolean parentIsLeft = grandparent.leftChild == parent;
+                Node<T> aunt = parentIsLeft ? grandparent.rightChild : grandparent.leftChild;
+                if (!isBlack(aunt)) {
+                    // red aunt: push the red up to the grandparent
+                    parent.setRed(false);
+                    aunt.setRed(false);
+                    grandparent.setRed(true);
+                    depth -= 2;
+                    continue;
+                }
+                if (parentIsLeft) {
+                    if (parent.rightChild == node) parent = rotateLeft(parent, grandparent);
+                    rotateRight(grandparent, above);
+                } else {
+                    if (parent.leftChild == node) parent = rotateRight(parent, grandparent);
+                    rotateLeft(grandparent, above);
+                }
+                parent.setRed(false);
+                grandparent.setRed(true);
+                break;
+            }
+            root.setRed(false);
+        }
+
+        /**
+         * Rotates the right child of node up into the place of node.
+         * @param above the parent of node, null when node is the root
+         * @return the node that took the place of node
+         */
+        private Node<T> rotateLeft(Node<T> node, Node<T> above) {
+            Node<T> child = node.rightChild;
+            node.rightChild = child.leftChild;
+            child.leftChild = node;
+            child.setSubtreeSize(node.subtreeSize());
+            node.setSubtreeSize(sizeOf(node.leftChild) + sizeOf(node.rightChild) + 1);
+            replaceChild(above, node, child);
+            return child;
+        }
+
+        /**
+         * Rotates the left child of node up into the place of node.
+         * @param above the parent of node, null when node is the root
+         * @return the node that took the place of node
+         */
+        private Node<T> rotateRight(Node<T> node, Node<T> above) {
+            Node<T> child = node.leftChild;
+            node.leftChild = child.rightChild;
+            child.rightChild = node;
+            child.setSubtreeSize(node.subtreeSize());
+            node.setSubtreeSize(sizeOf(node.leftChild) + sizeOf(node.rightChild) + 1);
+            replaceChild(above, node, child);
+            return child;
+        }
+
+        private void replaceChild(Node<T> above, Node<T> oldChild, Node<T> newChild) {
+            if (above == null) root = newChild;
+            else if (above.leftChild == oldChild) above.leftChild = newChild;
+            else above.rightChild = newChild;
+        }
+
+        /**
+         * Removes a value from the tree. A node with two children takes over the
+         * value of its in-order successor, whose node is unlinked instead.
+         * @return true when the value was removed, false when it was not contained
+         * @throws ClassCastException when o cannot be compared with the values of
+         *      this tree
+         */
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean remove(Object o) {
+            if (o == null) return false;
+            T data = (T) o;
+            int depth = 0;
+            Node<T> node = root;
+            while (node != null) {
+                path[depth] = node;
+                int compare = compare(data, node.data);
+                if (compare == 0) break;
+                node = compare < 0 ? node.leftChild : node.rightChild;
+                depth++;
+            }
+            if (node == null) return false;
+            if (node.leftChild != null && node.rightChild != null) {
+                Node<T> successor = node.rightChild;
+                path[++depth] = successor;
+                while (successor.leftChild != null) {
+                    successor = successor.leftChild;
+                    path[++depth] = successor;
+                }
+                node.data = successor.data;
+                node = successor;
+            }
+            for (int i = 0; i < depth; i++) path[i].sizeAndColor--;
+            Node<T> child = node.leftChild != null ? node.leftChild : node.rightChild;
+            replaceChild(depth > 0 ? path[depth - 1] : null, node, child);
+            size--;
+            modCount++;
+            if (node.isRed()) return true;
+            path[depth] = child;
+            enforceRBTreePropertiesAfterRemove(depth);
+            return true;
+        }
+
+        /**
+         * Restores the black height after a black node was unlinked: path[depth]
+         * (which may be null) is one black node short on its side.
+         */
+        private void enforceRBTreePropertiesAfterRemove(int depth) {
+            Node<T> node = path[depth];
+            while (depth > 0 && isBlack(node)) {
+                Node<T> parent = path[depth - 1];
+                Node<T> above = depth >= 2 ? path[depth - 2] : null;
+                // the sibling of a black-short side is never null
+                boolean isLeft = parent.leftChild == node;
+                Node<T> sibling = isLeft ? parent.rightChild : parent.leftChild;
+                if (sibling.isRed()) {
+                    // red sibling: rotate it above parent, which moves node one level down
+                    sibling.setRed(false);
+                    parent.setRed(true);
+                    if (isLeft) rotateLeft(parent, above);
+                    else rotateRight(parent, above);
+                    path[depth - 1] = sibling;
+                    path[depth] = parent;
+                    path[++depth] = node;
+                    sibling = isLeft ? parent.rightChild : parent.leftChild;
+                }
+                if (isBlack(sibling.leftChild) && isBlack(sibling.rightChild)) {
+                    sibling.setRed(true);
+                    node = parent;
+                    depth--;
+                    continue;
+                }
+                above = depth >= 2 ? path[depth - 2] : null;
+                if (isLeft) {
+                    if (isBlack(sibling.rightChild)) {
+                        sibling.leftChild.setRed(false);
+                        sibling.setRed(true);
+                        sibling = rotateRight(sibling, parent);
+                    }
+                    sibling.setRed(parent.isRed());
+                    parent.setRed(false);
+                    sibling.rightChild.setRed(false);
+                    rotateLeft(parent, above);
+                } else {
+                    if (isBlack(sibling.leftChild)) {
+                        sibling.rightChild.setRed(false);
+                        sibling.setRed(true);
+                        sibling = rotateLeft(sibling, parent);
+                    }
+                    sibling.setRed(parent.isRed());
+                    parent.setRed(false);
+                    sibling.leftChild.setRed(false);
+                    rotateRight(parent, above);
+                }
+                node = root;
+                break;
+            }
+            if (node != null) node.setRed(false);
+        }
+
+        /**
+         * Checks whether the tree contains the value *data*.
+         * @param o the data value to test for
+         * @return true if *data* is in the tree, false if it is not
+         */
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean contains(Object o) {
+            if (o == null) return false;
+            T data = (T) o;
+            Node<T> node = root;
+            while (node != null) {
+                int compare = compare(data, node.data);
+                if (compare == 0) return true;
+                node = compare < 0 ? node.leftChild : node.rightChild;
+            }
+            return false;
+        }
+
+        /**
+         * Get the size of the tree (its number of nodes).
+         * @return the number of nodes in the tree
+         */
+        @Override
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Removes all values from the tree.
+         */
+        @Override
+        public void clear() {
+            root = null;
+            size = 0;
+            modCount++;
+        }
+
+        /**
+         * @return the smallest value of the tree
+         * @throws NoSuchElementException when the tree is empty
+         */
+        public T first() {
+            if (root == null) throw new NoSuchElementException();
+            Node<T> node = root;
+            while (node.leftChild != null) node = node.leftChild;
+            return node.data;
+        }
+
+        /**
+         * @return the largest value of the tree
+         * @throws NoSuchElementException when the tree is empty
+         */
+        public T last() {
+            if (root == null) throw new NoSuchElementException();
+            Node<T> node = root;
+            while (node.rightChild != null) node = node.rightChild;
+            return node.data;
+        }
+
+        /**
+         * @return the number of values in the tree that are smaller than data
+         */
+        public int rank(T data) {
+            int rank = 0;
+            Node<T> node = root;
+            while (node != null) {
+                int compare = compare(data, node.data);
+                if (compare <= 0) {
+                    node = node.leftChild;
+                } else {
+                    rank += sizeOf(node.leftChild) + 1;
+                    node = node.rightChild;
+                }
+            }
+            return rank;
+        }
+
+        /**
+         * @return the value with the given rank, the smallest value having rank 0
+         * @throws IndexOutOfBoundsException when rank is negative or not smaller
+         *      than the size of the tree
+         */
+        public T select(int rank) {
+            if (rank < 0 || rank >= size) throw new IndexOutOfBoundsException(
+                    "Rank " + rank + " is out of bounds for size " + size + ".");
+            Node<T> node = root;
+            while (true) {
+                int leftSize = sizeOf(node.leftChild);
+                if (rank == leftSize) return node.data;
+                if (rank < leftSize) {
+                    node = node.leftChild;
+                } else {
+                    rank -= leftSize + 1;
+                    node = node.rightChild;
+                }
+            }
+        }
+
+        /**
+         * Returns an iterator over the values in ascending order. Without parent
+         * references it keeps the path to the next node on a stack.
+         */
+        @Override
+        public Iterator<T> iterator() {
+            return new Iterator<T>() {
+                @SuppressWarnings({"unchecked", "rawtypes"})
+                private final Node<T>[] stack = new Node[MAX_DEPTH + 1];
+                private int depth = pushLeft(root, 0); // number of nodes on the stack
+                private T lastReturned;
+                private int expectedModCount = modCount;
+
+                private int pushLeft(Node<T> node, int depth) {
+                    for (; node != null; node = node.leftChild) stack[depth++] = node;
+                    return depth;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return depth > 0;
+                }
+
+                @Override
+                public T next() {
+                    if (modCount != expectedModCount) throw new ConcurrentModificationException();
+                    if (depth == 0) throw new NoSuchElementException();
+                    Node<T> node = stack[--depth];
+                    depth = pushLeft(node.rightChild, depth);
+                    return lastReturned = node.data;
+                }
+
+                @Override
+                public void remove() {
+                    if (lastReturned == null) throw new IllegalStateException();
+                    if (modCount != expectedModCount) throw new ConcurrentModificationException();
+                    CompactRedBlackTree.this.remove(lastReturned);
+                    // the removal may rotate the stacked nodes, so descend again
+                    // to the first value greater than the removed one
+                    depth = 0;
+                    Node<T> node = root;
+                    while (node != null) {
+                        if (compare(lastReturned, node.data) < 0) {
+                            stack[depth++] = node;
+                            node = node.leftChild;
+                        } else {
+                            node = node.rightChild;
+                        }
+                    }
+                    lastReturned = null;
+                    expectedModCount = modCount;
+                }
+            };
+        }
+
+        /**
+         * This method performs an inorder traversal of the tree. The string
+         * representations of each data value within the tree are assembled into
+         * a comma separated string within brackets (similar to many
+         * implementations of java.util.Collection, like java.util.ArrayList,
+         * LinkedList, etc).
+         * @return string containing the ordered values of this tree (in-order traversal)
+         */
+        public String toInOrderString() {
+            StringBuilder sb = new StringBuilder("[ ");
+            for (T value : this) {
+                if (sb.length() > 2) sb.append(", ");
+                sb.append(value);
+            }
+            return sb.append(" ]").toString();
+        }
+
+        /**
+         * This method performs a level order traversal of the tree. The string
+         * representations of each data value within the tree are assembled into
+         * a comma separated string within brackets.
+         * @return string containing the values of this tree in level order
+         */
+        public String toLevelOrderString() {
+            StringBuilder sb = new StringBuilder("[ ");
+            if (root != null) {
+                ArrayDeque<Node<T>> queue = new ArrayDeque<>();
+                queue.add(root);
+                while (!queue.isEmpty()) {
+                    Node<T> next = queue.removeFirst();
+                    if (next.leftChild != null) queue.add(next.leftChild);
+                    if (next.rightChild != null) queue.add(next.rightChild);
+                    sb.append(next.data);
+                    if (!queue.isEmpty()) sb.append(", ");
+                }
+            }
+            return sb.append(" ]").toString();
+        }
+
+        @Override
+        public String toString() {
+            return this.toLevelOrderString();
+        }
+
+        /**
+         * Checks insert, remove, rank, select and iterator removal against a
+         * java.util.TreeSet.
+         */
+        @Test
+        public void testAgainstTreeSet() {
+            CompactRedBlackTree<Integer> tree = new CompactRedBlackTree<>();
+            TreeSet<Integer> expected = new TreeSet<>();
+            Random random = new Random(17);
+            for (int i = 0; i < 20000; i++) {
+                int value = random.nextInt(3000);
+                if (random.nextInt(3) == 0) assertEquals(expected.remove(value), tree.remove(value));
+                else assertEquals(expected.add(value), tree.add(value));
+                if (i % 1000 == 0) assertValid(tree);
+            }
+            assertEquals(expected, tree);
+            assertValid(tree);
+            List<Integer> values = new ArrayList<>(expected);
+            for (int rank = 0; rank < values.size(); rank += 7) {
+                assertEquals(values.get(rank), tree.select(rank));
+                assertEquals(rank, tree.rank(values.get(rank)));
+            }
+            assertEquals(expected.first(), tree.first());
+            assertEquals(expected.last(), tree.last());
+
+            for (Iterator<Integer> it = tree.iterator(); it.hasNext();) if (it.next() % 3 == 0) it.remove();
+            expected.removeIf(value -> value % 3 == 0);
+            assertEquals(new ArrayList<>(expected), new ArrayList<>(tree));
+            assertValid(tree);
+
+            assertThrows(IllegalArgumentException.class, () -> tree.insert(expected.first()));
+            assertThrows(NullPointerException.class, () -> tree.insert(null));
+            CompactRedBlackTree<Integer> descending = CompactRedBlackTree.<Integer>withComparator(Comparator.reverseOrder());
+            for (int i = 0; i < 100; i++) descending.insert(i);
+            assertEquals(99, descending.first());
+            assertValid(descending);
+        }
+
+        /**
+         * Compares the bytes per node of CompactRedBlackTree and
+         * OrderStatisticTree, which keeps the same subtree sizes. JOL walks the
+         * objects reachable from each tree and sizes them in the layout of the
+         * running JVM; the values are left out, so only the nodes are counted.
+         */
+        @Test
+        public void testFootprint() {
+            int n = 10_000;
+            Integer[] values = new Integer[n];
+            for (int i = 0; i < n; i++) values[i] = i * 7919 % n;
+            GraphLayout valueLayout = GraphLayout.parseInstance((Object[]) values);
+
+            CompactRedBlackTree<Integer> compact = new CompactRedBlackTree<>();
+            OrderStatisticTree<Integer> tree = new OrderStatisticTree<>();
+            for (Integer value : values) {
+                compact.add(value);
+                tree.add(value);
+            }
+            double compactBytes = (double) GraphLayout.parseInstance(compact).subtract(valueLayout).totalSize() / n;
+            double treeBytes = (double) GraphLayout.parseInstance(tree).subtract(valueLayout).totalSize() / n;
+            long compactNode = ClassLayout.parseClass(Node.class).instanceSize();
+            long treeNode = ClassLayout.parseClass(OrderStatisticTree.SizedNode.class).instanceSize();
+
+            // apart from the nodes, each tree only holds a few objects of its own
+            assertEquals(compactNode, (long) compactBytes);
+            assertEquals(treeNode, (long) treeBytes);
+            assertTrue(compactNode + 8 <= treeNode,
+                    "compact node " + compactNode + " bytes, OrderStatisticTree node " + treeNode + " bytes");
+        }
+
+        /**
+         * Asserts the red-black tree properties and subtree sizes of a tree.
+         */
+        static <T extends Comparable<T>> void assertValid(CompactRedBlackTree<T> tree) {
+            if (tree.root == null) return;
+            assertFalse(tree.root.isRed(), "red root");
+            blackHeightOf(tree, tree.root);
+            assertEquals(tree.size, tree.root.subtreeSize());
+        }
+
+        private static <T extends Comparable<T>> int blackHeightOf(CompactRedBlackTree<T> tree, Node<T> node) {
+            if (node == null) return 1;
+            if (node.isRed()) {
+                assertTrue(isBlack(node.leftChild) && isBlack(node.rightChild), "red node with red child");
+            }
+            if (node.leftChild != null) assertTrue(tree.compare(node.leftChild.data, node.data) < 0, "values out of order");
+            if (node.rightChild != null) assertTrue(tree.compare(node.rightChild.data, node.data) > 0, "values out of order");
+            assertEquals(sizeOf(node.leftChild) + sizeOf(node.rightChild) + 1, node.subtreeSize());
+            int left = blackHeightOf(tree, node.leftChild);
+            assertEquals(left, blackHeightOf(tree, node.rightChild), "unequal black heights");
+            return left + (node.isRed() ? 0 : 1);
+        }
+    }
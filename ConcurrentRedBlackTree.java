@@ -0,0 +1,305 @@
+
+    import java.io.IOException;
+    import java.nio.file.Path;
+    import java.util.ArrayList;
+    import java.util.Comparator;
+    import java.util.List;
+    import java.util.concurrent.locks.StampedLock;
+
+    /**
+     * Thread-safe red-black tree for many readers and few writers. The values live
+     * in a RedBlackTree that is only modified under the write lock of a
+     * StampedLock, so insert, remove and their rotation fixups are exclusive.
+     * Reads start as optimistic reads: they walk the nodes without taking any
+     * lock and validate the stamp afterwards, so readers never block each other
+     * and only retry (under the read lock) when a writer ran at the same time.
+     *
+     * An optimistic read can see the nodes half way through a rotation, so every
+     * walk is bounded by a step limit and treats any exception as a failed
+     * validation; the result of such a walk is thrown away before it is used.
+     */
+    public class ConcurrentRedBlackTree<T extends Comparable<T>> {
+
+        // the height of a red-black tree of n nodes is at most 2 * log2(n + 1),
+        // a descent taking more steps than this ran into a concurrent rotation
+        private static final int MAX_DESCENT = 2 * Integer.SIZE + 2;
+
+        private final RedBlackTree<T> tree; // final, so even a racy publication shows readers this tree
+        private final StampedLock lock = new StampedLock();
+
+        /**
+         * Thrown by an optimistic walk that exceeded its step limit.
+         */
+        private static final class Inconsistent extends RuntimeException {
+            private static final long serialVersionUID = 1L;
+            Inconsistent() { super(null, null, false, false); }
+        }
+        private static final Inconsistent INCONSISTENT = new Inconsistent();
+
+        /**
+         * Creates an empty tree ordered by the natural ordering of its values.
+         * Use withComparator for any other ordering.
+         */
+        public ConcurrentRedBlackTree() {
+            this(new RedBlackTree<>());
+        }
+
+        private ConcurrentRedBlackTree(RedBlackTree<T> tree) {
+            this.tree = tree;
+        }
+
+        /**
+         * Creates an empty tree ordered by comparator.
+         * @param comparator the ordering of the values, null for their natural
+         *      ordering
+         */
+        public static <T extends Comparable<T>> ConcurrentRedBlackTree<T> withComparator(
+                Comparator<? super T> comparator) {
+            return wrap(RedBlackTree.<T>withComparator(comparator));
+        }
+
+        /**
+         * Wraps a tree that no other code modifies any more, for example one
+         * loaded from a snapshot.
+         */
+        static <T extends Comparable<T>> ConcurrentRedBlackTree<T> wrap(RedBlackTree<T> tree) {
+            return new ConcurrentRedBlackTree<>(tree);
+        }
+
+        /**
+         * Inserts a value into the tree under the write lock.
+         * @param data the value to insert
+         * @return true when the value was inserted
+         * @throws NullPointerException when the provided data argument is null
+         * @throws IllegalArgumentException when data is already contained in the tree
+         */
+        public boolean insert(T data) throws NullPointerException, IllegalArgumentException {
+            long stamp = lock.writeLock();
+            try {
+                return tree.insert(data);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        /**
+         * Adds a value to the tree under the write lock, unless it is already
+         * contained.
+         * @return true when the value was added, false when it was already there
+         * @throws NullPointerException when the provided data argument is null
+         */
+        public boolean add(T data) throws NullPointerException {
+            long stamp = lock.writeLock();
+            try {
+                return tree.add(data);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        /**
+         * Removes a value from the tree under the write lock.
+         * @return true when the value was removed, false when it was not contained
+         */
+        public boolean remove(T data) {
+            long stamp = lock.writeLock();
+            try {
+                return tree.remove(data);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        /**
+         * Checks whether the tree contains the value *data*. The descent runs as an
+         * optimistic read and only takes the read lock when a writer interfered.
+         * @param data the data value to test for
+         * @return true if *data* is in the tree, false if it is not
+         * @throws NullPointerException when the provided data argument is null
+         */
+        public boolean contains(T data) throws NullPointerException {
+            if (data == null) throw new NullPointerException(
+                    "This RedBlackTree cannot store null references.");
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0L) {
+                try {
+                    boolean found = find(data, MAX_DESCENT) != null;
+                    if (lock.validate(stamp)) return found;
+                } catch (RuntimeException inconsistent) {
+                    // the walk saw a half finished write, retry under the read lock
+                }
+            }
+            stamp = lock.readLock();
+            try {
+                return find(data, Integer.MAX_VALUE) != null;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        /**
+         * Returns the values from lo to hi in ascending order. The walk runs as an
+         * optimistic read and only takes the read lock when a writer interfered.
+         * @param lo the lower bound
+         * @param loInclusive true when lo itself belongs to the range
+         * @param hi the upper bound
+         * @param hiInclusive true when hi itself belongs to the range
+         * @return a new list holding the values of the range
+         * @throws NullPointerException when a bound is null
+         */
+        public List<T> range(T lo, boolean loInclusive, T hi, boolean hiInclusive) throws NullPointerException {
+            if (lo == null || hi == null) throw new NullPointerException(
+                    "This RedBlackTree cannot store null references.");
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0L) {
+                try {
+                    List<T> values = collect(lo, loInclusive, hi, hiInclusive, true);
+                    if (lock.validate(stamp)) return values;
+                } catch (RuntimeException inconsistent) {
+                    // the walk saw a half finished write, retry under the read lock
+                }
+            }
+            stamp = lock.readLock();
+            try {
+                return collect(lo, loInclusive, hi, hiInclusive, false);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        /**
+         * Get the size of the tree (its number of nodes).
+         * @return the number of nodes in the tree
+         */
+        public int size() {
+            long stamp = lock.tryOptimisticRead();
+            int size = tree.size;
+            if (lock.validate(stamp)) return size;
+            stamp = lock.readLock();
+            try {
+                return tree.size;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        /**
+         * Method to check if the tree is empty (does not contain any node).
+         * @return true of this.size() return 0, false if this.size() > 0
+         */
+        public boolean isEmpty() {
+            return size() == 0;
+        }
+
+        /**
+         * @return the values of the tree in ascending order, read under the read lock
+         */
+        public List<T> toList() {
+            long stamp = lock.readLock();
+            try {
+                return new ArrayList<>(tree);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        /**
+         * @return the in-order string of the tree, read under the read lock
+         */
+        public String toInOrderString() {
+            long stamp = lock.readLock();
+            try {
+                return tree.toInOrderString();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return toInOrderString();
+        }
+
+        /**
+         * Writes a snapshot of the tree under the read lock, see
+         * RedBlackTree.writeSnapshot.
+         * @throws IOException when the snapshot cannot be written
+         */
+        public void writeSnapshot(Path file, KeyCodec<? super T> codec) throws IOException {
+            long stamp = lock.readLock();
+            try {
+                tree.writeSnapshot(file, codec);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        /**
+         * Descends from the root to the node holding data.
+         * @param maxSteps the number of nodes the descent may visit
+         * @return the node holding data, or null when there is none
+         */
+        private RedBlackTree.Node<T> find(T data, int maxSteps) {
+            RedBlackTree.Node<T> node = tree.root;
+            while (node != null) {
+                if (--maxSteps < 0) throw INCONSISTENT;
+                int compare = tree.compare(data, node.data);
+                if (compare == 0) return node;
+                node = compare < 0 ? node.leftChild : node.rightChild;
+            }
+            return null;
+        }
+
+        /**
+         * Collects the values of a range with a ceiling descent followed by
+         * successor steps. When bounded, the walk may visit at most twice the
+         * (optimistically read) size plus two descents worth of nodes, which is
+         * more than any consistent in-order walk needs.
+         */
+        private List<T> collect(T lo, boolean loInclusive, T hi, boolean hiInclusive, boolean bounded) {
+            long maxSteps = bounded ? 2L * tree.size + 2L * MAX_DESCENT : Long.MAX_VALUE;
+            List<T> values = new ArrayList<>();
+
+            RedBlackTree.Node<T> start = null;
+            RedBlackTree.Node<T> node = tree.root;
+            while (node != null) {
+                if (--maxSteps < 0) throw INCONSISTENT;
+                int compare = tree.compare(lo, node.data);
+                if (compare == 0 && loInclusive) {
+                    start = node;
+                    break;
+                }
+                if (compare < 0) {
+                    start = node;
+                    node = node.leftChild;
+                } else {
+                    node = node.rightChild;
+                }
+            }
+
+            node = start;
+            while (node != null) {
+                int compare = tree.compare(hi, node.data);
+                if (compare < 0 || (compare == 0 && !hiInclusive)) break;
+                values.add(node.data);
+                // in-order successor, counting every step of the walk
+                if (node.rightChild != null) {
+                    node = node.rightChild;
+                    while (node.leftChild != null) {
+                        if (--maxSteps < 0) throw INCONSISTENT;
+                        node = node.leftChild;
+                    }
+                } else {
+                    RedBlackTree.Node<T> child = node;
+                    node = node.parent;
+                    while (node != null && node.rightChild == child) {
+                        if (--maxSteps < 0) throw INCONSISTENT;
+                        child = node;
+                        node = node.parent;
+                    }
+                }
+                if (--maxSteps < 0) throw INCONSISTENT;
+            }
+            return values;
+        }
+    }
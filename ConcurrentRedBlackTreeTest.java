@@ -0,0 +1,85 @@
+
+    import java.util.ArrayList;
+    import java.util.List;
+    import java.util.Random;
+    import java.util.TreeSet;
+    import java.util.concurrent.atomic.AtomicReference;
+    import static org.junit.jupiter.api.Assertions.*;
+    import org.junit.jupiter.api.Test;
+
+    /**
+     * Tests of ConcurrentRedBlackTree. They live outside of it because JUnit
+     * Jupiter refuses test classes that declare more than one constructor, and
+     * ConcurrentRedBlackTree needs a private one that takes the wrapped tree.
+     */
+    public class ConcurrentRedBlackTreeTest {
+
+        /**
+         * Checks contains, range and remove against a java.util.TreeSet on a
+         * single thread.
+         */
+        @Test
+        public void testSingleThreaded() {
+            RedBlackTree<Integer> backing = new RedBlackTree<>();
+            ConcurrentRedBlackTree<Integer> tree = ConcurrentRedBlackTree.wrap(backing);
+            TreeSet<Integer> expected = new TreeSet<>();
+            Random random = new Random(10);
+            for (int i = 0; i < 5000; i++) {
+                int value = random.nextInt(2000);
+                if (random.nextInt(3) == 0) assertEquals(expected.remove(value), tree.remove(value));
+                else assertEquals(expected.add(value), tree.add(value));
+            }
+            assertEquals(expected.size(), tree.size());
+            for (int value = -1; value <= 2000; value++) assertEquals(expected.contains(value), tree.contains(value));
+            assertThrows(NullPointerException.class, () -> tree.contains(null));
+            assertEquals(new ArrayList<>(expected.subSet(100, true, 900, false)), tree.range(100, true, 900, false));
+            assertEquals(new ArrayList<>(expected.subSet(100, false, 900, true)), tree.range(100, false, 900, true));
+            assertEquals(new ArrayList<>(expected), tree.toList());
+            RedBlackTree.assertValidRedBlackTree(backing);
+        }
+
+        /**
+         * Runs reader threads against a writer that keeps inserting and removing
+         * odd values. The even values are never touched, so every reader must
+         * always find all of them, and a range read must always be sorted.
+         */
+        @Test
+        public void testReadersDuringWrites() throws InterruptedException {
+            RedBlackTree<Integer> backing = new RedBlackTree<>();
+            ConcurrentRedBlackTree<Integer> tree = ConcurrentRedBlackTree.wrap(backing);
+            for (int value = 0; value < 4000; value += 2) tree.insert(value);
+
+            AtomicReference<String> failure = new AtomicReference<>();
+            Thread writer = new Thread(() -> {
+                Random random = new Random(11);
+                for (int i = 0; i < 200_000; i++) {
+                    int odd = random.nextInt(2000) * 2 + 1;
+                    if (!tree.remove(odd)) tree.insert(odd);
+                }
+            });
+            List<Thread> readers = new ArrayList<>();
+            for (int r = 0; r < 4; r++) {
+                readers.add(new Thread(() -> {
+                    while (writer.isAlive() && failure.get() == null) {
+                        for (int value = 0; value < 4000; value += 2) {
+                            if (!tree.contains(value)) failure.set("lost " + value);
+                        }
+                        List<Integer> range = tree.range(1000, true, 2000, true);
+                        int evens = 0;
+                        for (int i = 0; i < range.size(); i++) {
+                            if (i > 0 && range.get(i - 1) >= range.get(i)) failure.set("unsorted range " + range);
+                            if (range.get(i) % 2 == 0) evens++;
+                        }
+                        if (evens != 501) failure.set("range lost even values " + range);
+                    }
+                }));
+            }
+            writer.start();
+            for (Thread reader : readers) reader.start();
+            writer.join();
+            for (Thread reader : readers) reader.join();
+
+            assertNull(failure.get());
+            RedBlackTree.assertValidRedBlackTree(backing);
+        }
+    }
@@ -0,0 +1,343 @@
+
+    import java.io.Closeable;
+    import java.io.IOException;
+    import java.nio.file.Files;
+    import java.nio.file.Path;
+    import java.util.ArrayList;
+    import java.util.Collection;
+    import java.util.List;
+    import java.util.Random;
+    import java.util.TreeSet;
+    import java.util.concurrent.locks.ReentrantLock;
+    import static org.junit.jupiter.api.Assertions.*;
+    import org.junit.jupiter.api.Test;
+
+    /**
+     * ConcurrentRedBlackTree whose mutations survive a crash. The tree lives in a
+     * directory holding a snapshot file (see RedBlackTreeSnapshot) and a
+     * WriteAheadLog of the mutations made since that snapshot. A mutation is
+     * applied to the tree and appended to the log under one lock, so the log
+     * has the order of the tree, and the mutating call returns once the log
+     * was forced. Threads that mutate at the same time share one force through
+     * the group commit of the log.
+     *
+     * When the log grows past the checkpoint size, the tree is written to a new
+     * snapshot and the log is emptied, which bounds both the log and the time
+     * open takes to replay it. Replaying a mutation on a tree that already has
+     * it changes nothing, so a crash between writing the snapshot and emptying
+     * the log loses nothing either.
+     *
+     * Readers see a mutation as soon as it was applied, which can be shortly
+     * before it is durable.
+     */
+    public final class DurableRedBlackTree<T extends Comparable<T>> implements Closeable {
+
+        public static final long DEFAULT_CHECKPOINT_BYTES = 64L << 20;
+        private static final String SNAPSHOT_FILE = "tree.snapshot";
+        private static final String LOG_FILE = "tree.log";
+
+        // set by open, which is the only way to create a usable tree
+        private ConcurrentRedBlackTree<T> tree;
+        private WriteAheadLog<T> log;
+        private Path snapshotFile;
+        private KeyCodec<T> codec;
+        private long checkpointBytes;
+        private final ReentrantLock writeLock = new ReentrantLock(); // keeps the log in the order of the tree
+
+        private DurableRedBlackTree() {
+        }
+
+        /**
+         * Opens the tree stored in directory with the default checkpoint size,
+         * see open(Path, KeyCodec, long).
+         */
+        public static <T extends Comparable<T>> DurableRedBlackTree<T> open(Path directory, KeyCodec<T> codec)
+                throws IOException {
+            return open(directory, codec, DEFAULT_CHECKPOINT_BYTES);
+        }
+
+        /**
+         * Opens the tree stored in directory, creating an empty one when the
+         * directory holds none. The latest snapshot is loaded and the log is
+         * replayed on top of it.
+         * @param checkpointBytes the log size at which a snapshot is taken
+         * @throws IOException when the files of the tree cannot be read
+         */
+        public static <T extends Comparable<T>> DurableRedBlackTree<T> open(Path directory, KeyCodec<T> codec,
+                long checkpointBytes) throws IOException {
+            Files.createDirectories(directory);
+            Path snapshotFile = directory.resolve(SNAPSHOT_FILE);
+            RedBlackTree<T> recovered = Files.exists(snapshotFile)
+                    ? RedBlackTree.loadSnapshot(snapshotFile, codec) : new RedBlackTree<>();
+            DurableRedBlackTree<T> durable = new DurableRedBlackTree<>();
+            durable.log = WriteAheadLog.open(directory.resolve(LOG_FILE), codec, (operation, value) -> {
+                if (operation == WriteAheadLog.INSERT) recovered.add(value);
+                else recovered.remove(value);
+            });
+            durable.tree = ConcurrentRedBlackTree.wrap(recovered);
+            durable.snapshotFile = snapshotFile;
+            durable.codec = codec;
+            durable.checkpointBytes = checkpointBytes;
+            return durable;
+        }
+
+        /**
+         * Inserts a value and returns once the insertion is durable.
+         * @return true when the value was inserted
+         * @throws NullPointerException when the provided data argument is null
+         * @throws IllegalArgumentException when data is already contained in the tree
+         * @throws IOException when the insertion could not be logged
+         */
+        public boolean insert(T data) throws NullPointerException, IllegalArgumentException, IOException {
+            if (!add(data)) throw new IllegalArgumentException("This RedBlackTree already contains that value.");
+            return true;
+        }
+
+        /**
+         * Adds a value unless it is already contained, and returns once the
+         * addition is durable.
+         * @return true when the value was added, false when it was already there
+         * @throws NullPointerException when the provided data argument is null
+         * @throws IOException when the addition could not be logged
+         */
+        public boolean add(T data) throws NullPointerException, IOException {
+            if (data == null) throw new NullPointerException("This RedBlackTree cannot store null references.");
+            return mutate(WriteAheadLog.INSERT, data);
+        }
+
+        /**
+         * Adds the values that are not contained yet and returns once all of
+         * them are durable. The values share one force of the log, which makes
+         * this much faster than adding them one by one.
+         * @return the number of values that were added
+         * @throws NullPointerException when values holds a null reference
+         * @throws IOException when the additions could not be logged
+         */
+        public int addAll(Collection<? extends T> values) throws NullPointerException, IOException {
+            for (T value : values) {
+                if (value == null) throw new NullPointerException("This RedBlackTree cannot store null references.");
+            }
+            int added = 0;
+            long sequence = 0;
+            writeLock.lock();
+            try {
+                for (T value : values) {
+                    if (!tree.add(value)) continue;
+                    try {
+                        sequence = log.append(WriteAheadLog.INSERT, value);
+                    } catch (IOException | RuntimeException e) {
+                        tree.remove(value);
+                        throw e;
+                    }
+                    added++;
+                }
+            } finally {
+                writeLock.unlock();
+            }
+            if (added > 0) {
+                log.sync(sequence);
+                if (log.fileSize() >= checkpointBytes) checkpointIfFull();
+            }
+            return added;
+        }
+
+        /**
+         * Removes a value and returns once the removal is durable.
+         * @return true when the value was removed, false when it was not contained
+         * @throws IOException when the removal could not be logged
+         */
+        public boolean remove(T data) throws IOException {
+            if (data == null) return false;
+            return mutate(WriteAheadLog.REMOVE, data);
+        }
+
+        private boolean mutate(byte operation, T data) throws IOException {
+            long sequence;
+            writeLock.lock();
+            try {
+                boolean insert = operation == WriteAheadLog.INSERT;
+                if (!(insert ? tree.add(data) : tree.remove(data))) return false;
+                try {
+                    sequence = log.append(operation, data);
+                } catch (IOException | RuntimeException e) {
+                    // a mutation that is not in the log must not stay in the tree
+                    if (insert) tree.remove(data);
+                    else tree.add(data);
+                    throw e;
+                }
+            } finally {
+                writeLock.unlock();
+            }
+            log.sync(sequence);
+            if (log.fileSize() >= checkpointBytes) checkpointIfFull();
+            return true;
+        }
+
+        private void checkpointIfFull() throws IOException {
+            writeLock.lock();
+            try {
+                // another writer may have taken the checkpoint in the meantime
+                if (log.fileSize() >= checkpointBytes) checkpoint();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        /**
+         * Writes the tree to a new snapshot and empties the log. The log is only
+         * truncated once the snapshot and its directory entry are forced.
+         * Mutations wait until the checkpoint is done.
+         * @throws IOException when the snapshot cannot be written
+         */
+        public void checkpoint() throws IOException {
+            writeLock.lock();
+            try {
+                tree.writeSnapshot(snapshotFile, codec);
+                log.truncate();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        /**
+         * Checks whether the tree contains the value *data*, see
+         * ConcurrentRedBlackTree.contains.
+         */
+        public boolean contains(T data) {
+            return tree.contains(data);
+        }
+
+        /**
+         * Returns the values from lo to hi in ascending order, see
+         * ConcurrentRedBlackTree.range.
+         */
+        public List<T> range(T lo, boolean loInclusive, T hi, boolean hiInclusive) throws NullPointerException {
+            return tree.range(lo, loInclusive, hi, hiInclusive);
+        }
+
+        /**
+         * Get the size of the tree (its number of nodes).
+         * @return the number of nodes in the tree
+         */
+        public int size() {
+            return tree.size();
+        }
+
+        /**
+         * Method to check if the tree is empty (does not contain any node).
+         * @return true of this.size() return 0, false if this.size() > 0
+         */
+        public boolean isEmpty() {
+            return tree.isEmpty();
+        }
+
+        /**
+         * @return the values of the tree in ascending order
+         */
+        public List<T> toList() {
+            return tree.toList();
+        }
+
+        @Override
+        public String toString() {
+            return tree.toString();
+        }
+
+        /**
+         * Waits for the pending mutations and closes the log. The tree keeps its
+         * values, but cannot be modified any more.
+         */
+        @Override
+        public void close() throws IOException {
+            writeLock.lock();
+            try {
+                log.close();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        /**
+         * Mutates a tree with a small checkpoint size and reopens it without
+         * closing it first, as after a crash, and after closing it.
+         */
+        @Test
+        public void testRecovery() throws IOException {
+            Path directory = Files.createTempDirectory("durable");
+            try {
+                DurableRedBlackTree<Integer> tree = open(directory, KeyCodec.INTEGER, 4096);
+                TreeSet<Integer> expected = new TreeSet<>();
+                Random random = new Random(19);
+                for (int i = 0; i < 3000; i++) {
+                    int value = random.nextInt(1000);
+                    if (random.nextInt(3) == 0) assertEquals(expected.remove(value), tree.remove(value));
+                    else assertEquals(expected.add(value), tree.add(value));
+                }
+                assertTrue(Files.exists(directory.resolve(SNAPSHOT_FILE)));
+                assertTrue(Files.size(directory.resolve(LOG_FILE)) < 4096 + 64);
+
+                DurableRedBlackTree<Integer> crashed = open(directory, KeyCodec.INTEGER, 4096);
+                assertEquals(new ArrayList<>(expected), crashed.toList());
+                crashed.close();
+                tree.close();
+                assertThrows(IOException.class, () -> tree.add(-1));
+                assertFalse(tree.contains(-1));
+
+                DurableRedBlackTree<Integer> reopened = open(directory, KeyCodec.INTEGER);
+                assertEquals(new ArrayList<>(expected), reopened.toList());
+                assertThrows(IllegalArgumentException.class, () -> reopened.insert(expected.first()));
+                reopened.checkpoint();
+                assertEquals(0, Files.size(directory.resolve(LOG_FILE)));
+                reopened.close();
+                DurableRedBlackTree<Integer> fromSnapshot = open(directory, KeyCodec.INTEGER);
+                assertEquals(new ArrayList<>(expected), fromSnapshot.toList());
+                fromSnapshot.close();
+            } finally {
+                try (java.util.stream.Stream<Path> files = Files.list(directory)) {
+                    for (Path file : (Iterable<Path>) files::iterator) Files.delete(file);
+                }
+                Files.delete(directory);
+            }
+        }
+
+        /**
+         * Adds disjoint values from several threads and checks that all of them
+         * are recovered.
+         */
+        @Test
+        public void testConcurrentWriters() throws Exception {
+            Path directory = Files.createTempDirectory("durable");
+            try {
+                DurableRedBlackTree<Integer> tree = open(directory, KeyCodec.INTEGER, 16 * 1024);
+                List<Thread> writers = new ArrayList<>();
+                List<Throwable> failures = new ArrayList<>();
+                for (int t = 0; t < 8; t++) {
+                    int offset = t;
+                    writers.add(new Thread(() -> {
+                        try {
+                            for (int value = offset; value < 4000; value += 8) tree.insert(value);
+                        } catch (Throwable e) {
+                            synchronized (failures) {
+                                failures.add(e);
+                            }
+                        }
+                    }));
+                }
+                for (Thread writer : writers) writer.start();
+                for (Thread writer : writers) writer.join();
+                assertEquals(List.of(), failures);
+                assertEquals(4000, tree.size());
+                assertEquals(2, tree.addAll(List.of(3999, 4000, 4001)));
+                tree.close();
+                DurableRedBlackTree<Integer> reopened = open(directory, KeyCodec.INTEGER);
+                assertEquals(4002, reopened.size());
+                assertEquals(List.of(0, 1, 2, 3), reopened.range(0, true, 3, true));
+                reopened.close();
+            } finally {
+                try (java.util.stream.Stream<Path> files = Files.list(directory)) {
+                    for (Path file : (Iterable<Path>) files::iterator) Files.delete(file);
+                }
+                Files.delete(directory);
+            }
+        }
+    }
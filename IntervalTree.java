@@ -0,0 +1,299 @@
+
+    import java.util.ArrayDeque;
+    import java.util.ArrayList;
+    import java.util.ConcurrentModificationException;
+    import java.util.Iterator;
+    import java.util.List;
+    import java.util.NoSuchElementException;
+    import java.util.Random;
+    import static org.junit.jupiter.api.Assertions.*;
+    import org.junit.jupiter.api.Test;
+
+    /**
+     * Red-black tree of closed intervals [start, end], ordered by start and then
+     * by end. Every node additionally stores the largest end in its subtree,
+     * which rotate, insert and remove keep up to date through the augment hooks
+     * of RedBlackTree. A query skips every subtree whose largest end lies
+     * before the query and stops at the first start after it, so it only visits
+     * the paths to the intervals it reports: O(log n) for the first result and
+     * at most O(log n) per further result, instead of a scan over all intervals.
+     *
+     * Intervals with the same start and end are equal. To store several of them
+     * (like sessions with the same times) use a subclass of Interval whose
+     * compareTo breaks the tie, for example by an id.
+     */
+    public class IntervalTree<K extends Comparable<K>> extends RedBlackTree<IntervalTree.Interval<K>> {
+
+        /**
+         * Closed interval from start to end, both included.
+         */
+        public static class Interval<K extends Comparable<K>> implements Comparable<Interval<K>> {
+            public final K start;
+            public final K end;
+
+            /**
+             * @throws NullPointerException when start or end is null
+             * @throws IllegalArgumentException when end is smaller than start
+             */
+            public Interval(K start, K end) throws NullPointerException, IllegalArgumentException {
+                if (start == null || end == null) throw new NullPointerException(
+                        "An interval cannot have null bounds.");
+                if (end.compareTo(start) < 0) throw new IllegalArgumentException(
+                        "The end of an interval cannot be smaller than its start.");
+                this.start = start;
+                this.end = end;
+            }
+
+            /**
+             * @return true when this interval and [from, to] have a point in common
+             */
+            public boolean overlaps(K from, K to) {
+                return start.compareTo(to) <= 0 && end.compareTo(from) >= 0;
+            }
+
+            @Override
+            public int compareTo(Interval<K> other) {
+                int compare = start.compareTo(other.start);
+                return compare != 0 ? compare : end.compareTo(other.end);
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                if (!(o instanceof Interval)) return false;
+                Interval<?> other = (Interval<?>) o;
+                return start.equals(other.start) && end.equals(other.end);
+            }
+
+            @Override
+            public int hashCode() {
+                return start.hashCode() * 31 + end.hashCode();
+            }
+
+            @Override
+            public String toString() {
+                return "[" + start + ", " + end + "]";
+            }
+        }
+
+        /**
+         * Node that also holds the largest end of the intervals in its subtree.
+         */
+        protected static class IntervalNode<K extends Comparable<K>> extends Node<Interval<K>> {
+            public K maxEnd;
+            public IntervalNode(Interval<K> data) {
+                super(data);
+                maxEnd = data.end;
+            }
+        }
+
+        @Override
+        protected Node<Interval<K>> newNode(Interval<K> data) {
+            return new IntervalNode<>(data);
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <K extends Comparable<K>> K maxEndOf(Node<Interval<K>> node) {
+            return ((IntervalNode<K>) node).maxEnd;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected void updateAugment(Node<Interval<K>> node) {
+            K maxEnd = node.data.end;
+            if (node.leftChild != null && maxEndOf(node.leftChild).compareTo(maxEnd) > 0) maxEnd = maxEndOf(node.leftChild);
+            if (node.rightChild != null && maxEndOf(node.rightChild).compareTo(maxEnd) > 0) maxEnd = maxEndOf(node.rightChild);
+            ((IntervalNode<K>) node).maxEnd = maxEnd;
+        }
+
+        @Override
+        protected void augmentPath(Node<Interval<K>> node) {
+            for (; node != null; node = node.parent) updateAugment(node);
+        }
+
+        /**
+         * Adds the interval [start, end] unless it is already stored.
+         * @return true when the interval was added
+         * @throws NullPointerException when start or end is null
+         * @throws IllegalArgumentException when end is smaller than start
+         */
+        public boolean add(K start, K end) throws NullPointerException, IllegalArgumentException {
+            return add(new Interval<>(start, end));
+        }
+
+        /**
+         * Not supported: split, join and the set operations would move the nodes
+         * without maintaining their largest ends.
+         * @throws UnsupportedOperationException always
+         */
+        @Override
+        protected RedBlackTree<Interval<K>> emptyCopy() {
+            throw new UnsupportedOperationException("An IntervalTree cannot be split, joined or combined.");
+        }
+
+        /**
+         * Returns the stored intervals that have a point in common with [from,
+         * to], in ascending order. The iterator is lazy: every call to next walks
+         * on to the next overlapping interval only.
+         * @throws NullPointerException when from or to is null
+         * @throws IllegalArgumentException when to is smaller than from
+         */
+        public Iterator<Interval<K>> overlapping(K from, K to) throws NullPointerException, IllegalArgumentException {
+            if (from == null || to == null) throw new NullPointerException("An interval cannot have null bounds.");
+            if (to.compareTo(from) < 0) throw new IllegalArgumentException(
+                    "The end of an interval cannot be smaller than its start.");
+            return new OverlapIterator(from, to);
+        }
+
+        /**
+         * Returns the stored intervals that contain point, in ascending order,
+         * see overlapping.
+         * @throws NullPointerException when point is null
+         */
+        public Iterator<Interval<K>> stabbing(K point) throws NullPointerException {
+            return overlapping(point, point);
+        }
+
+        /**
+         * In-order walk over the overlapping intervals. The stack holds the nodes
+         * whose left subtree is done (or skipped) and which are not visited yet.
+         */
+        private final class OverlapIterator implements Iterator<Interval<K>> {
+            private final K from;
+            private final K to;
+            private final ArrayDeque<Node<Interval<K>>> stack = new ArrayDeque<>();
+            private final int expectedModCount = modCount;
+            private Node<Interval<K>> next;
+
+            OverlapIterator(K from, K to) {
+                this.from = from;
+                this.to = to;
+                pushLeft(root);
+                next = advance();
+            }
+
+            /**
+             * Pushes the left spine of node, stopping at the first subtree whose
+             * intervals all end before from.
+             */
+            private void pushLeft(Node<Interval<K>> node) {
+                for (; node != null && maxEndOf(node).compareTo(from) >= 0; node = node.leftChild) stack.push(node);
+            }
+
+            private Node<Interval<K>> advance() {
+                while (!stack.isEmpty()) {
+                    Node<Interval<K>> node = stack.pop();
+                    if (node.data.start.compareTo(to) > 0) {
+                        // every later interval starts after to as well
+                        stack.clear();
+                        return null;
+                    }
+                    pushLeft(node.rightChild);
+                    if (node.data.end.compareTo(from) >= 0) return node;
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Interval<K> next() {
+                if (modCount != expectedModCount) throw new ConcurrentModificationException();
+                if (next == null) throw new NoSuchElementException();
+                Interval<K> interval = next.data;
+                next = advance();
+                return interval;
+            }
+        }
+
+        /**
+         * Checks overlapping and stabbing against a scan over all intervals while
+         * intervals are added and removed in several ways.
+         */
+        @Test
+        public void testAgainstScan() {
+            IntervalTree<Integer> tree = new IntervalTree<>();
+            List<Interval<Integer>> all = new ArrayList<>();
+            Random random = new Random(21);
+            for (int i = 0; i < 4000; i++) {
+                int start = random.nextInt(10000);
+                Interval<Integer> interval = new Interval<>(start, start + random.nextInt(random.nextInt(8) == 0 ? 2000 : 50));
+                if (random.nextBoolean() ? tree.add(interval) : tree.insertNearFinger(interval)) all.add(interval);
+                if (i % 5 == 0) {
+                    Interval<Integer> removed = all.remove(random.nextInt(all.size()));
+                    assertTrue(tree.remove(removed));
+                }
+            }
+            assertValidMaxEnds(tree);
+            for (Iterator<Interval<Integer>> it = tree.iterator(); it.hasNext();) {
+                Interval<Integer> interval = it.next();
+                if (interval.start % 7 == 0) {
+                    it.remove();
+                    all.remove(interval);
+                }
+            }
+            all.remove(tree.pollFirst());
+            all.remove(tree.pollLast());
+            assertValidMaxEnds(tree);
+            RedBlackTree.assertValidRedBlackTree(tree);
+
+            all.sort(null);
+            for (int query = 0; query < 500; query++) {
+                int from = random.nextInt(11000);
+                int to = from + random.nextInt(query % 2 == 0 ? 10 : 300);
+                List<Interval<Integer>> expected = new ArrayList<>();
+                for (Interval<Integer> interval : all) if (interval.overlaps(from, to)) expected.add(interval);
+                assertEquals(expected, toList(tree.overlapping(from, to)));
+                expected.clear();
+                for (Interval<Integer> interval : all) if (interval.overlaps(from, from)) expected.add(interval);
+                assertEquals(expected, toList(tree.stabbing(from)));
+            }
+
+            List<Interval<Integer>> sorted = new ArrayList<>();
+            for (int i = 0; i < 100; i++) sorted.add(new Interval<>(20000 + i, 30000 - i));
+            tree.insertAllSorted(sorted);
+            assertValidMaxEnds(tree);
+            assertEquals(sorted.subList(0, 51), toList(tree.stabbing(29950)));
+            assertThrows(UnsupportedOperationException.class, () -> tree.split(sorted.get(0)));
+            IntervalTree<Integer> other = new IntervalTree<>();
+            other.add(50000, 50001);
+            assertThrows(UnsupportedOperationException.class, () -> RedBlackTree.union(tree, other));
+            assertThrows(UnsupportedOperationException.class, () -> RedBlackTree.union(new RedBlackTree<>(), tree));
+            assertThrows(UnsupportedOperationException.class,
+                    () -> RedBlackTree.join(new RedBlackTree<>(), new Interval<>(0, 1), tree));
+            assertValidMaxEnds(tree);
+            assertEquals(sorted.subList(0, 51), toList(tree.stabbing(29950)));
+            assertThrows(IllegalArgumentException.class, () -> tree.add(5, 4));
+
+            Iterator<Interval<Integer>> lazy = tree.stabbing(29950);
+            lazy.next();
+            tree.add(40000, 40001);
+            assertThrows(ConcurrentModificationException.class, lazy::next);
+        }
+
+        private static <K extends Comparable<K>> List<Interval<K>> toList(Iterator<Interval<K>> intervals) {
+            List<Interval<K>> list = new ArrayList<>();
+            intervals.forEachRemaining(list::add);
+            return list;
+        }
+
+        private static <K extends Comparable<K>> void assertValidMaxEnds(IntervalTree<K> tree) {
+            maxEndBelow(tree.root);
+        }
+
+        private static <K extends Comparable<K>> K maxEndBelow(Node<Interval<K>> node) {
+            K maxEnd = node.data.end;
+            if (node.leftChild != null) {
+                K left = maxEndBelow(node.leftChild);
+                if (left.compareTo(maxEnd) > 0) maxEnd = left;
+            }
+            if (node.rightChild != null) {
+                K right = maxEndBelow(node.rightChild);
+                if (right.compareTo(maxEnd) > 0) maxEnd = right;
+            }
+            assertEquals(maxEnd, maxEndOf(node), "stale max end at " + node.data);
+            return maxEnd;
+        }
+    }
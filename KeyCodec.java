@@ -0,0 +1,103 @@
+
+    import java.nio.ByteBuffer;
+    import java.nio.charset.StandardCharsets;
+
+    /**
+     * Converts the values of a tree to and from bytes, for the snapshot files of
+     * RedBlackTreeSnapshot. encode must write exactly encodedSize(value) bytes,
+     * and decode must read back the same bytes, both at the current position of
+     * the buffer.
+     */
+    public interface KeyCodec<T> {
+
+        /**
+         * @return the number of bytes encode writes for value
+         */
+        int encodedSize(T value);
+
+        /**
+         * Writes value at the position of out and advances the position.
+         */
+        void encode(T value, ByteBuffer out);
+
+        /**
+         * Reads a value at the position of in and advances the position.
+         */
+        T decode(ByteBuffer in);
+
+        /**
+         * Integer values as 4 big-endian bytes.
+         */
+        KeyCodec<Integer> INTEGER = new KeyCodec<Integer>() {
+            @Override
+            public int encodedSize(Integer value) {
+                return Integer.BYTES;
+            }
+
+            @Override
+            public void encode(Integer value, ByteBuffer out) {
+                out.putInt(value);
+            }
+
+            @Override
+            public Integer decode(ByteBuffer in) {
+                return in.getInt();
+            }
+        };
+
+        /**
+         * Long values as 8 big-endian bytes.
+         */
+        KeyCodec<Long> LONG = new KeyCodec<Long>() {
+            @Override
+            public int encodedSize(Long value) {
+                return Long.BYTES;
+            }
+
+            @Override
+            public void encode(Long value, ByteBuffer out) {
+                out.putLong(value);
+            }
+
+            @Override
+            public Long decode(ByteBuffer in) {
+                return in.getLong();
+            }
+        };
+
+        /**
+         * String values as their UTF-8 length followed by their UTF-8 bytes.
+         */
+        KeyCodec<String> STRING = new KeyCodec<String>() {
+            @Override
+            public int encodedSize(String value) {
+                int length = value.length();
+                int bytes = 0;
+                for (int i = 0; i < length; i++) {
+                    char c = value.charAt(i);
+                    if (c < 0x80) bytes += 1;
+                    else if (c < 0x800) bytes += 2;
+                    else if (!Character.isSurrogate(c)) bytes += 3;
+                    else if (Character.isHighSurrogate(c) && i + 1 < length
+                            && Character.isLowSurrogate(value.charAt(i + 1))) {
+                        bytes += 4;
+                        i++;
+                    } else bytes += 1; // a lone surrogate is encoded as '?'
+                }
+                return Integer.BYTES + bytes;
+            }
+
+            @Override
+            public void encode(String value, ByteBuffer out) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                out.putInt(bytes.length).put(bytes);
+            }
+
+            @Override
+            public String decode(ByteBuffer in) {
+                byte[] bytes = new byte[in.getInt()];
+                in.get(bytes);
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+        };
+    }
@@ -0,0 +1,523 @@
+
+    import java.util.Arrays;
+    import java.util.Random;
+    import java.util.TreeSet;
+    import static org.junit.jupiter.api.Assertions.*;
+    import org.junit.jupiter.api.Test;
+
+    /**
+     * B-tree of primitive long keys with up to eight keys per node, the wide-node
+     * form of the 2-3-4 tree a red-black tree encodes in binary. The keys of a
+     * node take 64 contiguous bytes of the keys array and are searched with a
+     * linear scan. The array header shifts them off the cache line boundaries,
+     * so they usually span two adjacent lines, and the key count and children
+     * of the node are one or two more lines in the links array. A lookup thus
+     * reads three or four lines per level, but of a tree that is three to four
+     * times shallower than LongRedBlackTree, which reads the scattered key and
+     * child slots of one node per level.
+     *
+     * Like PrimitiveRedBlackTree, the nodes live in arrays and are addressed by
+     * their index: node n keeps its keys at keys[n * MAX_KEYS] and its key count
+     * followed by its children at links[n * LINKS]. Leaves have NIL children.
+     * Nodes released by a merge are kept on a free-list (chained through their
+     * first child) and reused before the arrays are grown.
+     */
+    public class LongBTree implements LongOrderedSet {
+
+        protected static final int NIL = -1; // index used for missing children
+        protected static final int MAX_KEYS = 8; // 8 longs take 64 bytes, the size of a cache line
+        protected static final int MIN_KEYS = MAX_KEYS / 2; // except for the root
+        protected static final int LINKS = MAX_KEYS + 2; // the key count and MAX_KEYS + 1 children
+        // a tree of 2^31 keys has at most 1 + log5(2^31 / 2) < 15 levels
+        private static final int MAX_HEIGHT = 16;
+        private static final int DEFAULT_CAPACITY = 4;
+
+        protected long[] keys = new long[DEFAULT_CAPACITY * MAX_KEYS];
+        protected int[] links = new int[DEFAULT_CAPACITY * LINKS];
+
+        protected int root = NIL; // node of the root, NIL when empty
+        protected int size = 0; // the number of keys in the tree
+        private int height = 0; // the number of levels, every leaf is at the same depth
+        private int freeList = NIL; // first released node, NIL when there is none
+        private int nextUnused = 0; // nodes at and above this index have never been used
+
+        // the nodes of the last descent and the index of the child taken at each
+        private final int[] pathNodes = new int[MAX_HEIGHT];
+        private final int[] pathIndexes = new int[MAX_HEIGHT];
+        // a full node with the key and child that did not fit, while it is split
+        private final long[] splitKeys = new long[MAX_KEYS + 1];
+        private final int[] splitChildren = new int[MAX_KEYS + 2];
+        private long promoted; // the middle key moved up by the last split
+
+        public LongBTree() {
+        }
+
+        /**
+         * Creates an empty tree whose arrays have room for initialCapacity nodes.
+         * @param initialCapacity number of nodes to allocate up front, each of
+         *      which holds up to MAX_KEYS keys
+         */
+        public static LongBTree withCapacity(int initialCapacity) {
+            LongBTree tree = new LongBTree();
+            if (initialCapacity > tree.capacity()) tree.grow(initialCapacity);
+            return tree;
+        }
+
+        /**
+         * Inserts the input key into its leaf, splitting the full nodes on the
+         * way back up.
+         * @param key to be added into this tree
+         * @return true if the value was inserted
+         * @throws IllegalArgumentException when the tree already contains key
+         */
+        public boolean insert(long key) throws IllegalArgumentException {
+            if (!tryInsert(key)) throw new IllegalArgumentException(
+                    "This RedBlackTree already contains that value.");
+            return true;
+        }
+
+        /**
+         * Inserts the value *key* unless it is already stored, without throwing.
+         * @param key the value to insert
+         * @return true if the value was inserted, false if it was already stored
+         */
+        public boolean tryInsert(long key) {
+            if (root == NIL) {
+                root = allocateNode();
+                keys[root * MAX_KEYS] = key;
+                links[root * LINKS] = 1;
+                height = 1;
+                size = 1;
+                return true;
+            }
+            int depth = 0;
+            for (int node = root; node != NIL; depth++) {
+                int index = search(node, key);
+                if (index < links[node * LINKS] && keys[node * MAX_KEYS + index] == key) return false;
+                pathNodes[depth] = node;
+                pathIndexes[depth] = index;
+                node = links[node * LINKS + 1 + index];
+            }
+            long up = key;
+            int right = NIL;
+            for (int level = depth - 1; level >= 0; level--) {
+                right = insertAt(pathNodes[level], pathIndexes[level], up, right);
+                if (right == NIL) {
+                    size++;
+                    return true;
+                }
+                up = promoted;
+            }
+            // the root was split: the tree grows by one level at the top
+            int newRoot = allocateNode();
+            keys[newRoot * MAX_KEYS] = up;
+            links[newRoot * LINKS] = 1;
+            links[newRoot * LINKS + 1] = root;
+            links[newRoot * LINKS + 2] = right;
+            root = newRoot;
+            height++;
+            size++;
+            return true;
+        }
+
+        /**
+         * @return the index of the first key of node that is not smaller than
+         *      key, which is the number of keys of node when there is none
+         */
+        protected int search(int node, long key) {
+            long[] keys = this.keys;
+            int base = node * MAX_KEYS;
+            int count = links[node * LINKS];
+            int index = 0;
+            while (index < count && keys[base + index] < key) index++;
+            return index;
+        }
+
+        /**
+         * Puts key at index of node and rightChild right of it. A full node is
+         * split: it keeps the lower half, the upper half moves to a new node and
+         * the middle key is left in promoted.
+         * @return the new node holding the upper half, NIL if node had room
+         */
+        private int insertAt(int node, int index, long key, int rightChild) {
+            int keyBase = node * MAX_KEYS;
+            int childBase = node * LINKS + 1;
+            int count = links[node * LINKS];
+            if (count < MAX_KEYS) {
+                System.arraycopy(keys, keyBase + index, keys, keyBase + index + 1, count - index);
+                keys[keyBase + index] = key;
+                System.arraycopy(links, childBase + index + 1, links, childBase + index + 2, count - index);
+                links[childBase + index + 1] = rightChild;
+                links[node * LINKS] = count + 1;
+                return NIL;
+            }
+            System.arraycopy(keys, keyBase, splitKeys, 0, index);
+            splitKeys[index] = key;
+            System.arraycopy(keys, keyBase + index, splitKeys, index + 1, MAX_KEYS - index);
+            System.arraycopy(links, childBase, splitChildren, 0, index + 1);
+            splitChildren[index + 1] = rightChild;
+            System.arraycopy(links, childBase + index + 1, splitChildren, index + 2, MAX_KEYS - index);
+
+            int sibling = allocateNode(); // may grow the arrays
+            int half = (MAX_KEYS + 1) / 2;
+            int upper = MAX_KEYS - half;
+            System.arraycopy(splitKeys, 0, keys, keyBase, half);
+            System.arraycopy(splitChildren, 0, links, childBase, half + 1);
+            Arrays.fill(links, childBase + half + 1, childBase + MAX_KEYS + 1, NIL);
+            links[node * LINKS] = half;
+            promoted = splitKeys[half];
+            System.arraycopy(splitKeys, half + 1, keys, sibling * MAX_KEYS, upper);
+            System.arraycopy(splitChildren, half + 1, links, sibling * LINKS + 1, upper + 1);
+            links[sibling * LINKS] = upper;
+            return sibling;
+        }
+
+        /**
+         * Checks whether the tree contains the value *key*.
+         * @param key the value to test for
+         * @return true if *key* is in the tree, false if it is not in the tree
+         */
+        public boolean contains(long key) {
+            long[] keys = this.keys;
+            int[] links = this.links;
+            int node = root;
+            while (node != NIL) {
+                int base = node * MAX_KEYS;
+                int count = links[node * LINKS];
+                int index = 0;
+                while (index < count && keys[base + index] < key) index++;
+                if (index < count && keys[base + index] == key) return true;
+                node = links[node * LINKS + 1 + index];
+            }
+            return false;
+        }
+
+        /**
+         * Removes the value *key* from the tree. A key of an inner node is
+         * replaced by its predecessor, which is then removed from its leaf.
+         * Nodes that fall below MIN_KEYS borrow a key from a sibling or are
+         * merged with one, on the way back up.
+         * @param key the value to remove
+         * @return true if the value was removed, false if it was not in the tree
+         */
+        public boolean remove(long key) {
+            int depth = 0;
+            int found = NIL;
+            int foundIndex = 0;
+            for (int node = root; node != NIL; depth++) {
+                int index = search(node, key);
+                pathNodes[depth] = node;
+                pathIndexes[depth] = index;
+                if (index < links[node * LINKS] && keys[node * MAX_KEYS + index] == key) {
+                    found = node;
+                    foundIndex = index;
+                    depth++;
+                    break;
+                }
+                node = links[node * LINKS + 1 + index];
+            }
+            if (found == NIL) return false;
+
+            int leaf = found;
+            int leafIndex = foundIndex;
+            if (links[found * LINKS + 1] != NIL) {
+                // the predecessor is the last key of the rightmost leaf left of key
+                for (int node = links[found * LINKS + 1 + foundIndex]; node != NIL; depth++) {
+                    int count = links[node * LINKS];
+                    pathNodes[depth] = node;
+                    pathIndexes[depth] = count;
+                    leaf = node;
+                    node = links[node * LINKS + 1 + count];
+                }
+                leafIndex = links[leaf * LINKS] - 1;
+                keys[found * MAX_KEYS + foundIndex] = keys[leaf * MAX_KEYS + leafIndex];
+            }
+            int count = links[leaf * LINKS] - 1;
+            System.arraycopy(keys, leaf * MAX_KEYS + leafIndex + 1, keys, leaf * MAX_KEYS + leafIndex,
+                    count - leafIndex);
+            links[leaf * LINKS] = count;
+            size--;
+
+            for (int level = depth - 1; level > 0 && links[pathNodes[level] * LINKS] < MIN_KEYS; level--) {
+                if (rebalance(pathNodes[level - 1], pathIndexes[level - 1])) break;
+            }
+            if (links[root * LINKS] == 0) {
+                int emptyRoot = root;
+                root = links[root * LINKS + 1];
+                height--;
+                releaseNode(emptyRoot);
+            }
+            return true;
+        }
+
+        /**
+         * Refills child index of parent, which has MIN_KEYS - 1 keys, by moving a
+         * key over from a sibling that can spare one, or else by merging it with
+         * a sibling.
+         * @return true when a key was borrowed, false when the merge took a key
+         *      from parent, which may now have too few keys itself
+         */
+        private boolean rebalance(int parent, int index) {
+            int parentCount = links[parent * LINKS];
+            int node = links[parent * LINKS + 1 + index];
+            int count = links[node * LINKS];
+            int leftSibling = index > 0 ? links[parent * LINKS + index] : NIL;
+            int rightSibling = index < parentCount ? links[parent * LINKS + 2 + index] : NIL;
+
+            if (leftSibling != NIL && links[leftSibling * LINKS] > MIN_KEYS) {
+                // the separator moves down in front of node, the last key of the left sibling up
+                int leftCount = links[leftSibling * LINKS];
+                System.arraycopy(keys, node * MAX_KEYS, keys, node * MAX_KEYS + 1, count);
+                System.arraycopy(links, node * LINKS + 1, links, node * LINKS + 2, count + 1);
+                keys[node * MAX_KEYS] = keys[parent * MAX_KEYS + index - 1];
+                links[node * LINKS + 1] = links[leftSibling * LINKS + 1 + leftCount];
+                links[leftSibling * LINKS + 1 + leftCount] = NIL;
+                keys[parent * MAX_KEYS + index - 1] = keys[leftSibling * MAX_KEYS + leftCount - 1];
+                links[leftSibling * LINKS] = leftCount - 1;
+                links[node * LINKS] = count + 1;
+                return true;
+            }
+            if (rightSibling != NIL && links[rightSibling * LINKS] > MIN_KEYS) {
+                // the separator moves down behind node, the first key of the right sibling up
+                int rightCount = links[rightSibling * LINKS];
+                keys[node * MAX_KEYS + count] = keys[parent * MAX_KEYS + index];
+                links[node * LINKS + 2 + count] = links[rightSibling * LINKS + 1];
+                keys[parent * MAX_KEYS + index] = keys[rightSibling * MAX_KEYS];
+                System.arraycopy(keys, rightSibling * MAX_KEYS + 1, keys, rightSibling * MAX_KEYS, rightCount - 1);
+                System.arraycopy(links, rightSibling * LINKS + 2, links, rightSibling * LINKS + 1, rightCount);
+                links[rightSibling * LINKS + 1 + rightCount] = NIL;
+                links[rightSibling * LINKS] = rightCount - 1;
+                links[node * LINKS] = count + 1;
+                return true;
+            }
+            merge(parent, leftSibling != NIL ? index - 1 : index);
+            return false;
+        }
+
+        /**
+         * Merges child index + 1 of parent and the key separating it from child
+         * index into child index, and releases the emptied node. The merged node
+         * has at most (MIN_KEYS - 1) + 1 + MIN_KEYS = MAX_KEYS keys.
+         */
+        private void merge(int parent, int index) {
+            int leftNode = links[parent * LINKS + 1 + index];
+            int rightNode = links[parent * LINKS + 2 + index];
+            int leftCount = links[leftNode * LINKS];
+            int rightCount = links[rightNode * LINKS];
+            keys[leftNode * MAX_KEYS + leftCount] = keys[parent * MAX_KEYS + index];
+            System.arraycopy(keys, rightNode * MAX_KEYS, keys, leftNode * MAX_KEYS + leftCount + 1, rightCount);
+            System.arraycopy(links, rightNode * LINKS + 1, links, leftNode * LINKS + 2 + leftCount, rightCount + 1);
+            links[leftNode * LINKS] = leftCount + 1 + rightCount;
+
+            int parentCount = links[parent * LINKS];
+            System.arraycopy(keys, parent * MAX_KEYS + index + 1, keys, parent * MAX_KEYS + index,
+                    parentCount - index - 1);
+            System.arraycopy(links, parent * LINKS + 3 + index, links, parent * LINKS + 2 + index,
+                    parentCount - index - 1);
+            links[parent * LINKS + 1 + parentCount] = NIL;
+            links[parent * LINKS] = parentCount - 1;
+            releaseNode(rightNode);
+        }
+
+        /**
+         * Takes a node from the free-list, or the next unused node, growing the
+         * arrays when all of them are in use. The node is returned as an empty
+         * leaf.
+         * @return the index of the new node
+         */
+        private int allocateNode() {
+            int node;
+            if (freeList != NIL) {
+                node = freeList;
+                freeList = links[node * LINKS + 1];
+            } else {
+                if (nextUnused == capacity()) grow();
+                node = nextUnused++;
+            }
+            links[node * LINKS] = 0;
+            Arrays.fill(links, node * LINKS + 1, node * LINKS + LINKS, NIL);
+            return node;
+        }
+
+        private void releaseNode(int node) {
+            if (node == NIL) return;
+            links[node * LINKS + 1] = freeList;
+            freeList = node;
+        }
+
+        private void grow() {
+            grow(capacity() + (capacity() >> 1) + 1);
+        }
+
+        private void grow(int capacity) {
+            keys = Arrays.copyOf(keys, capacity * MAX_KEYS);
+            links = Arrays.copyOf(links, capacity * LINKS);
+        }
+
+        /**
+         * @return the number of nodes the arrays currently have room for
+         */
+        protected int capacity() {
+            return links.length / LINKS;
+        }
+
+        /**
+         * @return the number of nodes on every root to leaf path
+         */
+        protected int height() {
+            return height;
+        }
+
+        /**
+         * Get the size of the tree (its number of keys).
+         * @return the number of keys in the tree
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Method to check if the tree is empty (does not contain any key).
+         * @return true of this.size() return 0, false if this.size() > 0
+         */
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        /**
+         * Removes all values from the tree. The arrays keep their capacity.
+         */
+        public void clear() {
+            root = NIL;
+            size = 0;
+            height = 0;
+            freeList = NIL;
+            nextUnused = 0;
+        }
+
+        /**
+         * @return the keys of this tree in ascending order
+         */
+        public long[] toArray() {
+            long[] result = new long[size];
+            if (root != NIL) collect(root, result, 0);
+            return result;
+        }
+
+        private int collect(int node, long[] result, int at) {
+            int count = links[node * LINKS];
+            boolean leaf = links[node * LINKS + 1] == NIL;
+            for (int index = 0; index < count; index++) {
+                if (!leaf) at = collect(links[node * LINKS + 1 + index], result, at);
+                result[at++] = keys[node * MAX_KEYS + index];
+            }
+            return leaf ? at : collect(links[node * LINKS + 1 + count], result, at);
+        }
+
+        /**
+         * This method performs an inorder traversal of the tree.
+         * @return string containing the ordered values of this tree (in-order traversal)
+         */
+        public String toInOrderString() {
+            StringBuilder sb = new StringBuilder("[ ");
+            for (long key : toArray()) sb.append(key).append(", ");
+            if (size > 0) sb.setLength(sb.length() - 2);
+            return sb.append(" ]").toString();
+        }
+
+        public String toString() {
+            return "in order: " + this.toInOrderString();
+        }
+
+        /**
+         * Checks the B-tree properties: every leaf at the same depth, the key
+         * counts of the nodes between MIN_KEYS and MAX_KEYS (the root may have
+         * fewer) and the keys in ascending order. Used by the tests.
+         * @return true when all properties hold
+         */
+        protected boolean isValidBTree() {
+            if (root == NIL) return size == 0 && height == 0;
+            if (countKeys(root, 1) != size) return false;
+            long[] ordered = toArray();
+            for (int i = 1; i < ordered.length; i++) if (ordered[i - 1] >= ordered[i]) return false;
+            return true;
+        }
+
+        private int countKeys(int node, int depth) {
+            int count = links[node * LINKS];
+            if (count > MAX_KEYS || count < (node == root ? 1 : MIN_KEYS)) return -1;
+            boolean leaf = depth == height;
+            int total = count;
+            for (int index = 0; index <= count; index++) {
+                int child = links[node * LINKS + 1 + index];
+                if (leaf != (child == NIL)) return -1;
+                if (leaf) continue;
+                int below = countKeys(child, depth + 1);
+                if (below < 0) return -1;
+                total += below;
+            }
+            return total;
+        }
+
+        /**
+         * Checks random insertions and removals against a java.util.TreeSet and
+         * the B-tree properties after every few operations.
+         */
+        @Test
+        public void testAgainstTreeSet() {
+            LongBTree tree = new LongBTree();
+            TreeSet<Long> expected = new TreeSet<>();
+            Random random = new Random(22);
+            for (int i = 0; i < 40000; i++) {
+                long key = random.nextInt(6000) - 3000L;
+                if (random.nextInt(3) == 0) assertEquals(expected.remove(key), tree.remove(key));
+                else assertEquals(expected.add(key), tree.tryInsert(key));
+                if (i % 997 == 0) assertTrue(tree.isValidBTree());
+            }
+            assertTrue(tree.isValidBTree());
+            assertEquals(expected.size(), tree.size());
+            assertArrayEquals(expected.stream().mapToLong(Long::longValue).toArray(), tree.toArray());
+            for (long key = -3100; key < 3100; key++) assertEquals(expected.contains(key), tree.contains(key));
+            assertThrows(IllegalArgumentException.class, () -> tree.insert(expected.first()));
+
+            int capacity = tree.capacity();
+            for (long key : expected) assertTrue(tree.remove(key));
+            assertTrue(tree.isEmpty());
+            assertTrue(tree.isValidBTree());
+            assertFalse(tree.remove(0));
+            for (long key : expected) tree.insert(key);
+            assertEquals(capacity, tree.capacity());
+            assertTrue(tree.isValidBTree());
+        }
+
+        /**
+         * Runs the same operations through LongOrderedSet against a LongBTree
+         * and a LongRedBlackTree, with ascending and descending keys and the
+         * extreme long values.
+         */
+        @Test
+        public void testSameAsLongRedBlackTree() {
+            LongOrderedSet[] sets = { new LongBTree(), new LongRedBlackTree() };
+            for (LongOrderedSet set : sets) {
+                assertEquals("[  ]", set.toInOrderString());
+                for (long key = 0; key < 1000; key++) set.insert(key * 3);
+                for (long key = -1; key > -1000; key--) set.insert(key * 3);
+                set.insert(Long.MIN_VALUE);
+                set.insert(Long.MAX_VALUE);
+                for (long key = -600; key < 600; key += 2) set.remove(key * 3);
+                assertFalse(set.tryInsert(Long.MAX_VALUE));
+            }
+            assertEquals(sets[1].size(), sets[0].size());
+            assertEquals(sets[1].toInOrderString(), sets[0].toInOrderString());
+            assertArrayEquals(sets[1].toArray(), sets[0].toArray());
+            for (long key = -3100; key < 3100; key++) assertEquals(sets[1].contains(key), sets[0].contains(key));
+            assertTrue(((LongBTree) sets[0]).isValidBTree());
+            assertTrue(((LongBTree) sets[0]).height() < ((LongRedBlackTree) sets[1]).height() / 2);
+
+            sets[0].clear();
+            assertTrue(sets[0].isEmpty());
+            assertFalse(sets[0].contains(0));
+            sets[0].insert(7);
+            assertEquals("[ 7 ]", sets[0].toInOrderString());
+        }
+    }
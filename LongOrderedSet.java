@@ -0,0 +1,59 @@
+
+    /**
+     * Sorted set of primitive long keys. Implemented by LongRedBlackTree, a
+     * binary tree of array slots, and by LongBTree, which keeps eight keys per
+     * node; code written against this interface can switch between the two.
+     */
+    public interface LongOrderedSet {
+
+        /**
+         * Inserts the value *key*.
+         * @return true if the value was inserted
+         * @throws IllegalArgumentException when the set already contains key
+         */
+        boolean insert(long key) throws IllegalArgumentException;
+
+        /**
+         * Inserts the value *key* unless it is already stored, without throwing.
+         * @return true if the value was inserted, false if it was already stored
+         */
+        boolean tryInsert(long key);
+
+        /**
+         * Checks whether the set contains the value *key*.
+         * @return true if *key* is in the set, false if it is not
+         */
+        boolean contains(long key);
+
+        /**
+         * Removes the value *key*.
+         * @return true if the value was removed, false if it was not in the set
+         */
+        boolean remove(long key);
+
+        /**
+         * @return the number of keys in the set
+         */
+        int size();
+
+        /**
+         * @return true if the set holds no key
+         */
+        boolean isEmpty();
+
+        /**
+         * Removes all keys from the set.
+         */
+        void clear();
+
+        /**
+         * @return the keys of the set in ascending order
+         */
+        long[] toArray();
+
+        /**
+         * @return string containing the keys of the set in ascending order, in
+         *      the format of RedBlackTree.toInOrderString
+         */
+        String toInOrderString();
+    }
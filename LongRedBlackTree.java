@@ -0,0 +1,204 @@
+
+    import java.util.Arrays;
+    import static org.junit.jupiter.api.Assertions.*;
+    import org.junit.jupiter.api.Test;
+
+    /**
+     * Red-black tree of primitive long keys. The keys are stored in a long array
+     * next to the structure arrays of PrimitiveRedBlackTree, so no value is boxed
+     * and every comparison reads a long directly instead of calling compareTo on
+     * an object reached through a Node reference.
+     */
+    public class LongRedBlackTree extends PrimitiveRedBlackTree implements LongOrderedSet {
+
+        protected long[] keys;
+
+        public LongRedBlackTree() {
+            keys = new long[left.length];
+        }
+
+        /**
+         * Creates an empty tree whose arrays have room for initialCapacity keys.
+         * @param initialCapacity number of slots to allocate up front
+         */
+        public static LongRedBlackTree withCapacity(int initialCapacity) {
+            LongRedBlackTree tree = new LongRedBlackTree();
+            tree.ensureCapacity(initialCapacity);
+            return tree;
+        }
+
+        /**
+         * Inserts the input key into a new red leaf slot and then restores the
+         * red-black tree properties.
+         * @param key to be added into this tree
+         * @return true if the value was inserted
+         * @throws IllegalArgumentException when the tree already contains key
+         */
+        public boolean insert(long key) throws IllegalArgumentException {
+            if (!tryInsert(key)) throw new IllegalArgumentException(
+                    "This RedBlackTree already contains that value.");
+            return true;
+        }
+
+        /**
+         * Inserts the value *key* unless it is already stored, without throwing
+         * and without taking a slot for a duplicate.
+         * @param key the value to insert
+         * @return true if the value was inserted, false if it was already stored
+         */
+        public boolean tryInsert(long key) {
+            if (root == NIL) {
+                int slot = allocateSlot();
+                keys[slot] = key;
+                linkRoot(slot);
+                return true;
+            }
+            int subtree = root;
+            while (true) {
+                long current = keys[subtree];
+                if (key == current) return false;
+                int next = key < current ? left[subtree] : right[subtree];
+                if (next == NIL) {
+                    int slot = allocateSlot();
+                    keys[slot] = key;
+                    linkAndFix(slot, subtree, key < current);
+                    return true;
+                }
+                subtree = next;
+            }
+        }
+
+        /**
+         * Checks whether the tree contains the value *key*.
+         * @param key the value to test for
+         * @return true if *key* is in the tree, false if it is not in the tree
+         */
+        public boolean contains(long key) {
+            return findSlot(key) != NIL;
+        }
+
+        /**
+         * Removes the value *key* from the tree. Its slot is reused by a later
+         * insertion.
+         * @param key the value to remove
+         * @return true if the value was removed, false if it was not in the tree
+         */
+        public boolean remove(long key) {
+            int slot = findSlot(key);
+            if (slot == NIL) return false;
+            removeSlot(slot);
+            return true;
+        }
+
+        /**
+         * @return the slot holding key, or NIL if there is none
+         */
+        protected int findSlot(long key) {
+            int subtree = root;
+            long[] keys = this.keys;
+            while (subtree != NIL) {
+                long current = keys[subtree];
+                if (key < current) subtree = left[subtree];
+                else if (key > current) subtree = right[subtree];
+                else return subtree;
+            }
+            return NIL;
+        }
+
+        /**
+         * @return the keys of this tree in ascending order
+         */
+        public long[] toArray() {
+            long[] result = new long[size];
+            int i = 0;
+            for (int slot = firstSlot(); slot != NIL; slot = successor(slot)) result[i++] = keys[slot];
+            return result;
+        }
+
+        @Override
+        protected void growKeys(int capacity) {
+            keys = Arrays.copyOf(keys, capacity);
+        }
+
+        @Override
+        protected void appendKey(StringBuilder sb, int slot) {
+            sb.append(keys[slot]);
+        }
+
+        /**
+         * Checks that random insertions keep the red-black tree properties, that
+         * contains answers like a java.util.TreeSet and that the traversals match
+         * the ones of RedBlackTree.
+         */
+        @Test
+        public void testInsertAndContains() {
+            assertEquals(5000, LongRedBlackTree.withCapacity(5000).capacity());
+            LongRedBlackTree tree = new LongRedBlackTree();
+            RedBlackTree<Long> reference = new RedBlackTree<>();
+            java.util.Random random = new java.util.Random(3);
+            for (int i = 0; i < 3000; i++) {
+                long key = random.nextLong() >> 52;
+                if (reference.contains(key)) {
+                    assertThrows(IllegalArgumentException.class, () -> tree.insert(key));
+                } else {
+                    reference.insert(key);
+                    assertTrue(tree.insert(key));
+                }
+            }
+            assertTrue(tree.isValidRedBlackTree());
+            assertEquals(reference.size(), tree.size());
+            assertEquals(reference.toInOrderString(), tree.toInOrderString());
+            assertEquals(reference.toLevelOrderString(), tree.toLevelOrderString());
+            for (long key = -200; key < 200; key++) assertEquals(reference.contains(key), tree.contains(key));
+        }
+
+        /**
+         * Checks the smaller cases: the empty tree, a sequential insert and clear.
+         */
+        @Test
+        public void testSequentialAndClear() {
+            LongRedBlackTree tree = new LongRedBlackTree();
+            assertTrue(tree.isEmpty());
+            assertEquals("[  ]", tree.toInOrderString());
+            for (long key = 0; key < 100; key++) tree.insert(key * 1_000_000_007L);
+            assertTrue(tree.isValidRedBlackTree());
+            assertEquals(100, tree.size());
+            assertEquals(99 * 1_000_000_007L, tree.toArray()[99]);
+            assertTrue(tree.contains(5 * 1_000_000_007L));
+            assertFalse(tree.contains(5));
+            tree.clear();
+            assertTrue(tree.isEmpty());
+            assertFalse(tree.contains(0));
+            tree.insert(7);
+            assertEquals("[ 7 ]", tree.toInOrderString());
+        }
+
+        /**
+         * Checks removals against a java.util.TreeSet and that released slots are
+         * reused instead of growing the arrays.
+         */
+        @Test
+        public void testRemoveReusesSlots() {
+            LongRedBlackTree tree = new LongRedBlackTree();
+            java.util.TreeSet<Long> expected = new java.util.TreeSet<>();
+            java.util.Random random = new java.util.Random(4);
+            for (int i = 0; i < 20000; i++) {
+                long key = random.nextInt(4000) - 2000L;
+                if (random.nextBoolean()) {
+                    assertEquals(expected.remove(key), tree.remove(key));
+                } else if (expected.add(key)) {
+                    tree.insert(key);
+                }
+            }
+            assertTrue(tree.isValidRedBlackTree());
+            assertEquals(expected.size(), tree.size());
+            assertEquals(expected.toString().replace("[", "[ ").replace("]", " ]"), tree.toInOrderString());
+
+            int capacity = tree.capacity();
+            for (long key : expected) tree.remove(key);
+            assertTrue(tree.isEmpty());
+            for (long key : expected) tree.insert(key);
+            assertEquals(capacity, tree.capacity());
+            assertTrue(tree.isValidRedBlackTree());
+        }
+    }
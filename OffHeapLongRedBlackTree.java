@@ -0,0 +1,432 @@
+
+    import java.lang.invoke.MethodHandle;
+    import java.lang.invoke.MethodHandles;
+    import java.lang.invoke.MethodType;
+    import java.lang.management.BufferPoolMXBean;
+    import java.lang.management.ManagementFactory;
+    import java.lang.reflect.Field;
+    import java.nio.ByteBuffer;
+    import java.nio.ByteOrder;
+    import java.util.Arrays;
+    import static org.junit.jupiter.api.Assertions.*;
+    import org.junit.jupiter.api.Test;
+
+    /**
+     * Red-black tree of long keys whose nodes are stored off-heap. Every node is a
+     * fixed-width record in a chunk of direct memory:
+     *
+     *   offset  0: long key
+     *   offset  8: int  left child slot   (NIL when missing)
+     *   offset 12: int  right child slot  (NIL when missing)
+     *   offset 16: int  parent slot       (NIL for the root)
+     *   offset 20: byte blackHeight       (1 for black, 0 for red)
+     *
+     * A slot number is split into a chunk index and a byte offset within that
+     * chunk, so rotate and the insert fixup only ever move ints around. The arena
+     * grows one chunk at a time and the heap only holds the chunk table, which
+     * keeps the work of the garbage collector independent of the tree size.
+     *
+     * The chunks are direct buffers, so they count against -XX:MaxDirectMemorySize,
+     * which defaults to the maximum heap size: 100M nodes take about 2.4 GB of
+     * chunks and fail with "Direct buffer memory" under a small heap unless the
+     * limit is raised, e.g. with -XX:MaxDirectMemorySize=3g. close() frees the
+     * chunks at once; the tree cannot be used afterwards.
+     */
+    public class OffHeapLongRedBlackTree implements AutoCloseable {
+
+        private static final int NIL = -1;
+        private static final int NODE_BYTES = 24;
+        private static final int KEY = 0, LEFT = 8, RIGHT = 12, PARENT = 16, COLOR = 20;
+        private static final int DEFAULT_CHUNK_SHIFT = 16; // 65536 nodes (1.5 MiB) per chunk
+
+        private int chunkShift = DEFAULT_CHUNK_SHIFT; // only changed by withChunkShift, before any chunk exists
+        private int chunkMask = (1 << DEFAULT_CHUNK_SHIFT) - 1;
+        private ByteBuffer[] chunks = new ByteBuffer[4];
+        private int chunkCount = 0;
+
+        private int root = NIL; // slot of the root node, NIL when empty
+        private int size = 0; // the number of values in the tree
+        private int nextUnused = 0; // slots at and above this index have never been used
+        private boolean closed = false;
+
+        // Unsafe.invokeCleaner (jdk.unsupported), which frees a direct buffer at once
+        // instead of when the collector finds it; null when the JVM does not offer it
+        private static final MethodHandle FREE_CHUNK = freeChunkHandle();
+
+        private static MethodHandle freeChunkHandle() {
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                return MethodHandles.lookup()
+                        .findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                        .bindTo(theUnsafe.get(null));
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                return null;
+            }
+        }
+
+        public OffHeapLongRedBlackTree() {
+        }
+
+        /**
+         * Creates an empty tree whose chunks hold 2^chunkShift nodes each.
+         * @param chunkShift log2 of the number of nodes per chunk
+         */
+        public static OffHeapLongRedBlackTree withChunkShift(int chunkShift) {
+            if (chunkShift < 1 || chunkShift > 26) throw new IllegalArgumentException(
+                    "chunkShift must be between 1 and 26");
+            OffHeapLongRedBlackTree tree = new OffHeapLongRedBlackTree();
+            tree.chunkShift = chunkShift;
+            tree.chunkMask = (1 << chunkShift) - 1;
+            return tree;
+        }
+
+        // ----- slot accessors: every read and write of a node goes through these
+
+        private ByteBuffer chunk(int slot) {
+            return chunks[slot >>> chunkShift];
+        }
+
+        private int offset(int slot) {
+            return (slot & chunkMask) * NODE_BYTES;
+        }
+
+        private long key(int slot) { return chunk(slot).getLong(offset(slot) + KEY); }
+        private int left(int slot) { return chunk(slot).getInt(offset(slot) + LEFT); }
+        private int right(int slot) { return chunk(slot).getInt(offset(slot) + RIGHT); }
+        private int parent(int slot) { return chunk(slot).getInt(offset(slot) + PARENT); }
+        private byte color(int slot) { return chunk(slot).get(offset(slot) + COLOR); }
+
+        private void setLeft(int slot, int value) { chunk(slot).putInt(offset(slot) + LEFT, value); }
+        private void setRight(int slot, int value) { chunk(slot).putInt(offset(slot) + RIGHT, value); }
+        private void setParent(int slot, int value) { chunk(slot).putInt(offset(slot) + PARENT, value); }
+        private void setColor(int slot, int value) { chunk(slot).put(offset(slot) + COLOR, (byte) value); }
+
+        /**
+         * Takes the next unused slot, adding a chunk when the current ones are full,
+         * and initializes it as a red leaf holding key.
+         */
+        private int allocateSlot(long key) {
+            if (nextUnused == Integer.MAX_VALUE) throw new IllegalStateException(
+                    "This RedBlackTree cannot hold more values.");
+            int slot = nextUnused++;
+            int chunkIndex = slot >>> chunkShift;
+            if (chunkIndex == chunkCount) {
+                if (chunkCount == chunks.length) chunks = Arrays.copyOf(chunks, chunkCount * 2);
+                chunks[chunkCount++] = ByteBuffer.allocateDirect(NODE_BYTES << chunkShift)
+                        .order(ByteOrder.nativeOrder());
+            }
+            ByteBuffer chunk = chunks[chunkIndex];
+            int offset = offset(slot);
+            chunk.putLong(offset + KEY, key);
+            chunk.putInt(offset + LEFT, NIL);
+            chunk.putInt(offset + RIGHT, NIL);
+            chunk.putInt(offset + PARENT, NIL);
+            chunk.put(offset + COLOR, (byte) 0);
+            return slot;
+        }
+
+        private void ensureOpen() {
+            if (closed) throw new IllegalStateException("This RedBlackTree has been closed.");
+        }
+
+        /**
+         * Inserts the input key into a new red leaf node and then restores the
+         * red-black tree properties.
+         * @param key to be added into this tree
+         * @return true if the value was inserted
+         * @throws IllegalArgumentException when the tree already contains key
+         * @throws IllegalStateException when the tree has been closed
+         */
+        public boolean insert(long key) throws IllegalArgumentException {
+            ensureOpen();
+            if (root == NIL) {
+                root = allocateSlot(key);
+                setColor(root, 1);
+                size++;
+                return true;
+            }
+            int subtree = root;
+            while (true) {
+                long current = key(subtree);
+                if (key == current) throw new IllegalArgumentException(
+                        "This RedBlackTree already contains that value.");
+                int next = key < current ? left(subtree) : right(subtree);
+                if (next == NIL) {
+                    int slot = allocateSlot(key);
+                    setParent(slot, subtree);
+                    if (key < current) setLeft(subtree, slot);
+                    else setRight(subtree, slot);
+                    size++;
+                    enforceRBTreePropertiesAfterInsert(slot);
+                    return true;
+                }
+                subtree = next;
+            }
+        }
+
+        /**
+         * Checks whether the tree contains the value *key*.
+         * @param key the value to test for
+         * @return true if *key* is in the tree, false if it is not in the tree
+         * @throws IllegalStateException when the tree has been closed
+         */
+        public boolean contains(long key) {
+            ensureOpen();
+            int subtree = root;
+            while (subtree != NIL) {
+                long current = key(subtree);
+                if (key < current) subtree = left(subtree);
+                else if (key > current) subtree = right(subtree);
+                else return true;
+            }
+            return false;
+        }
+
+        /**
+         * Right rotation when child is the left child of parentSlot, left rotation
+         * when it is the right child.
+         * @throws IllegalArgumentException when the provided slots are not
+         *      initially (pre-rotation) related that way
+         */
+        private void rotate(int child, int parentSlot) throws IllegalArgumentException {
+            int grandParent = parent(parentSlot);
+            if (left(parentSlot) == child) { // case of right rotation
+                int moved = right(child);
+                setLeft(parentSlot, moved);
+                if (moved != NIL) setParent(moved, parentSlot);
+                setRight(child, parentSlot);
+            } else if (right(parentSlot) == child) { // case of left rotation
+                int moved = left(child);
+                setRight(parentSlot, moved);
+                if (moved != NIL) setParent(moved, parentSlot);
+                setLeft(child, parentSlot);
+            } else {
+                throw new IllegalArgumentException("Illegal Argument Exception thrown");
+            }
+            setParent(child, grandParent);
+            setParent(parentSlot, child);
+            if (grandParent == NIL) root = child;
+            else if (left(grandParent) == parentSlot) setLeft(grandParent, child);
+            else setRight(grandParent, child);
+        }
+
+        /**
+         * Resolves the red-black tree property violations introduced by linking a
+         * new red slot, with the same bottom-up loop as RedBlackTree.
+         */
+        private void enforceRBTreePropertiesAfterInsert(int slot) {
+            int node = slot;
+            while (parent(node) != NIL && color(parent(node)) == 0) {
+                int parentSlot = parent(node);
+                int grandParent = parent(parentSlot);
+                if (grandParent == NIL) break;
+
+                boolean parentIsLeft = left(grandParent) == parentSlot;
+                int uncle = parentIsLeft ? right(grandParent) : left(grandParent);
+
+                //case 1 - red parent and red uncle
+                if (uncle != NIL && color(uncle) == 0) {
+                    setColor(parentSlot, 1);
+                    setColor(uncle, 1);
+                    setColor(grandParent, 0);
+                    node = grandParent;
+                    continue;
+                }
+
+                //case 3 - red parent and black uncle (triangle)
+                if ((left(parentSlot) == node) != parentIsLeft) {
+                    rotate(node, parentSlot);
+                    parentSlot = node;
+                }
+
+                //case 2 - red parent and black uncle (line)
+                setColor(parentSlot, 1);
+                setColor(grandParent, 0);
+                rotate(parentSlot, grandParent);
+                break;
+            }
+            setColor(root, 1);
+        }
+
+        /**
+         * Get the size of the tree (its number of nodes).
+         * @return the number of nodes in the tree
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Method to check if the tree is empty (does not contain any node).
+         * @return true of this.size() return 0, false if this.size() > 0
+         */
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        /**
+         * @return the number of bytes of off-heap memory reserved by this tree
+         */
+        public long reservedBytes() {
+            return (long) chunkCount * (NODE_BYTES << chunkShift);
+        }
+
+        /**
+         * @return the number of nodes on the longest root to leaf path
+         */
+        protected int height() {
+            return height(root);
+        }
+
+        private int height(int slot) {
+            if (slot == NIL) return 0;
+            return 1 + Math.max(height(left(slot)), height(right(slot)));
+        }
+
+        private int successor(int slot) {
+            if (right(slot) != NIL) {
+                slot = right(slot);
+                while (left(slot) != NIL) slot = left(slot);
+                return slot;
+            }
+            int up = parent(slot);
+            while (up != NIL && right(up) == slot) {
+                slot = up;
+                up = parent(up);
+            }
+            return up;
+        }
+
+        private int firstSlot() {
+            int slot = root;
+            if (slot == NIL) return NIL;
+            while (left(slot) != NIL) slot = left(slot);
+            return slot;
+        }
+
+        /**
+         * @return the keys of this tree in ascending order
+         */
+        public long[] toArray() {
+            ensureOpen();
+            long[] result = new long[size];
+            int i = 0;
+            for (int slot = firstSlot(); slot != NIL; slot = successor(slot)) result[i++] = key(slot);
+            return result;
+        }
+
+        /**
+         * This method performs an inorder traversal of the tree.
+         * @return string containing the ordered values of this tree (in-order traversal)
+         */
+        public String toInOrderString() {
+            ensureOpen();
+            StringBuilder sb = new StringBuilder("[ ");
+            for (int slot = firstSlot(); slot != NIL; slot = successor(slot)) sb.append(key(slot)).append(", ");
+            if (root != NIL) sb.setLength(sb.length() - 2);
+            return sb.append(" ]").toString();
+        }
+
+        /**
+         * This method performs a level order traversal of the tree.
+         * @return string containing the values of this tree in level order
+         */
+        public String toLevelOrderString() {
+            ensureOpen();
+            StringBuilder sb = new StringBuilder("[ ");
+            if (root != NIL) {
+                int[] queue = new int[size];
+                int head = 0, tail = 0;
+                queue[tail++] = root;
+                while (head < tail) {
+                    int next = queue[head++];
+                    if (left(next) != NIL) queue[tail++] = left(next);
+                    if (right(next) != NIL) queue[tail++] = right(next);
+                    sb.append(key(next));
+                    if (head < tail) sb.append(", ");
+                }
+            }
+            return sb.append(" ]").toString();
+        }
+
+        public String toString() {
+            return "level order: " + this.toLevelOrderString() +
+                    "\nin order: " + this.toInOrderString();
+        }
+
+        /**
+         * Frees the chunks through Unsafe.invokeCleaner, so the native memory is
+         * handed back now rather than once the chunk objects are collected (which
+         * is still the fallback when the JVM has no invokeCleaner). The tree
+         * rejects any use after this call; closing it again does nothing.
+         */
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            ByteBuffer[] freed = chunks;
+            int freedCount = chunkCount;
+            chunks = new ByteBuffer[0];
+            chunkCount = 0;
+            root = NIL;
+            size = 0;
+            nextUnused = 0;
+            if (FREE_CHUNK == null) return;
+            for (int i = 0; i < freedCount; i++) {
+                try {
+                    FREE_CHUNK.invokeExact(freed[i]);
+                } catch (Throwable e) {
+                    throw new IllegalStateException("A chunk of this RedBlackTree could not be freed.", e);
+                }
+            }
+        }
+
+        /**
+         * Checks inserts across several chunks against the heap-based tree, which
+         * uses the same fixup and therefore builds the same shape.
+         */
+        @Test
+        public void testInsertAcrossChunks() {
+            try (OffHeapLongRedBlackTree tree = OffHeapLongRedBlackTree.withChunkShift(4)) {
+                LongRedBlackTree reference = new LongRedBlackTree();
+                java.util.Random random = new java.util.Random(11);
+                for (int i = 0; i < 1000; i++) {
+                    long key = random.nextInt(5000);
+                    if (reference.contains(key)) {
+                        assertThrows(IllegalArgumentException.class, () -> tree.insert(key));
+                    } else {
+                        reference.insert(key);
+                        tree.insert(key);
+                    }
+                }
+                assertEquals(reference.size(), tree.size());
+                assertEquals(reference.toLevelOrderString(), tree.toLevelOrderString());
+                assertEquals(reference.toInOrderString(), tree.toInOrderString());
+                for (long key = 0; key < 5000; key++) assertEquals(reference.contains(key), tree.contains(key));
+                assertTrue(tree.reservedBytes() >= (long) tree.size() * NODE_BYTES);
+            }
+        }
+
+        /**
+         * Checks that close hands the direct memory back at once and that a
+         * closed tree cannot be used anymore.
+         */
+        @Test
+        public void testClose() {
+            BufferPoolMXBean direct = ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class).stream()
+                    .filter(pool -> pool.getName().equals("direct")).findFirst().orElseThrow();
+            OffHeapLongRedBlackTree tree = new OffHeapLongRedBlackTree();
+            for (long key = 0; key < 200_000; key++) tree.insert(key);
+            assertTrue(tree.contains(1));
+            long reserved = tree.reservedBytes();
+            long before = direct.getMemoryUsed();
+            tree.close();
+            assertEquals(0, tree.reservedBytes());
+            assertTrue(before - direct.getMemoryUsed() >= reserved, "chunks not freed by close");
+            tree.close();
+            assertThrows(IllegalStateException.class, () -> tree.contains(1));
+            assertThrows(IllegalStateException.class, () -> tree.insert(2));
+        }
+    }
@@ -0,0 +1,302 @@
+
+    import java.util.ArrayList;
+    import java.util.Comparator;
+    import java.util.Iterator;
+    import java.util.List;
+    import java.util.NoSuchElementException;
+    import java.util.Random;
+    import java.util.TreeSet;
+    import static org.junit.jupiter.api.Assertions.*;
+    import org.junit.jupiter.api.Test;
+
+    /**
+     * RedBlackTree whose nodes also hold the number of nodes in their subtree.
+     * The sizes answer rank, select, countBetween and percentile in O(log n),
+     * count the range views in O(log n) and the parts of split in O(1) instead
+     * of walking over their nodes.
+     *
+     * The sizes are kept through the augment hooks of RedBlackTree: every
+     * rotation recomputes them for its two nodes, every insertion and removal
+     * walks from the changed node up to the root. That walk, and the four
+     * bytes per node, are only paid by trees that need order statistics.
+     */
+    public class OrderStatisticTree<T extends Comparable<T>> extends RedBlackTree<T> {
+
+        /**
+         * Node that also holds the number of nodes in its subtree, itself included.
+         */
+        protected static class SizedNode<T> extends Node<T> {
+            public int subtreeSize = 1;
+            public SizedNode(T data) {
+                super(data);
+            }
+        }
+
+        /**
+         * Creates an empty tree ordered by the natural ordering of its values.
+         */
+        public OrderStatisticTree() {
+        }
+
+        /**
+         * Creates an empty tree ordered by comparator.
+         * @param comparator the ordering of the values, null for their natural
+         *      ordering
+         */
+        public static <T extends Comparable<T>> OrderStatisticTree<T> withComparator(Comparator<? super T> comparator) {
+            OrderStatisticTree<T> tree = new OrderStatisticTree<>();
+            tree.setComparator(comparator);
+            return tree;
+        }
+
+        @Override
+        protected Node<T> newNode(T data) {
+            return new SizedNode<>(data);
+        }
+
+        /**
+         * @return the number of nodes in the subtree rooted at node, 0 for null
+         */
+        protected static int sizeOf(Node<?> node) {
+            return node == null ? 0 : ((SizedNode<?>) node).subtreeSize;
+        }
+
+        @Override
+        protected void updateAugment(Node<T> node) {
+            ((SizedNode<T>) node).subtreeSize = sizeOf(node.leftChild) + sizeOf(node.rightChild) + 1;
+        }
+
+        @Override
+        protected void augmentPath(Node<T> node) {
+            for (; node != null; node = node.parent) updateAugment(node);
+        }
+
+        /**
+         * Counts the nodes from lo to hi from their positions, in O(log n).
+         */
+        @Override
+        protected int countRange(Node<T> lo, Node<T> hi) {
+            return positionOf(hi) - positionOf(lo) + 1;
+        }
+
+        /**
+         * Reads the size of the upper part of a split from its root, in O(1).
+         */
+        @Override
+        protected int countUpperPart(Node<T> lowerRoot, Node<T> upperRoot, int total) {
+            return sizeOf(upperRoot);
+        }
+
+        /**
+         * @return the number of nodes before node in order, added up from the
+         *      sizes of the left subtrees on the path up to the root
+         */
+        private static int positionOf(Node<?> node) {
+            int position = sizeOf(node.leftChild);
+            for (; node.parent != null; node = node.parent) {
+                if (node.parent.rightChild == node) position += sizeOf(node.parent.leftChild) + 1;
+            }
+            return position;
+        }
+
+        /**
+         * Split, join and the set operations build OrderStatisticTrees, so the
+         * parts they link keep their sizes.
+         */
+        @Override
+        protected RedBlackTree<T> emptyCopy() {
+            return OrderStatisticTree.<T>withComparator(comparator());
+        }
+
+        /**
+         * Returns the rank of value: the number of values in this tree that are
+         * strictly smaller than it. Uses the subtree sizes, so this is O(log n).
+         * @param value the value to rank, it does not need to be stored in the tree
+         * @return the number of values smaller than value
+         * @throws NullPointerException when value is null
+         */
+        public int rank(T value) {
+            if (value == null) throw new NullPointerException(
+                    "This RedBlackTree cannot store null references.");
+            return countSmaller(value, false);
+        }
+
+        /**
+         * Returns the value at position k of the in-order sequence (the value
+         * with rank k), in O(log n).
+         * @param k zero-based position of the value
+         * @return the k-th smallest value of this tree
+         * @throws IndexOutOfBoundsException when k is negative or not smaller than size()
+         */
+        public T select(int k) {
+            if (k < 0 || k >= size) throw new IndexOutOfBoundsException(
+                    "Index " + k + " is out of bounds for a RedBlackTree of size " + size);
+            Node<T> node = root;
+            while (true) {
+                int leftSize = sizeOf(node.leftChild);
+                if (k < leftSize) {
+                    node = node.leftChild;
+                } else if (k == leftSize) {
+                    return node.data;
+                } else {
+                    k -= leftSize + 1;
+                    node = node.rightChild;
+                }
+            }
+        }
+
+        /**
+         * Counts the values v of this tree with lo <= v <= hi, in O(log n).
+         * @param lo lower bound (inclusive)
+         * @param hi upper bound (inclusive)
+         * @return the number of values within the bounds, 0 when lo > hi
+         * @throws NullPointerException when lo or hi is null
+         */
+        public int countBetween(T lo, T hi) {
+            if (lo == null || hi == null) throw new NullPointerException(
+                    "This RedBlackTree cannot store null references.");
+            if (compare(lo, hi) > 0) return 0;
+            return countSmaller(hi, true) - countSmaller(lo, false);
+        }
+
+        /**
+         * Returns the value at the given percentile using the nearest-rank method:
+         * the smallest value such that at least p percent of the values are less
+         * than or equal to it. Runs in O(log n).
+         * @param p the percentile, between 0 and 100
+         * @return the value at percentile p (the minimum for p = 0)
+         * @throws IllegalArgumentException when p is not between 0 and 100
+         * @throws NoSuchElementException when this tree is empty
+         */
+        public T percentile(double p) {
+            if (!(p >= 0 && p <= 100)) throw new IllegalArgumentException(
+                    "The percentile must be between 0 and 100.");
+            if (size == 0) throw new NoSuchElementException("This RedBlackTree is empty.");
+            int rank = (int) Math.ceil(p / 100 * size);
+            return select(Math.max(rank - 1, 0));
+        }
+
+        /**
+         * Counts the values smaller than value (or equal to it, when inclusive) with
+         * a single descent that adds up the sizes of the skipped left subtrees.
+         */
+        private int countSmaller(T value, boolean inclusive) {
+            int count = 0;
+            Node<T> node = root;
+            while (node != null) {
+                int compare = compare(value, node.data);
+                if (compare < 0) {
+                    node = node.leftChild;
+                } else if (compare > 0) {
+                    count += sizeOf(node.leftChild) + 1;
+                    node = node.rightChild;
+                } else {
+                    return count + sizeOf(node.leftChild) + (inclusive ? 1 : 0);
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Checks the red-black tree properties of tree and that every node holds
+         * the size of its subtree.
+         */
+        static <T extends Comparable<T>> void assertValidOrderStatisticTree(OrderStatisticTree<T> tree) {
+            RedBlackTree.assertValidRedBlackTree(tree);
+            assertEquals(tree.size, assertSizes(tree.root));
+        }
+
+        private static int assertSizes(Node<?> node) {
+            if (node == null) return 0;
+            int size = assertSizes(node.leftChild) + assertSizes(node.rightChild) + 1;
+            assertEquals(size, sizeOf(node), "subtree size");
+            return size;
+        }
+
+        /**
+         * Checks rank, select, countBetween and percentile against a sorted list,
+         * for trees built by insert and by insertAllSorted.
+         */
+        @Test
+        public void testOrderStatistics() {
+            Random random = new Random(8);
+            OrderStatisticTree<Integer> tree = new OrderStatisticTree<>();
+            TreeSet<Integer> values = new TreeSet<>();
+            while (values.size() < 1500) {
+                int value = random.nextInt(6000);
+                if (values.add(value)) tree.insert(value);
+                else assertThrows(IllegalArgumentException.class, () -> tree.insert(value));
+            }
+            assertValidOrderStatisticTree(tree);
+            List<Integer> sorted = new ArrayList<>(values);
+            OrderStatisticTree<Integer> built = new OrderStatisticTree<>();
+            built.insertAllSorted(sorted.iterator());
+            assertValidOrderStatisticTree(built);
+            for (OrderStatisticTree<Integer> candidate : List.of(tree, built)) {
+                for (int k = 0; k < sorted.size(); k++) assertEquals(sorted.get(k), candidate.select(k));
+                for (int value = -1; value <= 6001; value += 7) {
+                    assertEquals(values.headSet(value).size(), candidate.rank(value));
+                    assertEquals(values.subSet(value, true, value + 500, true).size(),
+                            candidate.countBetween(value, value + 500));
+                    assertEquals(values.subSet(value, true, value + 500, true).size(),
+                            candidate.subSet(value, true, value + 500, true).size());
+                }
+                assertEquals(sorted.get(0), candidate.percentile(0));
+                assertEquals(sorted.get(749), candidate.percentile(50));
+                assertEquals(sorted.get(1484), candidate.percentile(99));
+                assertEquals(sorted.get(1499), candidate.percentile(100));
+            }
+            assertEquals(0, tree.countBetween(10, 5));
+            assertThrows(IndexOutOfBoundsException.class, () -> tree.select(1500));
+            assertThrows(IllegalArgumentException.class, () -> tree.percentile(101));
+            assertThrows(NoSuchElementException.class, () -> new OrderStatisticTree<Integer>().percentile(50));
+        }
+
+        /**
+         * Checks the subtree sizes after every kind of modification: removals,
+         * finger insertions, the iterator, split and the set operations,
+         * which must also keep the trees they build order-statistic trees.
+         */
+        @Test
+        public void testSizesAfterModifications() {
+            Random random = new Random(7);
+            OrderStatisticTree<Integer> tree = new OrderStatisticTree<>();
+            TreeSet<Integer> values = new TreeSet<>();
+            for (int i = 0; i < 3000; i++) {
+                int value = random.nextInt(4000);
+                if (i % 3 == 0) {
+                    assertEquals(values.remove(value), tree.remove(value));
+                } else {
+                    assertEquals(values.add(value), tree.insertNearFinger(value));
+                }
+            }
+            assertValidOrderStatisticTree(tree);
+            for (Iterator<Integer> it = tree.iterator(); it.hasNext();) {
+                if (it.next() % 5 == 0) it.remove();
+            }
+            values.removeIf(value -> value % 5 == 0);
+            assertEquals(values.pollFirst(), tree.pollFirst());
+            assertValidOrderStatisticTree(tree);
+            assertEquals(new ArrayList<>(values), new ArrayList<>(tree));
+
+            RedBlackTree<Integer> upper = tree.split(2000);
+            assertTrue(upper instanceof OrderStatisticTree);
+            assertValidOrderStatisticTree(tree);
+            assertValidOrderStatisticTree((OrderStatisticTree<Integer>) upper);
+            assertEquals(values.headSet(2000).size(), tree.size());
+            assertEquals(values.tailSet(2000, true).size(), upper.size());
+
+            OrderStatisticTree<Integer> other = new OrderStatisticTree<>();
+            for (int value = 0; value < 6000; value += 3) other.insert(value);
+            TreeSet<Integer> otherValues = new TreeSet<>(other);
+            TreeSet<Integer> expected = new TreeSet<>(values);
+            expected.addAll(otherValues);
+            RedBlackTree<Integer> union = RedBlackTree.union(RedBlackTree.union(tree, upper), other);
+            assertValidOrderStatisticTree((OrderStatisticTree<Integer>) union);
+            assertEquals(new ArrayList<>(expected), new ArrayList<>(union));
+            assertEquals(expected.size() / 2, ((OrderStatisticTree<Integer>) union).rank(
+                    ((OrderStatisticTree<Integer>) union).select(expected.size() / 2)));
+            assertThrows(IllegalArgumentException.class,
+                    () -> RedBlackTree.union(new OrderStatisticTree<Integer>(), new RedBlackTree<Integer>()));
+        }
+    }
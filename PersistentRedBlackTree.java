@@ -0,0 +1,446 @@
+
+    import java.util.ArrayDeque;
+    import java.util.ArrayList;
+    import java.util.Iterator;
+    import java.util.List;
+    import java.util.NoSuchElementException;
+    import java.util.Random;
+    import java.util.TreeSet;
+    import static org.junit.jupiter.api.Assertions.*;
+    import org.junit.jupiter.api.Test;
+
+    /**
+     * Persistent red-black tree: inserting a value never modifies an existing
+     * node. Instead the nodes on the path from the root to the new leaf are copied
+     * (together with the nodes that the balancing step rearranges), which creates
+     * a new version of the tree in O(log n) time and space while every older
+     * version stays intact. The nodes have no parent reference, which is what
+     * allows a node to be shared between versions.
+     *
+     * The tree itself holds the current version in a volatile field. Writers are
+     * serialized, readers never lock: snapshot() hands out the current version in
+     * O(1), and that Snapshot can be read by any thread while writers move ahead.
+     */
+    public class PersistentRedBlackTree<T extends Comparable<T>> implements Iterable<T> {
+
+        /**
+         * Immutable node, shared between all versions that contain it.
+         */
+        protected static final class Node<T> {
+            public final int blackHeight; // 1 for black nodes, 0 for red nodes
+            public final T data;
+            public final Node<T> leftChild;
+            public final Node<T> rightChild;
+            public Node(int blackHeight, Node<T> leftChild, T data, Node<T> rightChild) {
+                this.blackHeight = blackHeight;
+                this.leftChild = leftChild;
+                this.data = data;
+                this.rightChild = rightChild;
+            }
+            boolean isRed() {
+                return blackHeight == 0;
+            }
+        }
+
+        /**
+         * One immutable version of a PersistentRedBlackTree. All methods are
+         * safe to call from any thread without locking.
+         */
+        public static final class Snapshot<T extends Comparable<T>> implements Iterable<T> {
+            private static final Snapshot<?> EMPTY = new Snapshot<>(null, 0);
+
+            final Node<T> root; // null when empty
+            private final int size;
+
+            private Snapshot(Node<T> root, int size) {
+                this.root = root;
+                this.size = size;
+            }
+
+            @SuppressWarnings("unchecked")
+            static <T extends Comparable<T>> Snapshot<T> empty() {
+                return (Snapshot<T>) EMPTY;
+            }
+
+            /**
+             * Returns the version that additionally contains data. This version
+             * is not changed; the returned one shares all nodes off the insertion
+             * path with it.
+             * @param data the value to insert
+             * @return the new version
+             * @throws NullPointerException when the provided data argument is null
+             * @throws IllegalArgumentException when data is already contained
+             */
+            public Snapshot<T> insert(T data) throws NullPointerException, IllegalArgumentException {
+                if (data == null) throw new NullPointerException("This RedBlackTree cannot store null references.");
+                Node<T> inserted = PersistentRedBlackTree.insert(root, data);
+                if (inserted == null) throw new IllegalArgumentException(
+                        "This RedBlackTree already contains that value.");
+                return new Snapshot<>(blacken(inserted), size + 1);
+            }
+
+            /**
+             * Get the size of this version (its number of nodes).
+             * @return the number of nodes in this version
+             */
+            public int size() {
+                return size;
+            }
+
+            /**
+             * Method to check if this version is empty (does not contain any node).
+             * @return true of this.size() return 0, false if this.size() > 0
+             */
+            public boolean isEmpty() {
+                return size == 0;
+            }
+
+            /**
+             * Checks whether this version contains the value *data*.
+             * @param data the data value to test for
+             * @return true if *data* is in this version, false if it is not
+             */
+            public boolean contains(T data) {
+                if (data == null) return false;
+                Node<T> node = root;
+                while (node != null) {
+                    int compare = data.compareTo(node.data);
+                    if (compare == 0) return true;
+                    node = compare < 0 ? node.leftChild : node.rightChild;
+                }
+                return false;
+            }
+
+            /**
+             * @return the smallest value of this version
+             * @throws NoSuchElementException when this version is empty
+             */
+            public T first() {
+                if (root == null) throw new NoSuchElementException("This RedBlackTree is empty.");
+                Node<T> node = root;
+                while (node.leftChild != null) node = node.leftChild;
+                return node.data;
+            }
+
+            /**
+             * @return the largest value of this version
+             * @throws NoSuchElementException when this version is empty
+             */
+            public T last() {
+                if (root == null) throw new NoSuchElementException("This RedBlackTree is empty.");
+                Node<T> node = root;
+                while (node.rightChild != null) node = node.rightChild;
+                return node.data;
+            }
+
+            /**
+             * Returns an iterator over the values of this version in ascending
+             * order. As there are no parent references, the iterator keeps the
+             * path to its position on a stack of at most the height of the tree.
+             */
+            @Override
+            public Iterator<T> iterator() {
+                return new InOrderIterator<>(root);
+            }
+
+            /**
+             * This method performs an inorder traversal of this version. The string
+             * representations of each data value within the tree are assembled into
+             * a comma separated string within brackets (similar to many
+             * implementations of java.util.Collection, like java.util.ArrayList,
+             * LinkedList, etc).
+             * @return string containing the ordered values of this version
+             */
+            public String toInOrderString() {
+                StringBuilder sb = new StringBuilder("[ ");
+                for (T value : this) {
+                    if (sb.length() > 2) sb.append(", ");
+                    sb.append(value);
+                }
+                return sb.append(" ]").toString();
+            }
+
+            /**
+             * This method performs a level order traversal of this version. The
+             * string representations of each data value within the tree are
+             * assembled into a comma separated string within brackets.
+             * @return string containing the values of this version in level order
+             */
+            public String toLevelOrderString() {
+                StringBuilder sb = new StringBuilder("[ ");
+                if (root != null) {
+                    ArrayDeque<Node<T>> queue = new ArrayDeque<>();
+                    queue.add(root);
+                    while (!queue.isEmpty()) {
+                        Node<T> next = queue.removeFirst();
+                        if (next.leftChild != null) queue.add(next.leftChild);
+                        if (next.rightChild != null) queue.add(next.rightChild);
+                        sb.append(next.data);
+                        if (!queue.isEmpty()) sb.append(", ");
+                    }
+                }
+                return sb.append(" ]").toString();
+            }
+
+            @Override
+            public String toString() {
+                return toLevelOrderString();
+            }
+        }
+
+        private volatile Snapshot<T> current = Snapshot.empty();
+
+        /**
+         * Inserts a value into the tree by copying the path to its position and
+         * then publishing the new version.
+         * @param data to be added into the tree
+         * @return true if the value was inserted
+         * @throws NullPointerException when the provided data argument is null
+         * @throws IllegalArgumentException when data is already contained in the tree
+         */
+        public synchronized boolean insert(T data) throws NullPointerException, IllegalArgumentException {
+            current = current.insert(data);
+            return true;
+        }
+
+        /**
+         * Adds a value to the tree unless it is already contained.
+         * @return true when the value was added, false when it was already there
+         * @throws NullPointerException when the provided data argument is null
+         */
+        public synchronized boolean add(T data) throws NullPointerException {
+            if (data == null) throw new NullPointerException("This RedBlackTree cannot store null references.");
+            Node<T> inserted = insert(current.root, data);
+            if (inserted == null) return false;
+            current = new Snapshot<>(blacken(inserted), current.size + 1);
+            return true;
+        }
+
+        /**
+         * Returns the current version of the tree in O(1). The snapshot never
+         * changes, later insertions only affect the versions created after it.
+         * @return the current version
+         */
+        public Snapshot<T> snapshot() {
+            return current;
+        }
+
+        /**
+         * Get the size of the tree (its number of nodes).
+         * @return the number of nodes in the tree
+         */
+        public int size() {
+            return current.size();
+        }
+
+        /**
+         * Method to check if the tree is empty (does not contain any node).
+         * @return true of this.size() return 0, false if this.size() > 0
+         */
+        public boolean isEmpty() {
+            return current.isEmpty();
+        }
+
+        /**
+         * Checks whether the tree contains the value *data*.
+         * @param data the data value to test for
+         * @return true if *data* is in the tree, false if it is not
+         */
+        public boolean contains(T data) {
+            return current.contains(data);
+        }
+
+        /**
+         * Returns an iterator over the version that is current when this method
+         * is called. Later insertions are not seen by the iterator.
+         */
+        @Override
+        public Iterator<T> iterator() {
+            return current.iterator();
+        }
+
+        /**
+         * @return the in-order string of the current version
+         */
+        public String toInOrderString() {
+            return current.toInOrderString();
+        }
+
+        /**
+         * @return the level order string of the current version
+         */
+        public String toLevelOrderString() {
+            return current.toLevelOrderString();
+        }
+
+        @Override
+        public String toString() {
+            return current.toString();
+        }
+
+        /**
+         * Inserts data below node by copying the nodes on the path and
+         * rebalancing every copy on the way back up (Okasaki's balance). The root
+         * of the result may be red.
+         * @return the root of the new subtree, or null when data is already contained
+         */
+        private static <T extends Comparable<T>> Node<T> insert(Node<T> node, T data) {
+            if (node == null) return new Node<>(0, null, data, null);
+            int compare = data.compareTo(node.data);
+            if (compare == 0) return null;
+            if (compare < 0) {
+                Node<T> left = insert(node.leftChild, data);
+                if (left == null) return null;
+                return balance(node.blackHeight, left, node.data, node.rightChild);
+            } else {
+                Node<T> right = insert(node.rightChild, data);
+                if (right == null) return null;
+                return balance(node.blackHeight, node.leftChild, node.data, right);
+            }
+        }
+
+        /**
+         * Builds the copy of a node from its (possibly new) children. When a black
+         * node gets a red child with a red child of its own, the three nodes are
+         * rearranged into a red node with two black children, which is the
+         * persistent form of the rotations and recoloring of the insert fixup.
+         */
+        private static <T> Node<T> balance(int blackHeight, Node<T> left, T data, Node<T> right) {
+            if (blackHeight == 1) {
+                if (left != null && left.isRed()) {
+                    if (left.leftChild != null && left.leftChild.isRed()) { // line, rotate right
+                        Node<T> l = left.leftChild;
+                        return new Node<>(0, new Node<>(1, l.leftChild, l.data, l.rightChild), left.data,
+                                new Node<>(1, left.rightChild, data, right));
+                    }
+                    if (left.rightChild != null && left.rightChild.isRed()) { // triangle, rotate twice
+                        Node<T> m = left.rightChild;
+                        return new Node<>(0, new Node<>(1, left.leftChild, left.data, m.leftChild), m.data,
+                                new Node<>(1, m.rightChild, data, right));
+                    }
+                }
+                if (right != null && right.isRed()) {
+                    if (right.leftChild != null && right.leftChild.isRed()) { // triangle, rotate twice
+                        Node<T> m = right.leftChild;
+                        return new Node<>(0, new Node<>(1, left, data, m.leftChild), m.data,
+                                new Node<>(1, m.rightChild, right.data, right.rightChild));
+                    }
+                    if (right.rightChild != null && right.rightChild.isRed()) { // line, rotate left
+                        Node<T> r = right.rightChild;
+                        return new Node<>(0, new Node<>(1, left, data, right.leftChild), right.data,
+                                new Node<>(1, r.leftChild, r.data, r.rightChild));
+                    }
+                }
+            }
+            return new Node<>(blackHeight, left, data, right);
+        }
+
+        private static <T> Node<T> blacken(Node<T> root) {
+            return root.isRed() ? new Node<>(1, root.leftChild, root.data, root.rightChild) : root;
+        }
+
+        /**
+         * In-order iterator over immutable nodes, keeping the path from the root
+         * to the next node on a stack.
+         */
+        private static final class InOrderIterator<T> implements Iterator<T> {
+            private final ArrayDeque<Node<T>> path = new ArrayDeque<>();
+
+            InOrderIterator(Node<T> root) {
+                pushLeft(root);
+            }
+
+            private void pushLeft(Node<T> node) {
+                for (; node != null; node = node.leftChild) path.push(node);
+            }
+
+            @Override
+            public boolean hasNext() {
+                return !path.isEmpty();
+            }
+
+            @Override
+            public T next() {
+                if (path.isEmpty()) throw new NoSuchElementException();
+                Node<T> node = path.pop();
+                pushLeft(node.rightChild);
+                return node.data;
+            }
+        }
+
+        /**
+         * Checks that a version satisfies the red-black tree properties and is
+         * ordered.
+         * @return the black height of the checked subtree
+         */
+        static <T extends Comparable<T>> int assertValid(Node<T> node, T lo, T hi) {
+            if (node == null) return 1;
+            if (lo != null) assertTrue(lo.compareTo(node.data) < 0);
+            if (hi != null) assertTrue(hi.compareTo(node.data) > 0);
+            if (node.isRed()) {
+                assertFalse(node.leftChild != null && node.leftChild.isRed());
+                assertFalse(node.rightChild != null && node.rightChild.isRed());
+            }
+            int left = assertValid(node.leftChild, lo, node.data);
+            int right = assertValid(node.rightChild, node.data, hi);
+            assertEquals(left, right);
+            return left + node.blackHeight;
+        }
+
+        /**
+         * Checks insertions against a java.util.TreeSet and that snapshots taken
+         * along the way keep their contents.
+         */
+        @Test
+        public void testSnapshotsStayUnchanged() {
+            PersistentRedBlackTree<Integer> tree = new PersistentRedBlackTree<>();
+            TreeSet<Integer> expected = new TreeSet<>();
+            List<Snapshot<Integer>> snapshots = new ArrayList<>();
+            List<List<Integer>> contents = new ArrayList<>();
+            Random random = new Random(12);
+            for (int i = 0; i < 3000; i++) {
+                int value = random.nextInt(5000);
+                assertEquals(expected.add(value), tree.add(value));
+                if (i % 250 == 0) {
+                    snapshots.add(tree.snapshot());
+                    contents.add(new ArrayList<>(expected));
+                }
+            }
+            assertEquals(expected.size(), tree.size());
+            assertEquals(new ArrayList<>(expected), toList(tree));
+            assertValid(tree.snapshot().root, null, null);
+            assertTrue(tree.snapshot().root.blackHeight == 1);
+            for (int i = 0; i < snapshots.size(); i++) {
+                assertEquals(contents.get(i), toList(snapshots.get(i)));
+                assertEquals(contents.get(i).size(), snapshots.get(i).size());
+                assertValid(snapshots.get(i).root, null, null);
+            }
+            assertThrows(IllegalArgumentException.class, () -> tree.insert(expected.first()));
+            assertThrows(NullPointerException.class, () -> tree.insert(null));
+        }
+
+        /**
+         * Checks that a snapshot can be extended without affecting the tree or
+         * the snapshot itself, and that it shares the nodes off the insertion path.
+         */
+        @Test
+        public void testSnapshotInsert() {
+            PersistentRedBlackTree<Integer> tree = new PersistentRedBlackTree<>();
+            for (int i = 1; i <= 10; i++) tree.insert(i * 10);
+            Snapshot<Integer> before = tree.snapshot();
+            Snapshot<Integer> after = before.insert(5);
+            assertEquals("[ 10, 20, 30, 40, 50, 60, 70, 80, 90, 100 ]", before.toInOrderString());
+            assertEquals("[ 5, 10, 20, 30, 40, 50, 60, 70, 80, 90, 100 ]", after.toInOrderString());
+            assertFalse(tree.contains(5));
+            assertTrue(after.contains(5));
+            assertSame(before.root.rightChild, after.root.rightChild);
+            assertEquals(5, after.first());
+            assertEquals(100, after.last());
+        }
+
+        private static List<Integer> toList(Iterable<Integer> values) {
+            List<Integer> list = new ArrayList<>();
+            for (Integer value : values) list.add(value);
+            return list;
+        }
+    }
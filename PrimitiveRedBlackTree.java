@@ -0,0 +1,440 @@
+
+    import java.util.Arrays;
+
+    /**
+     * Shared structure of the primitive-specialized red-black trees. Instead of a
+     * Node object per value, the nodes live in parallel primitive arrays (one slot
+     * per node) and are addressed by their index: the left, right and parent
+     * arrays hold slot indexes (NIL for a missing node) and the blackHeight array
+     * holds the color of each slot (1 for black, 0 for red), just like the
+     * blackHeight field of RedBlackTree.Node. Subclasses own the array holding the
+     * keys and implement the key comparisons, this class implements the rotations,
+     * the insert fixup, the slot allocation and the traversals.
+     * Slots that are released by a removal are kept on a free-list (chained
+     * through the right array) and reused by later insertions before the arrays
+     * are grown.
+     */
+    public abstract class PrimitiveRedBlackTree {
+
+        protected static final int NIL = -1; // index used for missing children and parents
+        private static final int DEFAULT_CAPACITY = 16;
+
+        protected int[] left;
+        protected int[] right;
+        protected int[] parent;
+        protected byte[] blackHeight; // 1 for black slots, 0 for red slots
+
+        protected int root = NIL; // slot of the root node, NIL when empty
+        protected int size = 0; // the number of values in the tree
+        private int freeList = NIL; // first released slot, NIL when there is none
+        private int nextUnused = 0; // slots at and above this index have never been used
+
+        protected PrimitiveRedBlackTree(int initialCapacity) {
+            if (initialCapacity < 1) initialCapacity = DEFAULT_CAPACITY;
+            left = new int[initialCapacity];
+            right = new int[initialCapacity];
+            parent = new int[initialCapacity];
+            blackHeight = new byte[initialCapacity];
+        }
+
+        protected PrimitiveRedBlackTree() {
+            this(DEFAULT_CAPACITY);
+        }
+
+        /**
+         * Resizes the subclass' key array to the provided capacity.
+         * @param capacity the new number of slots
+         */
+        protected abstract void growKeys(int capacity);
+
+        /**
+         * Appends the string representation of the key stored in slot to sb.
+         */
+        protected abstract void appendKey(StringBuilder sb, int slot);
+
+        /**
+         * Get the size of the tree (its number of nodes).
+         * @return the number of nodes in the tree
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Method to check if the tree is empty (does not contain any node).
+         * @return true of this.size() return 0, false if this.size() > 0
+         */
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        /**
+         * Removes all values from the tree. The arrays keep their capacity.
+         */
+        public void clear() {
+            root = NIL;
+            size = 0;
+            freeList = NIL;
+            nextUnused = 0;
+        }
+
+        /**
+         * Takes a slot from the free-list, or the next unused slot, growing the
+         * arrays when all of them are in use. The slot is returned as a red leaf.
+         * @return the index of the new slot
+         */
+        protected int allocateSlot() {
+            int slot;
+            if (freeList != NIL) {
+                slot = freeList;
+                freeList = right[slot];
+            } else {
+                if (nextUnused == left.length) grow();
+                slot = nextUnused++;
+            }
+            left[slot] = NIL;
+            right[slot] = NIL;
+            parent[slot] = NIL;
+            blackHeight[slot] = 0;
+            return slot;
+        }
+
+        /**
+         * Puts a slot that is no longer part of the tree on the free-list.
+         * @param slot the index of the unlinked slot
+         */
+        protected void releaseSlot(int slot) {
+            right[slot] = freeList;
+            freeList = slot;
+        }
+
+        /**
+         * Grows the arrays so that capacity slots fit before the next resize.
+         * @param capacity number of slots to make room for
+         */
+        protected void ensureCapacity(int capacity) {
+            if (capacity > left.length) grow(capacity);
+        }
+
+        private void grow() {
+            grow(left.length + (left.length >> 1) + 1);
+        }
+
+        private void grow(int capacity) {
+            left = Arrays.copyOf(left, capacity);
+            right = Arrays.copyOf(right, capacity);
+            parent = Arrays.copyOf(parent, capacity);
+            blackHeight = Arrays.copyOf(blackHeight, capacity);
+            growKeys(capacity);
+        }
+
+        /**
+         * Links a freshly allocated slot below parentSlot and restores the
+         * red-black tree properties.
+         * @param slot the new red slot
+         * @param parentSlot the slot that slot becomes a child of
+         * @param asLeftChild true to link slot as the left child of parentSlot
+         */
+        protected void linkAndFix(int slot, int parentSlot, boolean asLeftChild) {
+            parent[slot] = parentSlot;
+            if (asLeftChild) left[parentSlot] = slot;
+            else right[parentSlot] = slot;
+            size++;
+            enforceRBTreePropertiesAfterInsert(slot);
+        }
+
+        /**
+         * Makes slot the black root of an empty tree.
+         */
+        protected void linkRoot(int slot) {
+            root = slot;
+            blackHeight[slot] = 1;
+            size++;
+        }
+
+        /**
+         * Performs the rotation operation on the provided slots within this tree:
+         * a right rotation when child is the left child of parentSlot and a left
+         * rotation when child is its right child.
+         * @throws IllegalArgumentException when the provided slots are not
+         *      initially (pre-rotation) related that way
+         */
+        protected void rotate(int child, int parentSlot) throws IllegalArgumentException {
+            int grandParent = parent[parentSlot];
+            if (left[parentSlot] == child) { // case of right rotation
+                int moved = right[child];
+                left[parentSlot] = moved;
+                if (moved != NIL) parent[moved] = parentSlot;
+                right[child] = parentSlot;
+            } else if (right[parentSlot] == child) { // case of left rotation
+                int moved = left[child];
+                right[parentSlot] = moved;
+                if (moved != NIL) parent[moved] = parentSlot;
+                left[child] = parentSlot;
+            } else {
+                throw new IllegalArgumentException("Illegal Argument Exception thrown");
+            }
+            parent[child] = grandParent;
+            parent[parentSlot] = child;
+            if (grandParent == NIL) root = child;
+            else if (left[grandParent] == parentSlot) left[grandParent] = child;
+            else right[grandParent] = child;
+        }
+
+        /**
+         * Resolves the red-black tree property violations introduced by linking a
+         * new red slot, with the same bottom-up loop as RedBlackTree.
+         * @param slot the red slot that was just linked into the tree
+         */
+        protected void enforceRBTreePropertiesAfterInsert(int slot) {
+            int node = slot;
+            while (parent[node] != NIL && blackHeight[parent[node]] == 0) {
+                int parentSlot = parent[node];
+                int grandParent = parent[parentSlot];
+                if (grandParent == NIL) break;
+
+                boolean parentIsLeft = left[grandParent] == parentSlot;
+                int uncle = parentIsLeft ? right[grandParent] : left[grandParent];
+
+                //case 1 - red parent and red uncle
+                if (uncle != NIL && blackHeight[uncle] == 0) {
+                    blackHeight[parentSlot] = 1;
+                    blackHeight[uncle] = 1;
+                    blackHeight[grandParent] = 0;
+                    node = grandParent;
+                    continue;
+                }
+
+                //case 3 - red parent and black uncle (triangle)
+                if ((left[parentSlot] == node) != parentIsLeft) {
+                    rotate(node, parentSlot);
+                    parentSlot = node;
+                }
+
+                //case 2 - red parent and black uncle (line)
+                blackHeight[parentSlot] = 1;
+                blackHeight[grandParent] = 0;
+                rotate(parentSlot, grandParent);
+                break;
+            }
+            blackHeight[root] = 1;
+        }
+
+        /**
+         * Unlinks slot from this tree, restores the red-black tree properties and
+         * puts the slot on the free-list. A slot with two children is replaced by
+         * its successor slot, so keys never have to be copied between slots.
+         * @param slot the slot to remove, it must be part of this tree
+         */
+        protected void removeSlot(int slot) {
+            int moved = slot; // the slot that leaves its position in the tree
+            byte movedColor = blackHeight[moved];
+            int replacement; // the slot taking the position moved left, may be NIL
+            int replacementParent;
+
+            if (left[slot] == NIL || right[slot] == NIL) {
+                replacement = left[slot] != NIL ? left[slot] : right[slot];
+                replacementParent = parent[slot];
+                transplant(slot, replacement);
+            } else {
+                moved = right[slot];
+                while (left[moved] != NIL) moved = left[moved];
+                movedColor = blackHeight[moved];
+                replacement = right[moved];
+                if (parent[moved] == slot) {
+                    replacementParent = moved;
+                } else {
+                    replacementParent = parent[moved];
+                    transplant(moved, right[moved]);
+                    right[moved] = right[slot];
+                    parent[right[moved]] = moved;
+                }
+                transplant(slot, moved);
+                left[moved] = left[slot];
+                parent[left[moved]] = moved;
+                blackHeight[moved] = blackHeight[slot];
+            }
+
+            if (movedColor == 1) enforceRBTreePropertiesAfterRemove(replacement, replacementParent);
+            size--;
+            releaseSlot(slot);
+        }
+
+        private void transplant(int slot, int replacement) {
+            int up = parent[slot];
+            if (up == NIL) root = replacement;
+            else if (left[up] == slot) left[up] = replacement;
+            else right[up] = replacement;
+            if (replacement != NIL) parent[replacement] = up;
+        }
+
+        private boolean isBlack(int slot) {
+            return slot == NIL || blackHeight[slot] == 1;
+        }
+
+        /**
+         * Resolves the missing black slot on the paths through slot after a black
+         * slot was removed, with the same cases as RedBlackTree.
+         * @param slot the slot that took the removed position, may be NIL
+         * @param parentSlot the parent of that position
+         */
+        protected void enforceRBTreePropertiesAfterRemove(int slot, int parentSlot) {
+            while (slot != root && isBlack(slot)) {
+                boolean slotIsLeft = left[parentSlot] == slot;
+                int sibling = slotIsLeft ? right[parentSlot] : left[parentSlot];
+
+                //case 1 - red sibling
+                if (blackHeight[sibling] == 0) {
+                    blackHeight[sibling] = 1;
+                    blackHeight[parentSlot] = 0;
+                    rotate(sibling, parentSlot);
+                    sibling = slotIsLeft ? right[parentSlot] : left[parentSlot];
+                }
+
+                int near = slotIsLeft ? left[sibling] : right[sibling];
+                int far = slotIsLeft ? right[sibling] : left[sibling];
+                //case 2 - black sibling with black children
+                if (isBlack(near) && isBlack(far)) {
+                    blackHeight[sibling] = 0;
+                    slot = parentSlot;
+                    parentSlot = parent[slot];
+                    continue;
+                }
+
+                //case 3 - black sibling with a red near child
+                if (isBlack(far)) {
+                    blackHeight[near] = 1;
+                    blackHeight[sibling] = 0;
+                    rotate(near, sibling);
+                    far = sibling;
+                    sibling = near;
+                }
+
+                //case 4 - black sibling with a red far child
+                blackHeight[sibling] = blackHeight[parentSlot];
+                blackHeight[parentSlot] = 1;
+                blackHeight[far] = 1;
+                rotate(sibling, parentSlot);
+                slot = root;
+                break;
+            }
+            if (slot != NIL) blackHeight[slot] = 1;
+        }
+
+        /**
+         * @return the number of slots the arrays currently have room for
+         */
+        protected int capacity() {
+            return left.length;
+        }
+
+        /**
+         * @return the slot holding the smallest key, NIL when the tree is empty
+         */
+        protected int firstSlot() {
+            int slot = root;
+            if (slot == NIL) return NIL;
+            while (left[slot] != NIL) slot = left[slot];
+            return slot;
+        }
+
+        /**
+         * @return the slot holding the next larger key, NIL when slot holds the
+         *      largest key of the tree
+         */
+        protected int successor(int slot) {
+            if (right[slot] != NIL) {
+                slot = right[slot];
+                while (left[slot] != NIL) slot = left[slot];
+                return slot;
+            }
+            int up = parent[slot];
+            while (up != NIL && right[up] == slot) {
+                slot = up;
+                up = parent[up];
+            }
+            return up;
+        }
+
+        /**
+         * @return the number of slots on the longest root to leaf path
+         */
+        protected int height() {
+            return height(root);
+        }
+
+        private int height(int slot) {
+            if (slot == NIL) return 0;
+            return 1 + Math.max(height(left[slot]), height(right[slot]));
+        }
+
+        /**
+         * This method performs an inorder traversal of the tree, following the
+         * parent indexes so that no stack is needed.
+         * @return string containing the ordered values of this tree (in-order traversal)
+         */
+        public String toInOrderString() {
+            StringBuilder sb = new StringBuilder("[ ");
+            for (int slot = firstSlot(); slot != NIL; slot = successor(slot)) {
+                appendKey(sb, slot);
+                sb.append(", ");
+            }
+            if (root != NIL) sb.setLength(sb.length() - 2);
+            return sb.append(" ]").toString();
+        }
+
+        /**
+         * This method performs a level order traversal of the tree, using an
+         * int array as the queue of slots.
+         * @return string containing the values of this tree in level order
+         */
+        public String toLevelOrderString() {
+            StringBuilder sb = new StringBuilder("[ ");
+            if (root != NIL) {
+                int[] queue = new int[size];
+                int head = 0, tail = 0;
+                queue[tail++] = root;
+                while (head < tail) {
+                    int next = queue[head++];
+                    if (left[next] != NIL) queue[tail++] = left[next];
+                    if (right[next] != NIL) queue[tail++] = right[next];
+                    appendKey(sb, next);
+                    if (head < tail) sb.append(", ");
+                }
+            }
+            return sb.append(" ]").toString();
+        }
+
+        public String toString() {
+            return "level order: " + this.toLevelOrderString() +
+                    "\nin order: " + this.toInOrderString();
+        }
+
+        /**
+         * Checks the red-black tree properties and parent indexes of the slots
+         * reachable from the root. Used by the tests of the subclasses.
+         * @return true when all properties hold
+         */
+        protected boolean isValidRedBlackTree() {
+            if (root == NIL) return size == 0;
+            return blackHeight[root] == 1 && parent[root] == NIL && blackHeightOf(root) > 0
+                    && countSlots(root) == size;
+        }
+
+        private int blackHeightOf(int slot) {
+            if (slot == NIL) return 1;
+            for (int child : new int[] { left[slot], right[slot] }) {
+                if (child == NIL) continue;
+                if (parent[child] != slot) return -1;
+                if (blackHeight[slot] == 0 && blackHeight[child] == 0) return -1;
+            }
+            int leftHeight = blackHeightOf(left[slot]);
+            int rightHeight = blackHeightOf(right[slot]);
+            if (leftHeight < 0 || leftHeight != rightHeight) return -1;
+            return leftHeight + blackHeight[slot];
+        }
+
+        private int countSlots(int slot) {
+            return slot == NIL ? 0 : 1 + countSlots(left[slot]) + countSlots(right[slot]);
+        }
+    }
@@ -1,5 +1,28 @@
 
-    import java.util.LinkedList;
+    import java.io.IOException;
+    import java.nio.file.Path;
+    import java.util.AbstractSet;
+    import java.util.ArrayDeque;
+    import java.util.ArrayList;
+    import java.util.Arrays;
+    import java.util.Collection;
+    import java.util.Collections;
+    import java.util.Comparator;
+    import java.util.ConcurrentModificationException;
+    import java.util.Iterator;
+    import java.util.List;
+    import java.util.NavigableSet;
+    import java.util.NoSuchElementException;
+    import java.util.Objects;
+    import java.util.Spliterator;
+    import java.util.concurrent.ForkJoinPool;
+    import java.util.concurrent.RecursiveTask;
+    import java.util.function.BiFunction;
+    import java.util.function.BinaryOperator;
+    import java.util.function.Consumer;
+    import java.util.function.Function;
+    import java.util.stream.Stream;
+    import java.util.stream.StreamSupport;
     import static org.junit.jupiter.api.Assertions.*;
     import org.junit.jupiter.api.Test;
 
@@ -11,8 +34,14 @@
      * search tree insert algorithm. You can use this class' insert method to build
      * a regular binary search tree, and its toString method to display a level-order
      * traversal of the tree.
+     * The tree implements java.util.NavigableSet, so it can also be used as a
+     * sorted set with floor/ceiling lookups and lazy range views.
+     * Values are ordered by their natural ordering, or by the Comparator the
+     * tree was created with. Under natural ordering, trees of Integer, Long,
+     * String and SortPrefixed values compare them without calling compareTo
+     * through the Comparable interface, see compare.
      */
-    public class RedBlackTree<T extends Comparable<T>> {
+    public class RedBlackTree<T extends Comparable<T>> extends AbstractSet<T> implements NavigableSet<T> {
 
         /**
          * This class represents a node holding a single value within a binary tree
@@ -35,13 +64,135 @@
 
         }
 
+        /**
+         * Values whose natural ordering starts with a long: a.sortPrefix() <
+         * b.sortPrefix() must imply a.compareTo(b) < 0. A naturally ordered tree
+         * of such values compares the prefixes as primitives and only calls
+         * compareTo when they are equal.
+         */
+        public interface SortPrefixed {
+            long sortPrefix();
+        }
+
+        // how compare orders the values, chosen once per tree
+        private static final int KEY_UNKNOWN = 0, KEY_COMPARABLE = 1, KEY_COMPARATOR = 2,
+                KEY_INTEGER = 3, KEY_LONG = 4, KEY_STRING = 5, KEY_PREFIXED = 6;
+
+        private Comparator<? super T> comparator; // null for the natural ordering, set while empty
+        private int keyKind; // one of the KEY_ constants, picked at the first comparison (racing readers pick the same)
+
         protected Node<T> root; // reference to root node of tree, null when empty
         protected int size = 0; // the number of values in the tree
+        protected int modCount = 0; // number of structural changes, lets iterators fail fast
+        private Node<T> finger; // node of the last insertNearFinger, null when unknown
+        private TreeMetrics metrics; // null unless enableMetrics was called
+        private int lastDepth; // depth at which the last descent ended, kept while metrics are enabled
+        private int matches; // values found in both parts while this tree is the workspace of a set operation
+
+        /**
+         * Creates an empty tree ordered by the natural ordering of its values.
+         * Use withComparator for any other ordering.
+         */
+        public RedBlackTree() {
+        }
+
+        /**
+         * Creates an empty tree ordered by comparator.
+         * @param comparator the ordering of the values, null for their natural
+         *      ordering
+         */
+        public static <T extends Comparable<T>> RedBlackTree<T> withComparator(Comparator<? super T> comparator) {
+            RedBlackTree<T> tree = new RedBlackTree<>();
+            tree.setComparator(comparator);
+            return tree;
+        }
+
+        /**
+         * Orders this empty tree by comparator. The tree classes have a single
+         * constructor without arguments, their factory methods set the ordering
+         * through here before the tree is handed out.
+         * @param comparator the ordering of the values, null for their natural
+         *      ordering
+         * @throws IllegalStateException when the tree already holds values
+         */
+        protected final void setComparator(Comparator<? super T> comparator) throws IllegalStateException {
+            if (root != null) throw new IllegalStateException(
+                    "The ordering of a RedBlackTree cannot change once it holds values.");
+            this.comparator = comparator;
+            this.keyKind = comparator == null ? KEY_UNKNOWN : KEY_COMPARATOR;
+        }
+
+        /**
+         * Compares two values in the order of this tree. Every search of the tree
+         * goes through here. Under natural ordering the kind of the values is
+         * looked up at the first comparison: Integer, Long and String values are
+         * then compared through their final classes (so the comparison can be
+         * inlined no matter how many other key types use RedBlackTree), and
+         * SortPrefixed values by their prefixes first.
+         * @return a negative number, zero or a positive number when a is smaller
+         *      than, equal to or greater than b
+         */
+        protected final int compare(T a, T b) {
+            if (metrics != null) metrics.comparisons.increment();
+            return compareValues(a, b);
+        }
+
+        private int compareValues(T a, T b) {
+            switch (keyKind) {
+                case KEY_INTEGER:
+                    return Integer.compare((Integer) a, (Integer) b);
+                case KEY_LONG:
+                    return Long.compare((Long) a, (Long) b);
+                case KEY_STRING:
+                    return ((String) a).compareTo((String) b);
+                case KEY_PREFIXED:
+                    if (a instanceof SortPrefixed && b instanceof SortPrefixed) {
+                        long prefixA = ((SortPrefixed) a).sortPrefix();
+                        long prefixB = ((SortPrefixed) b).sortPrefix();
+                        if (prefixA != prefixB) return prefixA < prefixB ? -1 : 1;
+                    }
+                    return a.compareTo(b);
+                case KEY_COMPARATOR:
+                    return comparator.compare(a, b);
+                case KEY_UNKNOWN:
+                    int kind = keyKindOf(a);
+                    // values of different kinds are left to compareTo, which rejects
+                    // them, before they can fix the kind of this tree
+                    if (kind != keyKindOf(b)) return a.compareTo(b);
+                    keyKind = kind;
+                    return compareValues(a, b);
+                default:
+                    return a.compareTo(b);
+            }
+        }
+
+        private static int keyKindOf(Object value) {
+            return value instanceof Integer ? KEY_INTEGER
+                    : value instanceof Long ? KEY_LONG
+                    : value instanceof String ? KEY_STRING
+                    : value instanceof SortPrefixed ? KEY_PREFIXED
+                    : KEY_COMPARABLE;
+        }
+
+        /**
+         * Creates the tree that split, join and the set operations move the nodes
+         * of this tree into. Subclasses that keep state of their own in the tree
+         * or in its nodes override this to return an empty tree of their class,
+         * or to throw UnsupportedOperationException when the nodes cannot be
+         * moved without losing that state; the operations call it before they
+         * take any node out of their input trees.
+         * @return a new empty tree with the same ordering as this tree
+         * @throws UnsupportedOperationException when the nodes of this tree
+         *      cannot be moved to another tree
+         */
+        protected RedBlackTree<T> emptyCopy() throws UnsupportedOperationException {
+            return RedBlackTree.<T>withComparator(comparator);
+        }
 
         /**
-         * Performs a naive insertion into a binary search tree: adding the input
-         * data value to a new node in a leaf position within the tree. After
-         * this insertion, no attempt is made to restructure or balance the tree.
+         * Inserts the input data value into a new red leaf node and then restores
+         * the red-black tree properties. The position of the new leaf is found with
+         * a loop-based descent from the root, so no call frame is used per level.
          * This tree will not hold null references, nor duplicate data values.
          * @param data to be added into this binary search tree
          * @return true if the value was inserted, false if not
@@ -50,60 +201,286 @@
          *      equal data references
          */
         public boolean insert(T data) throws NullPointerException, IllegalArgumentException {
+            if (!tryInsert(data)) throw new IllegalArgumentException(
+                    "This RedBlackTree already contains that value.");
+            return true;
+        }
+
+        /**
+         * Inserts the input data value unless an equal value is already stored.
+         * Unlike insert, a duplicate is reported through the return value instead
+         * of an exception, and no node is allocated for it.
+         * @param data to be added into this tree
+         * @return true if the value was inserted, false if an equal value is
+         *      already stored in this tree
+         * @throws NullPointerException when the provided data argument is null
+         */
+        public boolean tryInsert(T data) throws NullPointerException {
+            int sizeBefore = size;
+            findOrInsert(data, null);
+            return size != sizeBefore;
+        }
+
+        /**
+         * Returns the value stored in this tree that is equal to data, inserting
+         * data first when there is none. Both cases take a single descent from
+         * the root.
+         * @param data the value to look up or insert
+         * @return the stored value equal to data (data itself when it was inserted)
+         * @throws NullPointerException when the provided data argument is null
+         */
+        public T insertOrGet(T data) throws NullPointerException {
+            return findOrInsert(data, null).data;
+        }
+
+        /**
+         * Returns the value stored in this tree that is equal to probe. When there
+         * is none, the value computed by factory from probe is inserted and
+         * returned. The factory is only called when the value is absent, after the
+         * descent found its position, so the tree is still searched once.
+         * @param probe the value to look up
+         * @param factory creates the value to insert, which must be equal to probe
+         * @return the stored value equal to probe
+         * @throws NullPointerException when probe or the computed value is null
+         * @throws IllegalArgumentException when the computed value is not equal
+         *      to probe
+         */
+        public T computeIfAbsent(T probe, Function<? super T, ? extends T> factory)
+                throws NullPointerException, IllegalArgumentException {
+            if (factory == null) throw new NullPointerException("The factory cannot be null.");
+            return findOrInsert(probe, factory).data;
+        }
+
+        /**
+         * Creates the node that holds a newly inserted value. Subclasses that
+         * need to keep more state per node return a subclass of Node here.
+         * @param data the value of the node
+         * @return a new red node without children
+         */
+        protected Node<T> newNode(T data) {
+            return new Node<>(data);
+        }
+
+        /**
+         * Recomputes the state that a subclass derives for node from node itself
+         * and its children, like the subtree sizes. Called on both nodes of every
+         * rotation, lower node first. Does nothing unless overridden.
+         */
+        protected void updateAugment(Node<T> node) {
+        }
+
+        /**
+         * Counts the nodes from lo to hi in order, both included, for the size of
+         * the range views. Walks from lo to hi in O(k) for k
+         * nodes; OrderStatisticTree counts them in O(log n) from its subtree
+         * sizes.
+         * @param lo the first node of the range
+         * @param hi the last node of the range, not before lo
+         * @return the number of nodes from lo to hi
+         */
+        protected int countRange(Node<T> lo, Node<T> hi) {
+            int count = 1;
+            for (Node<T> node = lo; node != hi; node = successor(node)) count++;
+            return count;
+        }
+
+        /**
+         * Called when the set of nodes below node changed by an insertion or
+         * removal, so that a subclass can update its derived state from node up
+         * to the root. Called before the fixup, whose rotations go through
+         * updateAugment. Does nothing unless overridden.
+         * @param node the lowest node whose subtree changed, may be null
+         */
+        protected void augmentPath(Node<T> node) {
+        }
+
+        /**
+         * Descends from the root to the node holding a value equal to probe. When
+         * there is none, a new node is created at the position where the descent
+         * ended, linked into the tree and the red-black tree properties are
+         * restored. Callers can tell both cases apart by comparing size before
+         * and after the call.
+         * @param probe the value to search for
+         * @param factory creates the value to insert from probe, or null to insert
+         *      probe itself
+         * @return the node holding the value equal to probe
+         * @throws NullPointerException when probe or the computed value is null
+         * @throws IllegalArgumentException when the computed value is not equal
+         *      to probe
+         */
+        protected Node<T> findOrInsert(T probe, Function<? super T, ? extends T> factory)
+                throws NullPointerException, IllegalArgumentException {
+            TreeMetrics metrics = this.metrics;
+            if (metrics == null) return descendOrInsert(probe, factory);
+            long start = System.nanoTime();
+            Node<T> node = descendOrInsert(probe, factory);
+            metrics.operation("insert", start, lastDepth, size);
+            return node;
+        }
+
+        private Node<T> descendOrInsert(T probe, Function<? super T, ? extends T> factory) {
             // null references cannot be stored within this tree
-            if(data == null) throw new NullPointerException(
+            if (probe == null) throw new NullPointerException(
                     "This RedBlackTree cannot store null references.");
 
-            Node<T> newNode = new Node<>(data);
-            if(root == null) { root = newNode; size++;
-                root.blackHeight = 1;
-                return true; } // add first node to an empty tree
-            else{
-                boolean returnValue = insertHelper(newNode,root); // recursively insert into subtree
-                if (returnValue) size++;
-                else throw new IllegalArgumentException(
-                        "This RedBlackTree already contains that value.");
-                root.blackHeight = 1;
-                return returnValue;
+            if (root == null) { // add first node to an empty tree
+                Node<T> newNode = newNode(valueFor(probe, factory));
+                newNode.blackHeight = 1;
+                root = newNode;
+                size++;
+                modCount++;
+                if (metrics != null) descended(0);
+                return newNode;
+            }
+
+            Node<T> subtree = root;
+            int depth = 0;
+            while (true) {
+                int compare = compare(probe, subtree.data);
+                // do not allow duplicate values to be stored within this tree
+                if (compare == 0) {
+                    if (metrics != null) descended(depth);
+                    return subtree;
+                }
+
+                Node<T> next = compare < 0 ? subtree.leftChild : subtree.rightChild;
+                if (next == null) { // subtree empty on that side, add here
+                    Node<T> newNode = newNode(valueFor(probe, factory));
+                    if (compare < 0) subtree.leftChild = newNode;
+                    else subtree.rightChild = newNode;
+                    newNode.parent = subtree;
+                    size++;
+                    modCount++;
+                    augmentPath(subtree);
+                    if (metrics != null) descended(depth + 1);
+                    enforceRBTreePropertiesAfterInsert(newNode);
+                    return newNode;
+                }
+                // otherwise continue the search for the location to insert
+                subtree = next;
+                depth++;
             }
         }
 
+        private void descended(int depth) {
+            lastDepth = depth;
+            metrics.descended(depth);
+        }
+
+        private T valueFor(T probe, Function<? super T, ? extends T> factory) {
+            if (factory == null) return probe;
+            T value = factory.apply(probe);
+            if (value == null) throw new NullPointerException(
+                    "This RedBlackTree cannot store null references.");
+            if (compare(value, probe) != 0) throw new IllegalArgumentException(
+                    "The computed value must be equal to the probe value.");
+            return value;
+        }
 
         /**
-         * Recursive helper method to find the subtree with a null reference in the
-         * position that the newNode should be inserted, and then extend this tree
-         * by the newNode in that position.
-         * @param newNode is the new node that is being added to this tree
-         * @param subtree is the reference to a node within this tree which the
-         *      newNode should be inserted as a descenedent beneath
-         * @return true is the value was inserted in subtree, false if not
+         * Inserts data like tryInsert, but starts the search at the node of the
+         * previous insertNearFinger call (the finger) instead of the root. When
+         * data belongs right next to the finger, as in ascending or descending
+         * streams, it is linked there after a comparison with the finger and its
+         * neighbor. Otherwise the search climbs from the finger only as far as
+         * needed to find a subtree whose range covers data, and descends from
+         * there, so keys at distance d from the finger take O(log d) comparisons.
+         * An OrderStatisticTree still updates the subtree sizes above the new
+         * node by a walk up to the root.
+         * @param data to be added into this tree
+         * @return true if the value was inserted, false if an equal value is
+         *      already stored in this tree
+         * @throws NullPointerException when the provided data argument is null
          */
-        private boolean insertHelper(Node<T> newNode, Node<T> subtree) {
-            int compare = newNode.data.compareTo(subtree.data);
-            // do not allow duplicate values to be stored within this tree
-            if(compare == 0) return false;
+        public boolean insertNearFinger(T data) throws NullPointerException {
+            if (data == null) throw new NullPointerException(
+                    "This RedBlackTree cannot store null references.");
+            Node<T> node = finger;
+            if (node == null) { // no finger yet, search from the root
+                int sizeBefore = size;
+                finger = findOrInsert(data, null);
+                return size != sizeBefore;
+            }
 
-                // store newNode within left subtree of subtree
-            else if(compare < 0) {
-                if(subtree.leftChild == null) { // left subtree empty, add here
-                    subtree.leftChild = newNode;
-                    newNode.parent = subtree;
-                    enforceRBTreePropertiesAfterInsert(newNode);
+            int compare = compare(data, node.data);
+            if (compare == 0) return false;
+            boolean greater = compare > 0;
+
+            // the common case: data belongs between the finger and its neighbor
+            if (greater ? node.rightChild == null : node.leftChild == null) {
+                // the neighbor is an ancestor: climb to it
+                Node<T> top = node;
+                while (top.parent != null && (greater ? top.parent.rightChild : top.parent.leftChild) == top) {
+                    top = top.parent;
+                }
+                Node<T> neighbor = top.parent;
+                int neighborCompare = neighbor == null ? 0 : compare(data, neighbor.data);
+                if (neighbor == null || (neighborCompare != 0 && (neighborCompare < 0) == greater)) {
+                    linkNearFinger(data, node, !greater);
+                    return true;
+                }
+                if (neighborCompare == 0) {
+                    finger = neighbor;
+                    return false;
+                }
+                node = neighbor; // data lies beyond the neighbor, continue climbing from there
+            } else {
+                // the neighbor is the innermost node of the subtree on that side
+                Node<T> neighbor = greater ? firstNode(node.rightChild) : lastNode(node.leftChild);
+                int neighborCompare = compare(data, neighbor.data);
+                if (neighborCompare == 0) {
+                    finger = neighbor;
+                    return false;
+                }
+                if ((neighborCompare < 0) == greater) {
+                    linkNearFinger(data, neighbor, greater);
                     return true;
-                    // otherwise continue recursive search for location to insert
-                } else return insertHelper(newNode, subtree.leftChild);
+                }
             }
 
-            // store newNode within the right subtree of subtree
-            else {
-                if(subtree.rightChild == null) { // right subtree empty, add here
-                    subtree.rightChild = newNode;
-                    newNode.parent = subtree;
-                    enforceRBTreePropertiesAfterInsert(newNode);
-                    return true;
-                    // otherwise continue recursive search for location to insert
-                } else return insertHelper(newNode, subtree.rightChild);
+            // climb until an ancestor bounds the subtree of node on the side of data
+            while (node.parent != null) {
+                Node<T> parent = node.parent;
+                if ((parent.leftChild == node) == greater) {
+                    compare = compare(data, parent.data);
+                    if (compare == 0) {
+                        finger = parent;
+                        return false;
+                    }
+                    if ((compare > 0) != greater) break; // data belongs in the subtree of node
+                }
+                node = parent;
+            }
+
+            // descend from node to the position of data
+            while (true) {
+                compare = compare(data, node.data);
+                if (compare == 0) {
+                    finger = node;
+                    return false;
+                }
+                Node<T> next = compare < 0 ? node.leftChild : node.rightChild;
+                if (next == null) break;
+                node = next;
             }
+            linkNearFinger(data, node, compare < 0);
+            return true;
+        }
+
+        /**
+         * Links a new node holding data as a child of parent, restores the
+         * red-black tree properties and makes the new node the finger.
+         */
+        private void linkNearFinger(T data, Node<T> parent, boolean asLeftChild) {
+            Node<T> newNode = newNode(data);
+            if (asLeftChild) parent.leftChild = newNode;
+            else parent.rightChild = newNode;
+            newNode.parent = parent;
+            size++;
+            modCount++;
+            augmentPath(parent);
+            enforceRBTreePropertiesAfterInsert(newNode);
+            finger = newNode;
         }
 
         /**
@@ -125,6 +502,7 @@
             if (child != parent.rightChild && child != parent.leftChild) {
                 throw new IllegalArgumentException("Illegal Argument Exception thrown");
             }
+            if (metrics != null) (child == parent.leftChild ? metrics.rightRotations : metrics.leftRotations).increment();
 
             // case of right rotation
              if (child == parent.leftChild) {
@@ -161,257 +539,1882 @@
                 child.parent = parent.parent;
                 child.leftChild = parent;
 
-                if (parent.parent == null) {
-                    root = child;
-                }
-                if (parent.parent != null) {
-                    if (parent.parent.leftChild == parent) {
-                        parent.parent.leftChild = child;
-                    }
-                    else {
-                        parent.parent.rightChild = child;
-                    }
-                }
-                parent.parent = child;
-            }
+                if (parent.parent == null) {
+                    root = child;
+                }
+                if (parent.parent != null) {
+                    if (parent.parent.leftChild == parent) {
+                        parent.parent.leftChild = child;
+                    }
+                    else {
+                        parent.parent.rightChild = child;
+                    }
+                }
+                parent.parent = child;
+            }
+
+            updateAugment(parent);
+            updateAugment(child);
+        }
+        /**
+         * Get the size of the tree (its number of nodes).
+         * @return the number of nodes in the tree
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Method to check if the tree is empty (does not contain any node).
+         * @return true of this.size() return 0, false if this.size() > 0
+         */
+        public boolean isEmpty() {
+            return this.size() == 0;
+        }
+
+        /**
+         * @return the number of nodes on the longest path from the root down to
+         *      a leaf, 0 for an empty tree; this visits every node
+         */
+        public int height() {
+            return heightOf(root);
+        }
+
+        private static int heightOf(Node<?> node) {
+            return node == null ? 0 : 1 + Math.max(heightOf(node.leftChild), heightOf(node.rightChild));
+        }
+
+        /**
+         * Starts collecting metrics of the work this tree does, see TreeMetrics.
+         * @return the metrics of this tree, the same object when they were
+         *      already enabled
+         */
+        public TreeMetrics enableMetrics() {
+            if (metrics == null) metrics = new TreeMetrics();
+            return metrics;
+        }
+
+        /**
+         * Stops collecting metrics. The metrics object keeps its counts.
+         */
+        public void disableMetrics() {
+            metrics = null;
+        }
+
+        /**
+         * @return the metrics of this tree, null when they are not enabled
+         */
+        public TreeMetrics metrics() {
+            return metrics;
+        }
+
+        /**
+         * Checks whether the tree contains the value *data*.
+         * @param data the data value to test for
+         * @return true if *data* is in the tree, false if it is not in the tree
+         */
+        public boolean contains(T data) {
+            // null references will not be stored within this tree
+            if(data == null) throw new NullPointerException(
+                    "This RedBlackTree cannot store null references.");
+            TreeMetrics metrics = this.metrics;
+            if (metrics == null) return this.findNode(data) != null;
+            long start = System.nanoTime();
+            boolean found = this.findNode(data) != null;
+            metrics.operation("contains", start, lastDepth, size);
+            return found;
+        }
+
+        /**
+         * Checks whether the tree contains the value o, see contains(T).
+         * @throws ClassCastException when o cannot be compared with the values of
+         *      this tree
+         */
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean contains(Object o) {
+            return contains((T) o);
+        }
+
+        /**
+         * Adds data to this tree unless an equal value is already stored. Unlike
+         * insert, a duplicate is reported by the return value and not by an
+         * exception.
+         * @param data to be added into this tree
+         * @return true if the value was inserted, false if it was already stored
+         * @throws NullPointerException when the provided data argument is null
+         */
+        @Override
+        public boolean add(T data) {
+            return tryInsert(data);
+        }
+
+        /**
+         * Removes all values from this tree.
+         */
+        @Override
+        public void clear() {
+            root = null;
+            size = 0;
+            finger = null;
+            modCount++;
+        }
+
+        /**
+         * Removes the value equal to data from this tree and restores the
+         * red-black tree properties, in O(log n).
+         * @param data the value to remove
+         * @return true if the value was removed, false if it was not in the tree
+         * @throws NullPointerException when the provided data argument is null
+         */
+        public boolean remove(T data) {
+            if(data == null) throw new NullPointerException(
+                    "This RedBlackTree cannot store null references.");
+            TreeMetrics metrics = this.metrics;
+            long start = metrics == null ? 0 : System.nanoTime();
+            Node<T> node = findNode(data);
+            if (node != null) removeNode(node);
+            if (metrics != null) metrics.operation("remove", start, lastDepth, size);
+            return node != null;
+        }
+
+        /**
+         * Removes the value o from this tree, see remove(T).
+         * @throws ClassCastException when o cannot be compared with the values of
+         *      this tree
+         */
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean remove(Object o) {
+            return remove((T) o);
+        }
+
+        /**
+         * Unlinks node from this tree. A node with two children is replaced by its
+         * successor node (the node itself is moved, values are never copied
+         * between nodes, so references to other nodes stay valid). When the node
+         * that left its position was black, the delete fixup restores the
+         * red-black tree properties with recolorings and at most three rotations.
+         * The unlinked node's references are cleared so that it does not keep
+         * other nodes reachable.
+         * @param node the node to remove, it must be part of this tree
+         */
+        protected void removeNode(Node<T> node) {
+            if (node == finger) finger = null;
+            Node<T> moved = node; // the node that leaves its position in the tree
+            int movedColor = moved.blackHeight;
+            Node<T> replacement; // the node taking the position moved left, may be null
+            Node<T> replacementParent;
+
+            if (node.leftChild == null || node.rightChild == null) {
+                replacement = node.leftChild != null ? node.leftChild : node.rightChild;
+                replacementParent = node.parent;
+                transplant(node, replacement);
+            } else {
+                moved = firstNode(node.rightChild);
+                movedColor = moved.blackHeight;
+                replacement = moved.rightChild;
+                if (moved.parent == node) {
+                    replacementParent = moved;
+                } else {
+                    replacementParent = moved.parent;
+                    transplant(moved, moved.rightChild);
+                    moved.rightChild = node.rightChild;
+                    moved.rightChild.parent = moved;
+                }
+                transplant(node, moved);
+                moved.leftChild = node.leftChild;
+                moved.leftChild.parent = moved;
+                moved.blackHeight = node.blackHeight;
+            }
+
+            augmentPath(replacementParent);
+            if (movedColor == 1) enforceRBTreePropertiesAfterRemove(replacement, replacementParent);
+            node.parent = node.leftChild = node.rightChild = null;
+            size--;
+            modCount++;
+        }
+
+        /**
+         * Replaces the subtree rooted at node by the subtree rooted at replacement
+         * (which may be null) in the eyes of node's parent.
+         */
+        private void transplant(Node<T> node, Node<T> replacement) {
+            if (node.parent == null) root = replacement;
+            else if (node.parent.leftChild == node) node.parent.leftChild = replacement;
+            else node.parent.rightChild = replacement;
+            if (replacement != null) replacement.parent = node.parent;
+        }
+
+        /**
+         * Resolves the missing black node on the paths through node after a black
+         * node was removed from above it. node may be null (an empty leaf
+         * position), so its parent is passed separately.
+         * @param node the node that took the position of the removed black node
+         * @param parent the parent of that position
+         */
+        protected void enforceRBTreePropertiesAfterRemove(Node<T> node, Node<T> parent) {
+            while (node != root && isBlack(node)) {
+                boolean nodeIsLeft = parent.leftChild == node;
+                Node<T> sibling = nodeIsLeft ? parent.rightChild : parent.leftChild;
+
+                //case 1 - red sibling: rotate it above the parent so that the new
+                //sibling is black.
+                if (sibling.blackHeight == 0) {
+                    sibling.blackHeight = 1;
+                    parent.blackHeight = 0;
+                    rotate(sibling, parent);
+                    sibling = nodeIsLeft ? parent.rightChild : parent.leftChild;
+                }
+
+                Node<T> near = nodeIsLeft ? sibling.leftChild : sibling.rightChild;
+                Node<T> far = nodeIsLeft ? sibling.rightChild : sibling.leftChild;
+                //case 2 - black sibling with black children: recolor the sibling and
+                //move the missing black up to the parent.
+                if (isBlack(near) && isBlack(far)) {
+                    sibling.blackHeight = 0;
+                    node = parent;
+                    parent = node.parent;
+                    continue;
+                }
+
+                //case 3 - black sibling with a red near child: rotate the near child
+                //above the sibling, which turns it into case 4.
+                if (isBlack(far)) {
+                    near.blackHeight = 1;
+                    sibling.blackHeight = 0;
+                    rotate(near, sibling);
+                    far = sibling;
+                    sibling = near;
+                }
+
+                //case 4 - black sibling with a red far child: rotate the sibling
+                //above the parent, which adds the missing black.
+                sibling.blackHeight = parent.blackHeight;
+                parent.blackHeight = 1;
+                far.blackHeight = 1;
+                rotate(sibling, parent);
+                node = root;
+                break;
+            }
+            if (node != null) node.blackHeight = 1;
+        }
+
+        private static boolean isBlack(Node<?> node) {
+            return node == null || node.blackHeight == 1;
+        }
+
+        /**
+         * Iterative helper method that walks down the tree and looks for the
+         * node holding the value *data*.
+         * @param data the data value to look for
+         * @return the node holding a value equal to data, or null if there is none
+         */
+        protected Node<T> findNode(T data) {
+            Node<T> subtree = root;
+            int depth = 0;
+            while (subtree != null) {
+                int compare = compare(data, subtree.data);
+                if (compare == 0) break; // we found it :)
+                subtree = compare < 0 ? subtree.leftChild : subtree.rightChild; // go left or right in the tree
+                depth++;
+            }
+            // subtree is null when we are at a null child, value is not in tree
+            if (metrics != null) descended(depth);
+            return subtree;
+        }
+
+
+        /**
+         * Builds a tree from values that are sorted in ascending order, in linear
+         * time and without any rotation. Equal neighbouring values are stored once.
+         * @param values sorted values to store in the new tree
+         * @return a new tree holding the distinct values
+         * @throws NullPointerException when values holds a null reference
+         * @throws IllegalArgumentException when values is not sorted
+         */
+        public static <T extends Comparable<T>> RedBlackTree<T> fromSorted(T[] values) {
+            return fromSorted(Arrays.asList(values).iterator());
+        }
+
+        /**
+         * Builds a tree from a list sorted in ascending order, see fromSorted(T[]).
+         */
+        public static <T extends Comparable<T>> RedBlackTree<T> fromSorted(List<? extends T> values) {
+            return fromSorted(values.iterator());
+        }
+
+        /**
+         * Builds a tree from an iterator returning values in ascending order, see
+         * fromSorted(T[]).
+         */
+        public static <T extends Comparable<T>> RedBlackTree<T> fromSorted(Iterator<? extends T> values) {
+            RedBlackTree<T> tree = new RedBlackTree<>();
+            tree.insertAllSorted(values);
+            return tree;
+        }
+
+        /**
+         * Writes the nodes of this tree with their colors to a snapshot file that
+         * loadSnapshot reads back without comparisons or rotations, see
+         * RedBlackTreeSnapshot.
+         * @param file the snapshot file, replaced once the snapshot is complete
+         * @param codec the binary format of the values
+         * @throws IOException when the snapshot cannot be written
+         */
+        public void writeSnapshot(Path file, KeyCodec<? super T> codec) throws IOException {
+            RedBlackTreeSnapshot.write(this, file, codec);
+        }
+
+        /**
+         * Loads a snapshot written by writeSnapshot into a new tree ordered by the
+         * natural ordering of its values, in one pass over the memory-mapped file.
+         * @param file the snapshot file
+         * @param codec the binary format the values were written in
+         * @return a new tree with the nodes and colors of the snapshot
+         * @throws IOException when file cannot be read, or is not a complete
+         *      snapshot
+         */
+        public static <T extends Comparable<T>> RedBlackTree<T> loadSnapshot(Path file, KeyCodec<T> codec)
+                throws IOException {
+            return RedBlackTreeSnapshot.load(file, codec);
+        }
+
+        /**
+         * Adds values that are sorted in ascending order to this tree, see
+         * insertAllSorted(Iterator).
+         */
+        public int insertAllSorted(T[] values) {
+            return insertAllSorted(Arrays.asList(values).iterator());
+        }
+
+        /**
+         * Adds values that are sorted in ascending order to this tree, see
+         * insertAllSorted(Iterator).
+         */
+        public int insertAllSorted(List<? extends T> values) {
+            return insertAllSorted(values.iterator());
+        }
+
+        /**
+         * Adds values that are sorted in ascending order to this tree. The values
+         * are merged with the in-order sequence of the nodes already in the tree,
+         * and the tree is rebuilt from the merged sequence in O(n + m), instead of
+         * descending from the root once per value. Values that are already stored
+         * (or repeated in the input) are skipped, so duplicates never throw.
+         * The tree is left unchanged when an exception is thrown.
+         * @param values sorted values to add to this tree
+         * @return the number of values that were added
+         * @throws NullPointerException when values returns a null reference
+         * @throws IllegalArgumentException when values is not sorted
+         */
+        public int insertAllSorted(Iterator<? extends T> values)
+                throws NullPointerException, IllegalArgumentException {
+            List<Node<T>> merged = new ArrayList<>(size);
+            Node<T> existing = firstNode(root);
+            T previous = null;
+            while (values.hasNext()) {
+                T value = values.next();
+                if (value == null) throw new NullPointerException(
+                        "This RedBlackTree cannot store null references.");
+                if (previous != null) {
+                    int compare = compare(value, previous);
+                    if (compare < 0) throw new IllegalArgumentException(
+                            "The values are not sorted in ascending order.");
+                    if (compare == 0) continue; // repeated in the input
+                }
+                previous = value;
+                int compare = -1;
+                while (existing != null && (compare = compare(existing.data, value)) < 0) {
+                    merged.add(existing);
+                    existing = successor(existing);
+                }
+                if (existing != null && compare == 0) continue; // already in this tree
+                merged.add(newNode(value));
+            }
+            for (; existing != null; existing = successor(existing)) merged.add(existing);
+
+            int added = merged.size() - size;
+            if (added == 0) return 0;
+            root = buildFromSorted(merged, 0, merged.size() - 1, 0, redLevel(merged.size()), null);
+            size = merged.size();
+            modCount++;
+            return added;
+        }
+
+        /**
+         * Adds the values of an unsorted batch to this tree. The batch is sorted
+         * with Arrays.parallelSort, which splits it across the common
+         * ForkJoinPool, and then merged into the tree by insertAllSorted in
+         * O(n + m), instead of descending from the root once per value. Repeated
+         * values and values that are already stored are skipped.
+         * The tree is left unchanged when an exception is thrown.
+         * @param values the values to add, in any order
+         * @return the number of values that were added
+         * @throws NullPointerException when values holds a null reference
+         */
+        @SuppressWarnings("unchecked")
+        public int insertAll(Collection<? extends T> values) throws NullPointerException {
+            Object[] batch = values.toArray();
+            for (Object value : batch) {
+                if (value == null) throw new NullPointerException(
+                        "This RedBlackTree cannot store null references.");
+            }
+            Comparator<Object> order = (a, b) -> compare((T) a, (T) b);
+            Arrays.parallelSort(batch, order);
+            return insertAllSorted((Iterator<T>) (Iterator<?>) Arrays.asList(batch).iterator());
+        }
+
+        /**
+         * @return the depth at which a tree with size nodes built by
+         *      buildFromSorted has its only incomplete level; nodes at that depth
+         *      are colored red and all others black
+         */
+        private static int redLevel(int size) {
+            return 31 - Integer.numberOfLeadingZeros(size + 1);
+        }
+
+        /**
+         * Recursively links nodes[lo..hi] into a balanced subtree whose root is the
+         * middle node. Colors are set directly from the depth of each node, and
+         * updateAugment runs on every node once its children are linked.
+         * @param nodes the nodes to link, in ascending order of their data
+         * @param lo index of the first node of the subtree
+         * @param hi index of the last node of the subtree
+         * @param depth depth of the subtree's root within the tree
+         * @param redLevel depth of the nodes that are colored red
+         * @param parent the parent of the subtree's root
+         * @return the root of the subtree, null when lo > hi
+         */
+        private Node<T> buildFromSorted(List<Node<T>> nodes, int lo, int hi,
+                                        int depth, int redLevel, Node<T> parent) {
+            if (lo > hi) return null;
+            int middle = (lo + hi) >>> 1;
+            Node<T> node = nodes.get(middle);
+            node.parent = parent;
+            node.leftChild = buildFromSorted(nodes, lo, middle - 1, depth + 1, redLevel, node);
+            node.rightChild = buildFromSorted(nodes, middle + 1, hi, depth + 1, redLevel, node);
+            node.blackHeight = depth == redLevel ? 0 : 1;
+            updateAugment(node);
+            return node;
+        }
+
+        // parts and subtrees of a greater black height, so of at least 2^8 - 1
+        // nodes and usually several thousand, are processed by parallel tasks
+        private static final int PARALLEL_HEIGHT = 8;
+        // a union inserts the values of a part of this black height or less (at
+        // most 7 values) instead of splitting for them
+        private static final int SMALL_UNION_HEIGHT = 1;
+
+        /**
+         * Cuts this tree in two at key, in O(log n): this tree keeps the values
+         * smaller than key and the returned tree receives the values greater than
+         * or equal to key. No node is copied or allocated, the subtrees along the
+         * search path for key are rejoined with join. The sizes of the two trees
+         * then come from countUpperPart, which walks only the smaller of the two
+         * parts, in O(min(k, n - k)) when k values move; an OrderStatisticTree
+         * reads them from its subtree sizes in O(1).
+         * @param key the value to cut at, it does not need to be stored
+         * @return a new tree holding the values of this tree from key upwards
+         * @throws NullPointerException when key is null
+         * @throws UnsupportedOperationException when this tree cannot be split,
+         *      see emptyCopy
+         */
+        public RedBlackTree<T> split(T key) throws NullPointerException {
+            if (key == null) throw new NullPointerException("This RedBlackTree cannot store null references.");
+            RedBlackTree<T> upper = emptyCopy();
+            int total = size;
+            Cut<T> cut = split(detach(), key);
+            Part<T> moved = cut.match == null ? cut.upper : join(emptyPart(), cut.match, cut.upper);
+            upper.attach(moved, 0);
+            attach(cut.lower, 0);
+            upper.size = countUpperPart(root, upper.root, total);
+            size = total - upper.size;
+            return upper;
+        }
+
+        /**
+         * Counts the nodes that split moved to the upper tree. Walks both parts in
+         * order side by side and stops at the end of the shorter one, so this
+         * takes O(min(k, n - k)) for k nodes in the upper part; OrderStatisticTree
+         * reads the size of the upper root in O(1).
+         * @param lowerRoot the root of the values left in this tree, null when none
+         * @param upperRoot the root of the values moved to the upper tree, null when none
+         * @param total the number of nodes of both parts
+         * @return the number of nodes below upperRoot
+         */
+        protected int countUpperPart(Node<T> lowerRoot, Node<T> upperRoot, int total) {
+            Node<T> lower = lowerRoot == null ? null : firstNode(lowerRoot);
+            Node<T> upper = upperRoot == null ? null : firstNode(upperRoot);
+            int steps = 0;
+            for (; lower != null && upper != null; steps++) {
+                lower = successor(lower);
+                upper = successor(upper);
+            }
+            return upper == null ? steps : total - steps;
+        }
+
+        /**
+         * Joins two trees and a key between them into a single tree in
+         * O(|black height of left - black height of right| + 1): the shorter tree
+         * is hung below the inner spine of the taller one, at the node of equal
+         * black height, and the insert fixup restores the red-black tree
+         * properties from there. The nodes of left and right are reused, so both
+         * trees are empty afterwards.
+         * @param left the tree holding the values smaller than key
+         * @param key the value between left and right
+         * @param right the tree holding the values greater than key
+         * @return a new tree holding the values of left, key and the values of right
+         * @throws NullPointerException when an argument is null
+         * @throws IllegalArgumentException when the values of left are not all
+         *      smaller than key, or the values of right are not all greater than key
+         * @throws UnsupportedOperationException when left or right cannot be
+         *      joined, see emptyCopy
+         */
+        public static <T extends Comparable<T>> RedBlackTree<T> join(RedBlackTree<T> left, T key,
+                RedBlackTree<T> right) throws NullPointerException, IllegalArgumentException {
+            if (key == null) throw new NullPointerException("This RedBlackTree cannot store null references.");
+            if (left == right) throw new IllegalArgumentException("Cannot join a RedBlackTree with itself.");
+            if (!Objects.equals(left.comparator, right.comparator)) throw new IllegalArgumentException(
+                    "Cannot join RedBlackTrees with different orderings.");
+            if ((!left.isEmpty() && left.compare(left.last(), key) >= 0)
+                    || (!right.isEmpty() && left.compare(right.first(), key) <= 0)) throw new IllegalArgumentException(
+                    "The values of left must be smaller and those of right greater than key.");
+            RedBlackTree<T> joined = left.emptyCopy();
+            right.emptyCopy(); // rejects a right tree whose nodes cannot be moved either
+            if (left.getClass() != right.getClass()) throw new IllegalArgumentException(
+                    "Cannot join RedBlackTrees of different classes.");
+            int joinedSize = left.size + right.size + 1;
+            joined.attach(joined.join(left.detach(), joined.newNode(key), right.detach()), joinedSize);
+            return joined;
+        }
+
+        /**
+         * Returns the union of a and b: every value of a or b, in
+         * O(m log(n / m + 1)) for trees of sizes m <= n. The smaller subproblems
+         * run in parallel on the common ForkJoinPool. The nodes of a and b are
+         * reused, so both trees are empty afterwards.
+         * @throws IllegalArgumentException when a and b are the same tree
+         * @throws UnsupportedOperationException when a or b cannot be combined,
+         *      see emptyCopy
+         */
+        public static <T extends Comparable<T>> RedBlackTree<T> union(RedBlackTree<T> a, RedBlackTree<T> b)
+                throws IllegalArgumentException {
+            return combine(SetOperation.UNION, a, b);
+        }
+
+        /**
+         * Returns the intersection of a and b: the values that are in both trees,
+         * in O(m log(n / m + 1)), see union. Both trees are empty afterwards.
+         * @throws IllegalArgumentException when a and b are the same tree
+         * @throws UnsupportedOperationException when a or b cannot be combined,
+         *      see emptyCopy
+         */
+        public static <T extends Comparable<T>> RedBlackTree<T> intersection(RedBlackTree<T> a,
+                RedBlackTree<T> b) throws IllegalArgumentException {
+            return combine(SetOperation.INTERSECTION, a, b);
+        }
+
+        /**
+         * Returns the difference of a and b: the values of a that are not in b,
+         * in O(m log(n / m + 1)), see union. Both trees are empty afterwards.
+         * @throws IllegalArgumentException when a and b are the same tree
+         * @throws UnsupportedOperationException when a or b cannot be combined,
+         *      see emptyCopy
+         */
+        public static <T extends Comparable<T>> RedBlackTree<T> difference(RedBlackTree<T> a,
+                RedBlackTree<T> b) throws IllegalArgumentException {
+            return combine(SetOperation.DIFFERENCE, a, b);
+        }
+
+        private static <T extends Comparable<T>> RedBlackTree<T> combine(int operation, RedBlackTree<T> a,
+                RedBlackTree<T> b) {
+            if (a == b) throw new IllegalArgumentException("Cannot combine a RedBlackTree with itself.");
+            if (!Objects.equals(a.comparator, b.comparator)) throw new IllegalArgumentException(
+                    "Cannot combine RedBlackTrees with different orderings.");
+            RedBlackTree<T> result = a.emptyCopy();
+            b.emptyCopy(); // rejects a tree b whose nodes cannot be moved either
+            if (a.getClass() != b.getClass()) throw new IllegalArgumentException(
+                    "Cannot combine RedBlackTrees of different classes.");
+            int sizeA = a.size;
+            int sizeB = b.size;
+            Part<T> first = a.detach();
+            Part<T> second = b.detach();
+            Part<T> part;
+            int matches;
+            if (Math.max(first.blackHeight, second.blackHeight) > PARALLEL_HEIGHT) {
+                SetOperation<T> task = new SetOperation<>(result, operation, first, second);
+                part = ForkJoinPool.commonPool().invoke(task);
+                matches = task.matches;
+            } else {
+                part = result.combine(operation, first, second);
+                matches = result.matches;
+                result.matches = 0;
+            }
+            // every value that is in both trees was counted once as a match
+            result.attach(part, operation == SetOperation.UNION ? sizeA + sizeB - matches
+                    : operation == SetOperation.INTERSECTION ? matches : sizeA - matches);
+            return result;
+        }
+
+        /**
+         * A subtree that is not (or no longer) part of a tree, together with its
+         * black height: the number of black nodes on every path from its root down
+         * to a missing child, counting the root only when it is black.
+         */
+        private static final class Part<T> {
+            static final Part<?> EMPTY = new Part<>(null, 0);
+            final Node<T> root; // null when empty
+            final int blackHeight;
+            Part(Node<T> root, int blackHeight) {
+                this.root = root;
+                this.blackHeight = blackHeight;
+            }
+        }
+
+        /**
+         * The result of splitting a part at a key: the values below it, the node
+         * holding the key (null when there is none) and the values above it.
+         */
+        private static final class Cut<T> {
+            final Part<T> lower;
+            final Node<T> match;
+            final Part<T> upper;
+            Cut(Part<T> lower, Node<T> match, Part<T> upper) {
+                this.lower = lower;
+                this.match = match;
+                this.upper = upper;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> Part<T> emptyPart() {
+            return (Part<T>) Part.EMPTY;
+        }
+
+        /**
+         * @return the number of black nodes on every path from the root down to a
+         *      missing child
+         */
+        private int blackHeight() {
+            int blackHeight = 0;
+            for (Node<T> node = root; node != null; node = node.leftChild) blackHeight += node.blackHeight;
+            return blackHeight;
+        }
+
+        /**
+         * Takes all nodes out of this tree, leaving it empty.
+         * @return the former root of this tree and its black height
+         */
+        private Part<T> detach() {
+            Part<T> part = new Part<>(root, blackHeight());
+            root = null;
+            size = 0;
+            finger = null; // the nodes may end up in another tree
+            modCount++;
+            return part;
+        }
+
+        /**
+         * Makes the nodes of part the content of this tree.
+         * @param partSize the number of nodes of part
+         */
+        private void attach(Part<T> part, int partSize) {
+            root = part.root;
+            if (root != null) {
+                root.parent = null;
+                root.blackHeight = 1; // the root is always black
+            }
+            size = partSize;
+            modCount++;
+        }
+
+        /**
+         * Detaches a child subtree from its parent node.
+         * @param parentHeight the black height of the parent's part
+         */
+        private static <T> Part<T> childPart(Node<T> child, Node<T> parent, int parentHeight) {
+            if (child != null) child.parent = null;
+            return new Part<>(child, parentHeight - parent.blackHeight);
+        }
+
+        /**
+         * Links left, key and right into one part, see join(RedBlackTree, T,
+         * RedBlackTree). All values of left must be smaller than the value of key
+         * and all values of right greater. This tree must be empty, its root is
+         * only used while the fixup rotates the joined nodes.
+         */
+        private Part<T> join(Part<T> left, Node<T> key, Part<T> right) {
+            Node<T> leftRoot = left.root;
+            Node<T> rightRoot = right.root;
+            int leftHeight = left.blackHeight;
+            int rightHeight = right.blackHeight;
+            // color both roots black, so that key only ever gets a black parent or
+            // a parent whose red-red violation the insert fixup can resolve
+            if (leftRoot != null && leftRoot.blackHeight == 0) {
+                leftRoot.blackHeight = 1;
+                leftHeight++;
+            }
+            if (rightRoot != null && rightRoot.blackHeight == 0) {
+                rightRoot.blackHeight = 1;
+                rightHeight++;
+            }
+
+            key.parent = null;
+            if (leftHeight == rightHeight) { // key becomes the black root
+                link(key, leftRoot, rightRoot);
+                key.blackHeight = 1;
+                return new Part<>(key, leftHeight + 1);
+            }
+
+            boolean leftIsTaller = leftHeight > rightHeight;
+            Node<T> tallRoot = leftIsTaller ? leftRoot : rightRoot;
+            Node<T> shortRoot = leftIsTaller ? rightRoot : leftRoot;
+            int shortHeight = Math.min(leftHeight, rightHeight);
+
+            // descend the inner spine of the taller tree to the first black node
+            // (or missing child) with the black height of the shorter tree
+            Node<T> parent = null;
+            Node<T> node = tallRoot;
+            int height = Math.max(leftHeight, rightHeight);
+            while (height > shortHeight || (node != null && node.blackHeight == 0)) {
+                height -= node.blackHeight;
+                parent = node;
+                node = leftIsTaller ? node.rightChild : node.leftChild;
+            }
+
+            // replace node by the red key, with node and the shorter tree as children
+            key.blackHeight = 0;
+            key.parent = parent;
+            if (leftIsTaller) {
+                parent.rightChild = key;
+                link(key, node, shortRoot);
+            } else {
+                parent.leftChild = key;
+                link(key, shortRoot, node);
+            }
+            augmentPath(parent); // key and the shorter tree are now below the spine
+
+            root = tallRoot; // lets rotate replace the root during the fixup
+            resolveRedViolation(key);
+            Node<T> joined = root;
+            root = null;
+            height = Math.max(leftHeight, rightHeight);
+            if (joined.blackHeight == 0) { // the fixup pushed a red up to the root
+                joined.blackHeight = 1;
+                height++;
+            }
+            return new Part<>(joined, height);
+        }
+
+        /**
+         * Makes left and right the children of node and updates its augment.
+         */
+        private void link(Node<T> node, Node<T> left, Node<T> right) {
+            node.leftChild = left;
+            node.rightChild = right;
+            if (left != null) left.parent = node;
+            if (right != null) right.parent = node;
+            updateAugment(node);
+        }
+
+        /**
+         * Joins two parts without a key between them, by taking the largest node
+         * of left as the key.
+         */
+        private Part<T> join(Part<T> left, Part<T> right) {
+            if (left.root == null) return right;
+            if (right.root == null) return left;
+            Cut<T> last = splitLast(left);
+            return join(last.lower, last.match, right);
+        }
+
+        /**
+         * Splits the largest node off a non-empty part.
+         */
+        private Cut<T> splitLast(Part<T> part) {
+            Node<T> node = part.root;
+            Part<T> left = childPart(node.leftChild, node, part.blackHeight);
+            if (node.rightChild == null) return new Cut<>(left, node, emptyPart());
+            Cut<T> cut = splitLast(childPart(node.rightChild, node, part.blackHeight));
+            return new Cut<>(join(left, node, cut.lower), cut.match, emptyPart());
+        }
+
+        /**
+         * Splits a part at key by cutting the nodes on the search path for key
+         * loose and joining each of them with the subtrees that end up on its
+         * side. The black heights of these joins telescope, so this is O(log n).
+         */
+        private Cut<T> split(Part<T> part, T key) {
+            Node<T> node = part.root;
+            if (node == null) return new Cut<>(part, null, part);
+            Part<T> left = childPart(node.leftChild, node, part.blackHeight);
+            Part<T> right = childPart(node.rightChild, node, part.blackHeight);
+            int compare = compare(key, node.data);
+            if (compare == 0) return new Cut<>(left, node, right);
+            if (compare < 0) {
+                Cut<T> cut = split(left, key);
+                return new Cut<>(cut.lower, cut.match, join(cut.upper, node, right));
+            }
+            Cut<T> cut = split(right, key);
+            return new Cut<>(join(left, node, cut.lower), cut.match, cut.upper);
+        }
+
+        /**
+         * Union, intersection or difference of two parts. The root of one part
+         * splits the other, both halves are combined recursively and joined
+         * again. This tree must be empty, it is the workspace of the joins.
+         */
+        private Part<T> combine(int operation, Part<T> a, Part<T> b) {
+            if (a.root == null) return operation == SetOperation.UNION ? b : a;
+            if (b.root == null) return operation == SetOperation.INTERSECTION ? b : a;
+            if (operation == SetOperation.UNION && b.blackHeight <= SMALL_UNION_HEIGHT) {
+                // a few values are cheaper to insert than to split and join for
+                List<Node<T>> nodes = new ArrayList<>();
+                for (Node<T> node = firstNode(b.root); node != null; node = successor(node)) nodes.add(node);
+                for (Node<T> node : nodes) a = insertNode(a, node);
+                return a;
+            }
+            Halves<T> halves = new Halves<>(this, operation, a, b);
+            return halves.joinResults(combine(operation, halves.lowerA, halves.lowerB),
+                    combine(operation, halves.upperA, halves.upperB));
+        }
+
+        /**
+         * Links node into part as a red leaf, or leaves part unchanged when it
+         * already holds an equal value. This tree must be empty, its root is only
+         * used while the fixup rotates the nodes of part.
+         * @return the part including node
+         */
+        private Part<T> insertNode(Part<T> part, Node<T> node) {
+            Node<T> top = part.root;
+            int height = part.blackHeight;
+            node.leftChild = null;
+            node.rightChild = null;
+            updateAugment(node);
+            if (top == null) {
+                node.parent = null;
+                node.blackHeight = 1;
+                return new Part<>(node, 1);
+            }
+            if (top.blackHeight == 0) {
+                top.blackHeight = 1;
+                height++;
+            }
+
+            Node<T> subtree = top;
+            while (true) {
+                int compare = compare(node.data, subtree.data);
+                if (compare == 0) {
+                    matches++;
+                    return new Part<>(top, height);
+                }
+                Node<T> next = compare < 0 ? subtree.leftChild : subtree.rightChild;
+                if (next == null) {
+                    if (compare < 0) subtree.leftChild = node;
+                    else subtree.rightChild = node;
+                    break;
+                }
+                subtree = next;
+            }
+            node.parent = subtree;
+            node.blackHeight = 0;
+            augmentPath(subtree);
+
+            root = top; // lets rotate replace the root during the fixup
+            resolveRedViolation(node);
+            Node<T> inserted = root;
+            root = null;
+            if (inserted.blackHeight == 0) { // the fixup pushed a red up to the root
+                inserted.blackHeight = 1;
+                height++;
+            }
+            return new Part<>(inserted, height);
+        }
+
+        /**
+         * One step of a set operation: the pivot (root of one part), the two
+         * pairs of parts that are combined below and above it, and whether the
+         * other part contained the pivot value.
+         */
+        private static final class Halves<T extends Comparable<T>> {
+            final RedBlackTree<T> workspace;
+            final int operation;
+            final Node<T> pivot;
+            final boolean matched;
+            final Part<T> lowerA, lowerB, upperA, upperB;
+
+            Halves(RedBlackTree<T> workspace, int operation, Part<T> a, Part<T> b) {
+                this.workspace = workspace;
+                this.operation = operation;
+                // the difference keeps values of a, so it is a that gets split
+                boolean splitA = operation == SetOperation.DIFFERENCE;
+                Part<T> pivotPart = splitA ? b : a;
+                pivot = pivotPart.root;
+                Part<T> pivotLeft = childPart(pivot.leftChild, pivot, pivotPart.blackHeight);
+                Part<T> pivotRight = childPart(pivot.rightChild, pivot, pivotPart.blackHeight);
+                Cut<T> cut = workspace.split(splitA ? a : b, pivot.data);
+                matched = cut.match != null;
+                if (matched) workspace.matches++;
+                lowerA = splitA ? cut.lower : pivotLeft;
+                lowerB = splitA ? pivotLeft : cut.lower;
+                upperA = splitA ? cut.upper : pivotRight;
+                upperB = splitA ? pivotRight : cut.upper;
+            }
+
+            Part<T> joinResults(Part<T> lower, Part<T> upper) {
+                if (operation == SetOperation.UNION || (operation == SetOperation.INTERSECTION && matched)) {
+                    return workspace.join(lower, pivot, upper);
+                }
+                return workspace.join(lower, upper);
+            }
+        }
+
+        /**
+         * A set operation on parts that are large enough to combine their halves
+         * in parallel. Each task has its own workspace tree for the joins.
+         */
+        private static final class SetOperation<T extends Comparable<T>> extends RecursiveTask<Part<T>> {
+            private static final long serialVersionUID = 1L;
+            static final int UNION = 0, INTERSECTION = 1, DIFFERENCE = 2;
+
+            private final RedBlackTree<T> ordering; // provides the comparator of the result
+            private final int operation;
+            private final Part<T> a;
+            private final Part<T> b;
+            int matches; // values found in both parts, set when the task is done
+
+            SetOperation(RedBlackTree<T> ordering, int operation, Part<T> a, Part<T> b) {
+                this.ordering = ordering;
+                this.operation = operation;
+                this.a = a;
+                this.b = b;
+            }
+
+            @Override
+            protected Part<T> compute() {
+                RedBlackTree<T> workspace = ordering.emptyCopy();
+                if (Math.max(a.blackHeight, b.blackHeight) <= PARALLEL_HEIGHT || a.root == null || b.root == null) {
+                    Part<T> result = workspace.combine(operation, a, b);
+                    matches = workspace.matches;
+                    return result;
+                }
+                Halves<T> halves = new Halves<>(workspace, operation, a, b);
+                SetOperation<T> lower = new SetOperation<>(ordering, operation, halves.lowerA, halves.lowerB);
+                lower.fork();
+                SetOperation<T> upper = new SetOperation<>(ordering, operation, halves.upperA, halves.upperB);
+                Part<T> upperResult = upper.compute();
+                Part<T> lowerResult = lower.join();
+                matches = workspace.matches + lower.matches + upper.matches;
+                return halves.joinResults(lowerResult, upperResult);
+            }
+        }
+
+        /**
+         * @return the node holding the smallest value of the subtree, or null when
+         *      subtree is null
+         */
+        protected static <T> Node<T> firstNode(Node<T> subtree) {
+            if (subtree == null) return null;
+            while (subtree.leftChild != null) subtree = subtree.leftChild;
+            return subtree;
+        }
+
+        /**
+         * @return the node holding the next larger value, found through the child
+         *      and parent references, or null when node holds the largest value
+         */
+        protected static <T> Node<T> successor(Node<T> node) {
+            if (node.rightChild != null) return firstNode(node.rightChild);
+            Node<T> up = node.parent;
+            while (up != null && up.rightChild == node) {
+                node = up;
+                up = up.parent;
+            }
+            return up;
+        }
+
+        /**
+         * This method performs an inorder traversal of the tree. The string
+         * representations of each data value within this tree are assembled into a
+         * comma separated string within brackets (similar to many implementations
+         * of java.util.Collection, like java.util.ArrayList, LinkedList, etc).
+         * The nodes are visited through the parent references and the string is
+         * assembled in a single StringBuilder, so this is linear in its length.
+         * @return string containing the ordered values of this tree (in-order traversal)
+         */
+        public String toInOrderString() {
+            // generate a string of all values of the tree in (ordered) in-order
+            // traversal sequence
+            StringBuilder sb = new StringBuilder();
+            sb.append("[ ");
+            for (Node<T> node = firstNode(root); node != null; node = successor(node)) {
+                sb.append(node.data).append(", ");
+            }
+            if (this.root != null) {
+                sb.setLength(sb.length() - 2);
+            }
+            sb.append(" ]");
+            return sb.toString();
+        }
+
+        /**
+         * This method performs a level order traversal of the tree rooted
+         * at the current node. The string representations of each data value
+         * within this tree are assembled into a comma separated string within
+         * brackets (similar to many implementations of java.util.Collection).
+         * Note that the Node's implementation of toString generates a level
+         * order traversal. The toString of the RedBlackTree class below
+         * produces an inorder traversal of the nodes / values of the tree.
+         * This method will be helpful as a helper for the debugging and testing
+         * of your rotation implementation.
+         * @return string containing the values of this tree in level order
+         */
+        public String toLevelOrderString() {
+            StringBuilder output = new StringBuilder("[ ");
+            if (this.root != null) {
+                ArrayDeque<Node<T>> q = new ArrayDeque<>();
+                q.add(this.root);
+                while(!q.isEmpty()) {
+                    Node<T> next = q.removeFirst();
+                    if(next.leftChild != null) q.add(next.leftChild);
+                    if(next.rightChild != null) q.add(next.rightChild);
+                    output.append(next.data);
+                    if(!q.isEmpty()) output.append(", ");
+                }
+            }
+            return output.append(" ]").toString();
+        }
+
+        public String toString() {
+            return "level order: " + this.toLevelOrderString() +
+                    "\nin order: " + this.toInOrderString();
+        }
+
+        /**
+         * Returns an iterator over the values of this tree in ascending order. The
+         * iterator steps through the parent references, so each step is O(1)
+         * amortized and nothing is allocated after the iterator itself. It fails
+         * fast with a ConcurrentModificationException when the tree is structurally
+         * modified by anything other than the iterator.
+         * @return an in-order iterator over this tree
+         */
+        @Override
+        public Iterator<T> iterator() {
+            return new InOrderIterator();
+        }
+
+        /**
+         * In-order iterator following the parent references of the nodes.
+         */
+        private class InOrderIterator implements Iterator<T> {
+            private Node<T> next = firstNode(root); // node returned by the next call to next()
+            private Node<T> lastReturned; // node returned by the last call to next(), null after remove()
+            private int expectedModCount = modCount;
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public T next() {
+                if (next == null) throw new NoSuchElementException();
+                if (modCount != expectedModCount) throw new ConcurrentModificationException();
+                lastReturned = next;
+                next = successor(lastReturned);
+                return lastReturned.data;
+            }
+
+            /**
+             * Removes the value returned by the last call to next(). removeNode
+             * moves nodes instead of copying values between them, so the node of
+             * the next value stays valid.
+             */
+            @Override
+            public void remove() {
+                if (lastReturned == null) throw new IllegalStateException();
+                if (modCount != expectedModCount) throw new ConcurrentModificationException();
+                removeNode(lastReturned);
+                lastReturned = null;
+                expectedModCount = modCount;
+            }
+        }
+
+        /**
+         * Returns a spliterator over the values of this tree that reports SIZED,
+         * ORDERED, SORTED and DISTINCT. It splits at subtree boundaries: the first
+         * split hands off the values left of the root, later splits hand off the
+         * values below the right (or left) child of the previous split point, so
+         * that parallel streams get balanced halves without copying.
+         * @return a late-binding, fail-fast spliterator over this tree
+         */
+        @Override
+        public Spliterator<T> spliterator() {
+            return new InOrderSpliterator(null, null, 0, -1, 0);
+        }
+
+        /**
+         * @return a sequential stream over the values of this tree in ascending order
+         */
+        @Override
+        public Stream<T> stream() {
+            return StreamSupport.stream(spliterator(), false);
+        }
+
+        /**
+         * @return a parallel stream over the values of this tree
+         */
+        @Override
+        public Stream<T> parallelStream() {
+            return StreamSupport.stream(spliterator(), true);
+        }
+
+        /**
+         * Reduces the values of this tree on the common ForkJoinPool: subtrees of
+         * a black height up to PARALLEL_HEIGHT are folded with accumulator, starting
+         * from identity, and the results of neighbouring subtrees and the value
+         * between them are combined with combiner, in ascending order. As with
+         * Stream.reduce, combiner must be associative and compatible with
+         * accumulator. The tree must not be modified during the reduction.
+         * @return the reduction of the values, identity for an empty tree
+         * @throws ConcurrentModificationException when the tree was modified
+         *      during the reduction
+         */
+        public <R> R parallelReduce(R identity, BiFunction<R, ? super T, R> accumulator,
+                                    BinaryOperator<R> combiner) {
+            int expectedModCount = modCount;
+            R result = root == null ? identity
+                    : ForkJoinPool.commonPool().invoke(new Reduction<T, R>(root, blackHeight(), identity,
+                            accumulator, combiner));
+            if (modCount != expectedModCount) throw new ConcurrentModificationException();
+            return result;
+        }
+
+        /**
+         * Performs action for every value of this tree on the common
+         * ForkJoinPool, one task per subtree of a black height up to
+         * PARALLEL_HEIGHT.
+         * The values are passed in no particular order and from several threads
+         * at once, so action has to be thread-safe. The tree must not be
+         * modified in the meantime.
+         * @throws ConcurrentModificationException when the tree was modified
+         *      during the traversal
+         */
+        public void parallelForEach(Consumer<? super T> action) {
+            Objects.requireNonNull(action);
+            parallelReduce(null, (unused, value) -> {
+                action.accept(value);
+                return null;
+            }, (left, right) -> null);
+        }
+
+        /**
+         * Reduction of one subtree, see parallelReduce. Larger subtrees fork the
+         * task for their left child and reduce their right child themselves.
+         */
+        private static final class Reduction<T, R> extends RecursiveTask<R> {
+            private static final long serialVersionUID = 1L;
+            private final Node<T> subtree;
+            private final int height; // black height of subtree
+            private final R identity;
+            private final BiFunction<R, ? super T, R> accumulator;
+            private final BinaryOperator<R> combiner;
+
+            Reduction(Node<T> subtree, int height, R identity, BiFunction<R, ? super T, R> accumulator,
+                      BinaryOperator<R> combiner) {
+                this.subtree = subtree;
+                this.height = height;
+                this.identity = identity;
+                this.accumulator = accumulator;
+                this.combiner = combiner;
+            }
+
+            @Override
+            protected R compute() {
+                if (height <= PARALLEL_HEIGHT) return fold(subtree, identity);
+                int childHeight = height - subtree.blackHeight;
+                R left = identity;
+                Reduction<T, R> leftTask = null;
+                if (subtree.leftChild != null) {
+                    leftTask = new Reduction<>(subtree.leftChild, childHeight, identity, accumulator, combiner);
+                    leftTask.fork();
+                }
+                R right = accumulator.apply(identity, subtree.data);
+                if (subtree.rightChild != null) {
+                    right = combiner.apply(right,
+                            new Reduction<>(subtree.rightChild, childHeight, identity, accumulator, combiner).compute());
+                }
+                if (leftTask != null) left = leftTask.join();
+                return combiner.apply(left, right);
+            }
+
+            /**
+             * Folds the values of node's subtree into result in ascending order.
+             */
+            private R fold(Node<T> node, R result) {
+                for (; node != null; node = node.rightChild) {
+                    result = accumulator.apply(fold(node.leftChild, result), node.data);
+                }
+                return result;
+            }
+        }
+
+        /**
+         * Spliterator covering the in-order range [current, fence) of this tree.
+         * side records where the range came from: 0 for the whole tree, 1 when it
+         * was the upper part of a split (the next split point is below the
+         * current node's right child) and -1 when it was the lower part (the next
+         * split point is below the fence's left child).
+         */
+        private final class InOrderSpliterator implements Spliterator<T> {
+            private Node<T> current; // first node of the range, null when exhausted
+            private Node<T> fence; // first node past the range, null for the end of the tree
+            private int side;
+            private int est; // size estimate, -1 until the spliterator is bound to the tree
+            private int expectedModCount;
+
+            InOrderSpliterator(Node<T> origin, Node<T> fence, int side, int est, int expectedModCount) {
+                this.current = origin;
+                this.fence = fence;
+                this.side = side;
+                this.est = est;
+                this.expectedModCount = expectedModCount;
+            }
+
+            private int getEstimate() {
+                if (est < 0) { // bind to the tree on first use
+                    current = firstNode(root);
+                    est = size;
+                    expectedModCount = modCount;
+                }
+                return est;
+            }
+
+            @Override
+            public Spliterator<T> trySplit() {
+                if (est < 0) getEstimate();
+                Node<T> start = current, end = fence;
+                Node<T> split = (start == null || start == end) ? null // empty
+                        : (side == 0) ? root // whole tree
+                        : (side > 0) ? start.rightChild // upper part
+                        : (end != null) ? end.leftChild // lower part
+                        : null;
+                if (split != null && split != start && split != end
+                        && compare(start.data, split.data) < 0) {
+                    side = 1;
+                    return new InOrderSpliterator(start, current = split, -1, est >>>= 1, expectedModCount);
+                }
+                return null;
+            }
+
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                if (action == null) throw new NullPointerException();
+                if (est < 0) getEstimate();
+                Node<T> node = current;
+                if (node == null || node == fence) return false;
+                current = successor(node);
+                action.accept(node.data);
+                if (modCount != expectedModCount) throw new ConcurrentModificationException();
+                return true;
+            }
+
+            @Override
+            public void forEachRemaining(Consumer<? super T> action) {
+                if (action == null) throw new NullPointerException();
+                if (est < 0) getEstimate();
+                Node<T> end = fence;
+                for (Node<T> node = current; node != null && node != end; node = successor(node)) {
+                    action.accept(node.data);
+                }
+                current = null;
+                if (modCount != expectedModCount) throw new ConcurrentModificationException();
+            }
+
+            @Override
+            public long estimateSize() {
+                return getEstimate();
+            }
+
+            @Override
+            public int characteristics() {
+                return (side == 0 ? Spliterator.SIZED : 0) | Spliterator.DISTINCT
+                        | Spliterator.SORTED | Spliterator.ORDERED;
+            }
+
+            @Override
+            public Comparator<? super T> getComparator() {
+                return comparator; // null for the natural ordering
+            }
+        }
+
+        /**
+         * Returns the value of the node with the largest value strictly smaller
+         * than value, or null when there is none. Runs in O(log n).
+         * @throws NullPointerException when value is null
+         */
+        @Override
+        public T lower(T value) {
+            return dataOf(floorNode(requireValue(value), false));
+        }
+
+        /**
+         * Returns the largest value smaller than or equal to value, or null when
+         * there is none. Runs in O(log n).
+         * @throws NullPointerException when value is null
+         */
+        @Override
+        public T floor(T value) {
+            return dataOf(floorNode(requireValue(value), true));
+        }
+
+        /**
+         * Returns the smallest value greater than or equal to value, or null when
+         * there is none. Runs in O(log n).
+         * @throws NullPointerException when value is null
+         */
+        @Override
+        public T ceiling(T value) {
+            return dataOf(ceilingNode(requireValue(value), true));
+        }
+
+        /**
+         * Returns the smallest value strictly greater than value, or null when
+         * there is none. Runs in O(log n).
+         * @throws NullPointerException when value is null
+         */
+        @Override
+        public T higher(T value) {
+            return dataOf(ceilingNode(requireValue(value), false));
+        }
+
+        /**
+         * @return the smallest value of this tree
+         * @throws NoSuchElementException when this tree is empty
+         */
+        @Override
+        public T first() {
+            if (root == null) throw new NoSuchElementException("This RedBlackTree is empty.");
+            return firstNode(root).data;
+        }
+
+        /**
+         * @return the largest value of this tree
+         * @throws NoSuchElementException when this tree is empty
+         */
+        @Override
+        public T last() {
+            if (root == null) throw new NoSuchElementException("This RedBlackTree is empty.");
+            return lastNode(root).data;
+        }
+
+        /**
+         * Removes and returns the smallest value of this tree, in O(log n).
+         * @return the smallest value, or null when this tree is empty
+         */
+        @Override
+        public T pollFirst() {
+            Node<T> node = firstNode(root);
+            if (node == null) return null;
+            removeNode(node);
+            return node.data;
+        }
+
+        /**
+         * Removes and returns the largest value of this tree, in O(log n).
+         * @return the largest value, or null when this tree is empty
+         */
+        @Override
+        public T pollLast() {
+            Node<T> node = lastNode(root);
+            if (node == null) return null;
+            removeNode(node);
+            return node.data;
+        }
+
+        /**
+         * @return the comparator ordering this tree, or null when it uses the
+         *      natural ordering of its values
+         */
+        @Override
+        public Comparator<? super T> comparator() {
+            return comparator;
+        }
+
+        /**
+         * Returns a view of the values from fromValue to toValue. The view is
+         * backed by this tree: nothing is copied, its iterator starts with a
+         * single O(log n) descent and then steps through the parent references,
+         * so a scan of k values costs O(log n + k). size() of a view counts
+         * its values with countRange, in O(log n) for an OrderStatisticTree.
+         * @throws NullPointerException when a bound is null
+         * @throws IllegalArgumentException when fromValue is greater than toValue
+         */
+        @Override
+        public NavigableSet<T> subSet(T fromValue, boolean fromInclusive, T toValue, boolean toInclusive) {
+            if (compare(requireValue(fromValue), requireValue(toValue)) > 0) throw new IllegalArgumentException(
+                    "fromValue > toValue");
+            return new SubSet(false, fromValue, fromInclusive, false, toValue, toInclusive, false);
+        }
+
+        /**
+         * Returns a view of the values smaller than (or equal to, when inclusive)
+         * toValue, see subSet.
+         * @throws NullPointerException when toValue is null
+         */
+        @Override
+        public NavigableSet<T> headSet(T toValue, boolean inclusive) {
+            return new SubSet(true, null, true, false, requireValue(toValue), inclusive, false);
         }
+
         /**
-         * Get the size of the tree (its number of nodes).
-         * @return the number of nodes in the tree
+         * Returns a view of the values greater than (or equal to, when inclusive)
+         * fromValue, see subSet.
+         * @throws NullPointerException when fromValue is null
          */
-        public int size() {
-            return size;
+        @Override
+        public NavigableSet<T> tailSet(T fromValue, boolean inclusive) {
+            return new SubSet(false, requireValue(fromValue), inclusive, true, null, true, false);
+        }
+
+        @Override
+        public NavigableSet<T> subSet(T fromValue, T toValue) {
+            return subSet(fromValue, true, toValue, false);
+        }
+
+        @Override
+        public NavigableSet<T> headSet(T toValue) {
+            return headSet(toValue, false);
+        }
+
+        @Override
+        public NavigableSet<T> tailSet(T fromValue) {
+            return tailSet(fromValue, true);
         }
 
         /**
-         * Method to check if the tree is empty (does not contain any node).
-         * @return true of this.size() return 0, false if this.size() > 0
+         * @return a view of this tree in descending order
          */
-        public boolean isEmpty() {
-            return this.size() == 0;
+        @Override
+        public NavigableSet<T> descendingSet() {
+            return new SubSet(true, null, true, true, null, true, true);
         }
 
         /**
-         * Checks whether the tree contains the value *data*.
-         * @param data the data value to test for
-         * @return true if *data* is in the tree, false if it is not in the tree
+         * @return an iterator over the values of this tree in descending order
          */
-        public boolean contains(T data) {
-            // null references will not be stored within this tree
-            if(data == null) throw new NullPointerException(
+        @Override
+        public Iterator<T> descendingIterator() {
+            return new RangeIterator(lastNode(root), firstNode(root), true);
+        }
+
+        private static <T> T requireValue(T value) {
+            if (value == null) throw new NullPointerException(
                     "This RedBlackTree cannot store null references.");
-            return this.containsHelper(data, root);
+            return value;
+        }
+
+        private static <T> T dataOf(Node<T> node) {
+            return node == null ? null : node.data;
         }
 
         /**
-         * Recursive helper method that recurses through the tree and looks
-         * for the value *data*.
-         * @param data the data value to look for
-         * @param subtree the subtree to search through
-         * @return true of the value is in the subtree, false if not
+         * @return the node with the smallest value greater than value (or equal to
+         *      it, when inclusive), or null when there is none
          */
-        private boolean containsHelper(T data, Node<T> subtree) {
-            if (subtree == null) {
-                // we are at a null child, value is not in tree
-                return false;
-            } else {
-                int compare = data.compareTo(subtree.data);
+        protected Node<T> ceilingNode(T value, boolean inclusive) {
+            Node<T> result = null;
+            Node<T> node = root;
+            while (node != null) {
+                int compare = compare(value, node.data);
+                if (compare == 0 && inclusive) return node;
                 if (compare < 0) {
-                    // go left in the tree
-                    return containsHelper(data, subtree.leftChild);
-                } else if (compare > 0) {
-                    // go right in the tree
-                    return containsHelper(data, subtree.rightChild);
+                    result = node;
+                    node = node.leftChild;
                 } else {
-                    // we found it :)
-                    return true;
+                    node = node.rightChild;
                 }
             }
+            return result;
         }
 
-
         /**
-         * This method performs an inorder traversal of the tree. The string
-         * representations of each data value within this tree are assembled into a
-         * comma separated string within brackets (similar to many implementations
-         * of java.util.Collection, like java.util.ArrayList, LinkedList, etc).
-         * Note that this RedBlackTree class implementation of toString generates an
-         * inorder traversal. The toString of the Node class class above
-         * produces a level order traversal of the nodes / values of the tree.
-         * @return string containing the ordered values of this tree (in-order traversal)
+         * @return the node with the largest value smaller than value (or equal to
+         *      it, when inclusive), or null when there is none
          */
-        public String toInOrderString() {
-            // generate a string of all values of the tree in (ordered) in-order
-            // traversal sequence
-            StringBuffer sb = new StringBuffer();
-            sb.append("[ ");
-            sb.append(toInOrderStringHelper("", this.root));
-            if (this.root != null) {
-                sb.setLength(sb.length() - 2);
+        protected Node<T> floorNode(T value, boolean inclusive) {
+            Node<T> result = null;
+            Node<T> node = root;
+            while (node != null) {
+                int compare = compare(value, node.data);
+                if (compare == 0 && inclusive) return node;
+                if (compare > 0) {
+                    result = node;
+                    node = node.rightChild;
+                } else {
+                    node = node.leftChild;
+                }
             }
-            sb.append(" ]");
-            return sb.toString();
+            return result;
         }
 
-        private String toInOrderStringHelper(String str, Node<T> node){
-            if (node == null) {
-                return str;
-            }
-            str = toInOrderStringHelper(str, node.leftChild);
-            str += (node.data.toString() + ", ");
-            str = toInOrderStringHelper(str, node.rightChild);
-            return str;
+        /**
+         * @return the node holding the largest value of the subtree, or null when
+         *      subtree is null
+         */
+        protected static <T> Node<T> lastNode(Node<T> subtree) {
+            if (subtree == null) return null;
+            while (subtree.rightChild != null) subtree = subtree.rightChild;
+            return subtree;
         }
 
         /**
-         * This method performs a level order traversal of the tree rooted
-         * at the current node. The string representations of each data value
-         * within this tree are assembled into a comma separated string within
-         * brackets (similar to many implementations of java.util.Collection).
-         * Note that the Node's implementation of toString generates a level
-         * order traversal. The toString of the RedBlackTree class below
-         * produces an inorder traversal of the nodes / values of the tree.
-         * This method will be helpful as a helper for the debugging and testing
-         * of your rotation implementation.
-         * @return string containing the values of this tree in level order
+         * @return the node holding the next smaller value, found through the child
+         *      and parent references, or null when node holds the smallest value
          */
-        public String toLevelOrderString() {
-            String output = "[ ";
-            if (this.root != null) {
-                LinkedList<Node<T>> q = new LinkedList<>();
-                q.add(this.root);
-                while(!q.isEmpty()) {
-                    Node<T> next = q.removeFirst();
-                    if(next.leftChild != null) q.add(next.leftChild);
-                    if(next.rightChild != null) q.add(next.rightChild);
-                    output += next.data.toString();
-                    if(!q.isEmpty()) output += ", ";
-                }
+        protected static <T> Node<T> predecessor(Node<T> node) {
+            if (node.leftChild != null) return lastNode(node.leftChild);
+            Node<T> up = node.parent;
+            while (up != null && up.leftChild == node) {
+                node = up;
+                up = up.parent;
             }
-            return output + " ]";
+            return up;
         }
 
-        public String toString() {
-            return "level order: " + this.toLevelOrderString() +
-                    "\nin order: " + this.toInOrderString();
+        /**
+         * Iterator over the nodes from first to last (both inclusive), stepping
+         * with successor, or with predecessor when descending.
+         */
+        private class RangeIterator implements Iterator<T> {
+            private Node<T> next; // node returned by the next call to next(), null when done
+            private Node<T> lastReturned; // node returned by the last call to next(), null after remove()
+            private final Node<T> last;
+            private final boolean descending;
+            private int expectedModCount = modCount;
+
+            RangeIterator(Node<T> first, Node<T> last, boolean descending) {
+                this.next = first;
+                this.last = last;
+                this.descending = descending;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public T next() {
+                if (next == null) throw new NoSuchElementException();
+                if (modCount != expectedModCount) throw new ConcurrentModificationException();
+                Node<T> current = next;
+                if (current == last) next = null;
+                else next = descending ? predecessor(current) : successor(current);
+                lastReturned = current;
+                return current.data;
+            }
+
+            @Override
+            public void remove() {
+                if (lastReturned == null) throw new IllegalStateException();
+                if (modCount != expectedModCount) throw new ConcurrentModificationException();
+                removeNode(lastReturned);
+                lastReturned = null;
+                expectedModCount = modCount;
+            }
         }
 
         /**
-         *This method resolves any red-black tree property violations that are introduced when inserting a new node into
-         *a red-black tree
-         * @param newNode
-         * @throws IllegalArgumentException
+         * View of the values of this tree between two optional bounds, in
+         * ascending or descending order. The bounds are stored as absolute (tree
+         * order) bounds; a descending view swaps the meaning of the navigation
+         * methods. All methods are answered by descents in the backing tree.
          */
-        protected void enforceRBTreePropertiesAfterInsert(Node<T>newNode) throws IllegalArgumentException{
-            if(newNode.equals(root.data)){   //checks if the newNode is the root
-                newNode.blackHeight=1;       //makes the newNode black.
+        private final class SubSet extends AbstractSet<T> implements NavigableSet<T> {
+            private final boolean fromStart, toEnd; // true when the low / high side is unbounded
+            private final T lo, hi;
+            private final boolean loInclusive, hiInclusive;
+            private final boolean descending;
+
+            SubSet(boolean fromStart, T lo, boolean loInclusive,
+                   boolean toEnd, T hi, boolean hiInclusive, boolean descending) {
+                this.fromStart = fromStart;
+                this.lo = lo;
+                this.loInclusive = loInclusive;
+                this.toEnd = toEnd;
+                this.hi = hi;
+                this.hiInclusive = hiInclusive;
+                this.descending = descending;
+            }
+
+            // ----- bound checks in tree order
+
+            private boolean tooLow(T value) {
+                if (fromStart) return false;
+                int compare = RedBlackTree.this.compare(value, lo);
+                return compare < 0 || (compare == 0 && !loInclusive);
+            }
+
+            private boolean tooHigh(T value) {
+                if (toEnd) return false;
+                int compare = RedBlackTree.this.compare(value, hi);
+                return compare > 0 || (compare == 0 && !hiInclusive);
+            }
+
+            private boolean inRange(T value) {
+                return !tooLow(value) && !tooHigh(value);
+            }
+
+            private boolean inClosedRange(T value) {
+                return (fromStart || RedBlackTree.this.compare(value, lo) >= 0)
+                        && (toEnd || RedBlackTree.this.compare(value, hi) <= 0);
+            }
+
+            private boolean inRange(T value, boolean inclusive) {
+                return inclusive ? inRange(value) : inClosedRange(value);
+            }
+
+            // ----- navigation in tree order, restricted to the bounds
+
+            private Node<T> absLowest() {
+                Node<T> node = fromStart ? firstNode(root) : ceilingNode(lo, loInclusive);
+                return node == null || tooHigh(node.data) ? null : node;
+            }
+
+            private Node<T> absHighest() {
+                Node<T> node = toEnd ? lastNode(root) : floorNode(hi, hiInclusive);
+                return node == null || tooLow(node.data) ? null : node;
+            }
+
+            private Node<T> absCeiling(T value, boolean inclusive) {
+                if (tooLow(value)) return absLowest();
+                Node<T> node = ceilingNode(value, inclusive);
+                return node == null || tooHigh(node.data) ? null : node;
             }
-            if(newNode.parent==null){       //checks if the parent of the newNode is null.
-                return;                     //returns.
+
+            private Node<T> absFloor(T value, boolean inclusive) {
+                if (tooHigh(value)) return absHighest();
+                Node<T> node = floorNode(value, inclusive);
+                return node == null || tooLow(node.data) ? null : node;
+            }
+
+            // ----- NavigableSet, in the order of this view
+
+            @Override
+            public T lower(T value) {
+                requireValue(value);
+                return dataOf(descending ? absCeiling(value, false) : absFloor(value, false));
+            }
+
+            @Override
+            public T floor(T value) {
+                requireValue(value);
+                return dataOf(descending ? absCeiling(value, true) : absFloor(value, true));
+            }
+
+            @Override
+            public T ceiling(T value) {
+                requireValue(value);
+                return dataOf(descending ? absFloor(value, true) : absCeiling(value, true));
             }
-            //case 1 - The new Node has a red parent node and a red uncle node.
 
-            //if statements that makes sure, the parent, grandparent and uncle aren't null and are red, black and black
-            //respectively.
-            if (newNode.parent!=null &&newNode.parent.parent!=null && newNode.parent.parent.blackHeight==1 &&
-                    newNode.parent.parent.leftChild!=null && newNode.parent.parent.leftChild.blackHeight == 0 &&
-                    newNode.parent.parent.rightChild!=null && newNode.parent.parent.rightChild.blackHeight == 0) {
+            @Override
+            public T higher(T value) {
+                requireValue(value);
+                return dataOf(descending ? absFloor(value, false) : absCeiling(value, false));
+            }
 
-                //changes the grandparent's color to red, and the parent's and uncle's color to black.
-                newNode.parent.parent.blackHeight=0;
-                newNode.parent.parent.rightChild.blackHeight=1;
-                newNode.parent.parent.leftChild.blackHeight=1;
+            @Override
+            public T first() {
+                Node<T> node = descending ? absHighest() : absLowest();
+                if (node == null) throw new NoSuchElementException();
+                return node.data;
+            }
 
-                //calls the grandparent node recursively.
-                enforceRBTreePropertiesAfterInsert(newNode.parent.parent);
+            @Override
+            public T last() {
+                Node<T> node = descending ? absLowest() : absHighest();
+                if (node == null) throw new NoSuchElementException();
+                return node.data;
             }
 
-            //if statements that makes sure, the parent, grandparent and uncle aren't null and are red, black and black
-            //respectively.
-            if (newNode.parent!=null &&newNode.parent.parent!=null && newNode.parent.parent.blackHeight==1 &&
-                    newNode.parent.parent.rightChild!=null && newNode.parent.parent.rightChild.blackHeight == 0 &&
-                    newNode.parent.parent.leftChild!=null && newNode.parent.parent.leftChild.blackHeight == 0) {
+            @Override
+            public T pollFirst() {
+                return pollNode(descending ? absHighest() : absLowest());
+            }
 
-                //changes the grandparent's color to red, and the parent's and uncle's color to black.
-                newNode.parent.parent.blackHeight=0;
-                newNode.parent.parent.rightChild.blackHeight=1;
-                newNode.parent.parent.leftChild.blackHeight=1;
+            @Override
+            public T pollLast() {
+                return pollNode(descending ? absLowest() : absHighest());
+            }
 
-                //calls the grandparent node recursively.
-                enforceRBTreePropertiesAfterInsert(newNode.parent.parent);
+            private T pollNode(Node<T> node) {
+                if (node == null) return null;
+                removeNode(node);
+                return node.data;
+            }
 
+            @Override
+            public Comparator<? super T> comparator() {
+                return descending ? Collections.reverseOrder(comparator) : comparator;
             }
 
-            //case 2 - The new node has a red parent and a black uncle (line)
+            @Override
+            public Iterator<T> iterator() {
+                Node<T> low = absLowest();
+                Node<T> high = low == null ? null : absHighest();
+                return descending ? new RangeIterator(high, low, true) : new RangeIterator(low, high, false);
+            }
 
-            //checks if the new Node is a right node and the parent is also a right node and the parent isn't null
-            if(newNode.parent!=null&&!newNode.isLeftChild()&&!newNode.parent.isLeftChild()){
+            @Override
+            public Iterator<T> descendingIterator() {
+                return descendingSet().iterator();
+            }
 
-                //checks if the grandparent and uncle aren't null.
-                //Also checks if the grandparent and uncle have a balckHeight of 1 and the parent's red.
-                if(newNode.parent.parent!=null && newNode.parent.parent.blackHeight==1 &&
-                        newNode.parent.blackHeight==0 && (newNode.parent.parent.leftChild==null||
-                        newNode.parent.parent.leftChild.blackHeight==1)){
+            /**
+             * @return the number of values within the bounds, see countRange
+             */
+            @Override
+            public int size() {
+                Node<T> low = absLowest();
+                return low == null ? 0 : countRange(low, absHighest());
+            }
 
-                    //swtiches the color of the parent and the grandparent.
-                    newNode.parent.parent.blackHeight=0;
-                    newNode.parent.blackHeight=1;
+            @Override
+            public boolean isEmpty() {
+                return absLowest() == null;
+            }
 
-                    //rotates the parent and the grandparent.
-                    rotate(newNode.parent, newNode.parent.parent);
-                }}
-            //checks if the newNode and the parent node are both right children and the parent isn't null.
-            if(newNode.parent!=null&&newNode.isLeftChild()&&newNode.parent.isLeftChild()){
+            @Override
+            @SuppressWarnings("unchecked")
+            public boolean contains(Object o) {
+                T value = (T) requireValue(o);
+                return inRange(value) && findNode(value) != null;
+            }
 
-                //checks if the grandparent and uncle aren't null.
-                //Also checks if the grandparent and uncle have a balckHeight of 1 and the parent's red.
-                if(newNode.parent.parent!=null && newNode.parent.parent.blackHeight==1 &&
-                        newNode.parent.parent.leftChild.blackHeight == 0 &&
-                        (newNode.parent.parent.rightChild==null||newNode.parent.parent.rightChild.blackHeight==1)){
+            @Override
+            public boolean add(T value) {
+                if (!inRange(requireValue(value))) throw new IllegalArgumentException("value out of range");
+                return RedBlackTree.this.add(value);
+            }
 
-                    //swtiches the color of the parent and the grandparent.
-                    newNode.parent.blackHeight=1;
-                    newNode.parent.parent.blackHeight=0;
+            @Override
+            @SuppressWarnings("unchecked")
+            public boolean remove(Object o) {
+                return inRange((T) requireValue(o)) && RedBlackTree.this.remove(o);
+            }
 
-                    //rotates the parent and the grandparent.
-                    rotate(newNode.parent, newNode.parent.parent);
-                }}
+            @Override
+            public NavigableSet<T> descendingSet() {
+                return new SubSet(fromStart, lo, loInclusive, toEnd, hi, hiInclusive, !descending);
+            }
 
-            //case 3 - The new node has a red parent and a black uncle (triangle)
+            @Override
+            public NavigableSet<T> subSet(T fromValue, boolean fromInclusive, T toValue, boolean toInclusive) {
+                requireValue(fromValue);
+                requireValue(toValue);
+                if (!inRange(fromValue, fromInclusive)) throw new IllegalArgumentException("fromValue out of range");
+                if (!inRange(toValue, toInclusive)) throw new IllegalArgumentException("toValue out of range");
+                if (descending) {
+                    if (RedBlackTree.this.compare(fromValue, toValue) < 0) throw new IllegalArgumentException("fromValue < toValue");
+                    return new SubSet(false, toValue, toInclusive, false, fromValue, fromInclusive, true);
+                }
+                if (RedBlackTree.this.compare(fromValue, toValue) > 0) throw new IllegalArgumentException("fromValue > toValue");
+                return new SubSet(false, fromValue, fromInclusive, false, toValue, toInclusive, false);
+            }
 
-            //checks if the new Node is a left Child and the parent is a rightChild
-            if(newNode.parent!=null&&newNode.isLeftChild()&&!newNode.parent.isLeftChild()){
+            @Override
+            public NavigableSet<T> headSet(T toValue, boolean inclusive) {
+                if (!inRange(requireValue(toValue), inclusive)) throw new IllegalArgumentException("toValue out of range");
+                return descending
+                        ? new SubSet(false, toValue, inclusive, toEnd, hi, hiInclusive, true)
+                        : new SubSet(fromStart, lo, loInclusive, false, toValue, inclusive, false);
+            }
 
-                // checks if the parent, grandparent and uncle aren't null.
-                // Also checks if the grandParent and Uncle have a blaclHeight of 1 and the parent's red.
-                if(newNode.parent.parent!=null && newNode.parent.parent.blackHeight==1 &&
-                        newNode.parent.parent.rightChild!=null && newNode.parent.parent.rightChild.blackHeight==0 &&
-                        (newNode.parent.parent.leftChild==null|| newNode.parent.parent.leftChild.blackHeight==1)){
+            @Override
+            public NavigableSet<T> tailSet(T fromValue, boolean inclusive) {
+                if (!inRange(requireValue(fromValue), inclusive)) throw new IllegalArgumentException("fromValue out of range");
+                return descending
+                        ? new SubSet(fromStart, lo, loInclusive, false, fromValue, inclusive, true)
+                        : new SubSet(false, fromValue, inclusive, toEnd, hi, hiInclusive, false);
+            }
 
-                    // rotates the newNode and the parentNode
-                    rotate(newNode, newNode.parent);
+            @Override
+            public NavigableSet<T> subSet(T fromValue, T toValue) {
+                return subSet(fromValue, true, toValue, false);
+            }
 
-                    //calls the parentNode (now the right child) recursively.
-                    enforceRBTreePropertiesAfterInsert(newNode.rightChild);
-                }}
+            @Override
+            public NavigableSet<T> headSet(T toValue) {
+                return headSet(toValue, false);
+            }
 
-            //checks if the new Node is a right Child and the parent is a left child
-            if(newNode.parent!=null && !newNode.isLeftChild()&&newNode.parent.isLeftChild()){
+            @Override
+            public NavigableSet<T> tailSet(T fromValue) {
+                return tailSet(fromValue, true);
+            }
+        }
 
-                // checks if the parent, grandparent and uncle aren't null.
-                // Also checks if the grandParent and Uncle have a blaclHeight of 1 and the parent's red.
-                if(newNode.parent.parent!=null && newNode.parent.parent.blackHeight==1
-                        && newNode.parent.parent.leftChild!=null &&
-                        newNode.parent.parent.leftChild.blackHeight==0 &&
-                        (newNode.parent.parent.rightChild==null|| newNode.parent.parent.rightChild.blackHeight==1)){
+        /**
+         * This method resolves any red-black tree property violations that are
+         * introduced when inserting a new (red) node into a red-black tree. It is a
+         * single bottom-up loop: each iteration looks at the parent, grandparent
+         * and uncle once, and the loop stops as soon as the parent is black or a
+         * rotation has been made.
+         * @param newNode the red node that was just linked into the tree
+         * @throws IllegalArgumentException when a rotation is attempted between
+         *      nodes that are not parent and child
+         */
+        protected void enforceRBTreePropertiesAfterInsert(Node<T> newNode) throws IllegalArgumentException {
+            resolveRedViolation(newNode);
+            root.blackHeight = 1; // the root is always black
+        }
 
-                    //rotates the newNode and the parent node
-                    rotate(newNode, newNode.parent);
+        /**
+         * Runs the insert fixup loop for a red node, without coloring the root
+         * black at the end: join uses the color of the root to tell whether the
+         * black height of the tree grew.
+         * @param newNode a red node whose subtrees satisfy the red-black tree
+         *      properties
+         */
+        private void resolveRedViolation(Node<T> newNode) {
+            Node<T> node = newNode;
+            // a violation only exists while the node and its parent are both red
+            while (node.parent != null && node.parent.blackHeight == 0) {
+                Node<T> parent = node.parent;
+                Node<T> grandParent = parent.parent;
+                if (grandParent == null) break; // red root, colored black by the caller
+
+                boolean parentIsLeft = grandParent.leftChild == parent;
+                Node<T> uncle = parentIsLeft ? grandParent.rightChild : grandParent.leftChild;
+
+                //case 1 - red parent and red uncle: push the grandparent's black down and
+                //continue from the grandparent.
+                if (uncle != null && uncle.blackHeight == 0) {
+                    if (metrics != null) metrics.recolorings.increment();
+                    parent.blackHeight = 1;
+                    uncle.blackHeight = 1;
+                    grandParent.blackHeight = 0;
+                    node = grandParent;
+                    continue;
+                }
 
-                    //recursively calls the parent node.
-                    enforceRBTreePropertiesAfterInsert(newNode.leftChild);
-                }}
+                //case 3 - red parent and black uncle (triangle): rotate the node above its
+                //parent, which turns it into case 2 with the old parent as the new node.
+                if (node.isLeftChild() != parentIsLeft) {
+                    rotate(node, parent);
+                    parent = node;
+                }
 
+                //case 2 - red parent and black uncle (line): swap the colors of the parent
+                //and the grandparent and rotate the parent above the grandparent.
+                parent.blackHeight = 1;
+                grandParent.blackHeight = 0;
+                rotate(parent, grandParent);
+                break;
+            }
         }
 
         /**
@@ -606,6 +2609,606 @@
                 assertEquals(1, tree.root.leftChild.rightChild.blackHeight);
             }
 
+
+        /**
+         * Checks that a larger number of random, ascending and descending insertions
+         * keep the red-black tree properties: a black root, no red node with a red
+         * child and the same number of black nodes on every root to leaf path.
+         */
+        @Test
+        public void test5() {
+            java.util.Random random = new java.util.Random(5);
+            RedBlackTree<Integer> tree = new RedBlackTree<>();
+            java.util.TreeSet<Integer> expected = new java.util.TreeSet<>();
+            for (int i = 0; i < 2000; i++) {
+                int value = random.nextInt(10000);
+                if (expected.add(value)) tree.insert(value);
+                else assertThrows(IllegalArgumentException.class, () -> tree.insert(value));
+                assertTrue(tree.contains(value));
+            }
+            assertValidRedBlackTree(tree);
+            assertEquals(expected.size(), tree.size());
+            assertEquals(expected.toString().replace("[", "[ ").replace("]", " ]"), tree.toInOrderString());
+            assertFalse(tree.contains(-1));
+
+            RedBlackTree<Integer> ascending = new RedBlackTree<>();
+            RedBlackTree<Integer> descending = new RedBlackTree<>();
+            for (int i = 0; i < 1000; i++) {
+                ascending.insert(i);
+                descending.insert(-i);
+            }
+            assertValidRedBlackTree(ascending);
+            assertValidRedBlackTree(descending);
+        }
+
+        /**
+         * Checks the bulk construction from sorted arrays, lists and iterators, the
+         * handling of duplicates and unsorted input, and merging into a tree that
+         * already holds values.
+         */
+        @Test
+        public void test6() {
+            for (int n = 0; n < 70; n++) {
+                Integer[] values = new Integer[n];
+                for (int i = 0; i < n; i++) values[i] = i * 2;
+                RedBlackTree<Integer> tree = RedBlackTree.fromSorted(values);
+                assertValidRedBlackTree(tree);
+                assertEquals(n, tree.size());
+                assertEquals(java.util.Arrays.toString(values).replace("[", "[ ").replace("]", " ]"),
+                        tree.toInOrderString());
+            }
+
+            RedBlackTree<Integer> tree = RedBlackTree.fromSorted(java.util.List.of(1, 1, 2, 3, 3, 3, 8));
+            assertEquals("[ 1, 2, 3, 8 ]", tree.toInOrderString());
+            assertEquals(4, tree.size());
+            assertThrows(IllegalArgumentException.class,
+                    () -> RedBlackTree.fromSorted(java.util.List.of(1, 3, 2)));
+
+            // merging: values that are already stored are skipped
+            assertEquals(3, tree.insertAllSorted(java.util.List.of(0, 2, 4, 5, 8).iterator()));
+            assertEquals("[ 0, 1, 2, 3, 4, 5, 8 ]", tree.toInOrderString());
+            assertValidRedBlackTree(tree);
+            assertEquals(0, tree.insertAllSorted(new Integer[] { 1, 8 }));
+            assertThrows(IllegalArgumentException.class,
+                    () -> tree.insertAllSorted(java.util.List.of(9, 6)));
+            assertEquals(7, tree.size());
+            assertEquals("[ 0, 1, 2, 3, 4, 5, 8 ]", tree.toInOrderString());
+
+            // the bulk-built tree keeps working with regular inserts
+            for (int i = 100; i < 300; i++) tree.insert(i);
+            assertValidRedBlackTree(tree);
+            assertEquals(207, tree.size());
+        }
+
+        /**
+         * Checks the in-order iterator, its fail-fast behavior and that the
+         * spliterator splits cover every value exactly once and in order.
+         */
+        @Test
+        public void test7() {
+            RedBlackTree<Integer> tree = new RedBlackTree<>();
+            assertFalse(tree.iterator().hasNext());
+            assertEquals(0L, tree.stream().count());
+            java.util.Random random = new java.util.Random(7);
+            java.util.TreeSet<Integer> expected = new java.util.TreeSet<>();
+            while (expected.size() < 5000) {
+                int value = random.nextInt(100000);
+                if (expected.add(value)) tree.insert(value);
+            }
+
+            java.util.List<Integer> iterated = new java.util.ArrayList<>();
+            for (int value : tree) iterated.add(value);
+            assertEquals(new java.util.ArrayList<>(expected), iterated);
+            assertEquals(expected.stream().mapToLong(Integer::longValue).sum(),
+                    tree.parallelStream().mapToLong(Integer::longValue).sum());
+            assertEquals(new java.util.ArrayList<>(expected),
+                    tree.parallelStream().collect(java.util.stream.Collectors.toList()));
+
+            // splitting repeatedly yields disjoint ranges that concatenate to the tree
+            java.util.List<Integer> collected = new java.util.ArrayList<>();
+            java.util.Spliterator<Integer> whole = tree.spliterator();
+            assertEquals(5000L, whole.getExactSizeIfKnown());
+            java.util.Deque<java.util.Spliterator<Integer>> work = new java.util.ArrayDeque<>();
+            work.push(whole);
+            int splits = 0;
+            while (!work.isEmpty()) {
+                java.util.Spliterator<Integer> part = work.pop();
+                java.util.Spliterator<Integer> prefix = part.trySplit();
+                if (prefix != null) {
+                    splits++;
+                    work.push(part);
+                    work.push(prefix);
+                } else {
+                    part.forEachRemaining(collected::add);
+                }
+            }
+            assertTrue(splits > 100);
+            assertEquals(new java.util.ArrayList<>(expected), collected);
+
+            java.util.Iterator<Integer> iterator = tree.iterator();
+            iterator.next();
+            tree.insert(-1);
+            assertThrows(java.util.ConcurrentModificationException.class, iterator::next);
+            assertEquals("[ 1, 2, 3 ]", RedBlackTree.fromSorted(new Integer[] { 1, 2, 3 }).toInOrderString());
+        }
+
+        /**
+         * Checks the NavigableSet lookups and the ascending and descending range
+         * views against java.util.TreeSet.
+         */
+        @Test
+        public void test9() {
+            java.util.Random random = new java.util.Random(9);
+            RedBlackTree<Integer> tree = new RedBlackTree<>();
+            java.util.TreeSet<Integer> expected = new java.util.TreeSet<>();
+            assertThrows(java.util.NoSuchElementException.class, tree::first);
+            for (int i = 0; i < 400; i++) {
+                int value = random.nextInt(1000);
+                assertEquals(expected.add(value), tree.add(value));
+            }
+            assertEquals(expected, tree);
+            assertEquals(expected.first(), tree.first());
+            assertEquals(expected.last(), tree.last());
+            for (int value = -5; value < 1005; value++) {
+                assertEquals(expected.lower(value), tree.lower(value));
+                assertEquals(expected.floor(value), tree.floor(value));
+                assertEquals(expected.ceiling(value), tree.ceiling(value));
+                assertEquals(expected.higher(value), tree.higher(value));
+            }
+            assertEquals(new java.util.ArrayList<>(expected.descendingSet()),
+                    new java.util.ArrayList<>(tree.descendingSet()));
+
+            for (int i = 0; i < 300; i++) {
+                int a = random.nextInt(1100) - 50, b = a + random.nextInt(400);
+                boolean ai = random.nextBoolean(), bi = random.nextBoolean();
+                java.util.List<java.util.NavigableSet<Integer>> expectedViews = java.util.List.of(
+                        expected.subSet(a, ai, b, bi), expected.headSet(b, bi), expected.tailSet(a, ai),
+                        expected.descendingSet().subSet(b, bi, a, ai), expected.descendingSet().headSet(a, ai),
+                        expected.subSet(a, ai, b, bi).descendingSet().tailSet(b, bi));
+                java.util.List<java.util.NavigableSet<Integer>> views = java.util.List.of(
+                        tree.subSet(a, ai, b, bi), tree.headSet(b, bi), tree.tailSet(a, ai),
+                        tree.descendingSet().subSet(b, bi, a, ai), tree.descendingSet().headSet(a, ai),
+                        tree.subSet(a, ai, b, bi).descendingSet().tailSet(b, bi));
+                for (int v = 0; v < views.size(); v++) {
+                    java.util.NavigableSet<Integer> want = expectedViews.get(v), view = views.get(v);
+                    assertEquals(new java.util.ArrayList<>(want), new java.util.ArrayList<>(view));
+                    assertEquals(want.size(), view.size());
+                    assertEquals(want.isEmpty(), view.isEmpty());
+                    if (!want.isEmpty()) {
+                        assertEquals(want.first(), view.first());
+                        assertEquals(want.last(), view.last());
+                    }
+                    int probe = a + random.nextInt(500) - 50;
+                    assertEquals(want.lower(probe), view.lower(probe));
+                    assertEquals(want.floor(probe), view.floor(probe));
+                    assertEquals(want.ceiling(probe), view.ceiling(probe));
+                    assertEquals(want.higher(probe), view.higher(probe));
+                    assertEquals(want.contains(probe), view.contains(probe));
+                }
+            }
+            java.util.NavigableSet<Integer> view = tree.subSet(100, true, 200, false);
+            assertThrows(IllegalArgumentException.class, () -> view.add(500));
+            assertThrows(IllegalArgumentException.class, () -> tree.subSet(5, 1));
+            view.add(150);
+            assertTrue(tree.contains(150));
+            assertEquals(expected.subSet(100, 200).size() + (expected.contains(150) ? 0 : 1), view.size());
+        }
+
+        /**
+         * Checks remove, pollFirst, pollLast and removal through iterators and
+         * views against java.util.TreeSet, validating the red-black tree
+         * properties and the size along the way.
+         */
+        @Test
+        public void test10() {
+            java.util.Random random = new java.util.Random(10);
+            RedBlackTree<Integer> tree = new RedBlackTree<>();
+            java.util.TreeSet<Integer> expected = new java.util.TreeSet<>();
+            assertNull(tree.pollFirst());
+            assertFalse(tree.remove((Integer) 1));
+            for (int i = 0; i < 20000; i++) {
+                int value = random.nextInt(2000);
+                if (random.nextInt(3) == 0) assertEquals(expected.remove(value), tree.remove((Integer) value));
+                else assertEquals(expected.add(value), tree.add(value));
+                if (i % 500 == 0) {
+                    assertValidRedBlackTree(tree);
+                    assertEquals(expected.pollFirst(), tree.pollFirst());
+                    assertEquals(expected.pollLast(), tree.pollLast());
+                }
+            }
+            assertValidRedBlackTree(tree);
+            assertEquals(expected, tree);
+            assertEquals(expected.size(), tree.size());
+
+            // removal through iterators and views
+            tree.removeIf(value -> value % 3 == 0);
+            expected.removeIf(value -> value % 3 == 0);
+            assertEquals(expected, tree);
+            java.util.Iterator<Integer> descending = tree.descendingIterator();
+            descending.next();
+            descending.remove();
+            assertThrows(IllegalStateException.class, descending::remove);
+            expected.pollLast();
+            tree.subSet(500, 1000).clear();
+            expected.subSet(500, 1000).clear();
+            assertEquals(expected.headSet(700, true).descendingSet().pollFirst(),
+                    tree.headSet(700, true).descendingSet().pollFirst());
+            assertEquals(expected, tree);
+            assertValidRedBlackTree(tree);
+
+            while (!expected.isEmpty()) assertEquals(expected.pollFirst(), tree.pollFirst());
+            assertTrue(tree.isEmpty());
+            assertEquals(null, tree.root);
+        }
+
+        /**
+         * Checks tryInsert, insertOrGet and computeIfAbsent, including that a
+         * rejected or failing factory leaves the tree and its size intact.
+         */
+        @Test
+        public void test11() {
+            RedBlackTree<String> tree = new RedBlackTree<>();
+            assertTrue(tree.tryInsert("m"));
+            assertFalse(tree.tryInsert("m"));
+            assertTrue(tree.tryInsert("c"));
+            assertThrows(IllegalArgumentException.class, () -> tree.insert("c"));
+            assertThrows(NullPointerException.class, () -> tree.tryInsert(null));
+
+            String stored = new String("x");
+            assertSame(stored, tree.insertOrGet(stored));
+            assertSame(stored, tree.insertOrGet(new String("x")));
+            assertSame(stored, tree.computeIfAbsent("x", value -> { throw new AssertionError(); }));
+            String computed = tree.computeIfAbsent(new String("q"), String::new);
+            assertSame(computed, tree.insertOrGet("q"));
+            assertEquals(4, tree.size());
+
+            assertThrows(IllegalArgumentException.class, () -> tree.computeIfAbsent("a", value -> "b"));
+            assertThrows(NullPointerException.class, () -> tree.computeIfAbsent("a", value -> null));
+            assertThrows(IllegalStateException.class, () -> tree.computeIfAbsent("a", value -> {
+                throw new IllegalStateException();
+            }));
+            assertFalse(tree.contains("a"));
+            assertEquals(4, tree.size());
+            assertValidRedBlackTree(tree);
+
+            java.util.Random random = new java.util.Random(11);
+            RedBlackTree<Integer> numbers = new RedBlackTree<>();
+            java.util.TreeSet<Integer> expected = new java.util.TreeSet<>();
+            for (int i = 0; i < 5000; i++) {
+                int value = random.nextInt(3000);
+                assertEquals(expected.add(value), numbers.tryInsert(value));
+            }
+            assertEquals(expected, numbers);
+            assertValidRedBlackTree(numbers);
+        }
+
+        /**
+         * Checks split, join and the set operations against java.util.TreeSet,
+         * with sizes that take both the sequential and the parallel path.
+         */
+        @Test
+        public void test12() {
+            java.util.Random random = new java.util.Random(12);
+            for (int round = 0; round < 30; round++) {
+                java.util.TreeSet<Integer> expected = new java.util.TreeSet<>();
+                RedBlackTree<Integer> tree = new RedBlackTree<>();
+                int count = random.nextInt(round < 20 ? 200 : 20000);
+                for (int i = 0; i < count; i++) {
+                    int value = random.nextInt(3 * count + 1);
+                    expected.add(value);
+                    tree.tryInsert(value);
+                }
+                int key = random.nextInt(3 * count + 1);
+                RedBlackTree<Integer> upper = tree.split(key);
+                assertEquals(expected.headSet(key, false), tree);
+                assertEquals(expected.tailSet(key, true), upper);
+                assertValidRedBlackTree(tree);
+                assertValidRedBlackTree(upper);
+
+                upper.remove(key);
+                RedBlackTree<Integer> joined = join(tree, key, upper);
+                expected.add(key);
+                assertEquals(expected, joined);
+                assertTrue(tree.isEmpty());
+                assertTrue(upper.isEmpty());
+                assertValidRedBlackTree(joined);
+
+                java.util.TreeSet<Integer> other = new java.util.TreeSet<>();
+                int otherCount = random.nextInt(round % 2 == 0 ? 50 : 20000);
+                for (int i = 0; i < otherCount; i++) other.add(random.nextInt(3 * count + 1));
+                java.util.TreeSet<Integer> union = new java.util.TreeSet<>(expected);
+                union.addAll(other);
+                java.util.TreeSet<Integer> intersection = new java.util.TreeSet<>(expected);
+                intersection.retainAll(other);
+                java.util.TreeSet<Integer> difference = new java.util.TreeSet<>(expected);
+                difference.removeAll(other);
+
+                RedBlackTree<Integer> result = union(fromSorted(new java.util.ArrayList<>(expected)),
+                        fromSorted(new java.util.ArrayList<>(other)));
+                assertEquals(union, result);
+                assertValidRedBlackTree(result);
+                result = intersection(fromSorted(new java.util.ArrayList<>(expected)),
+                        fromSorted(new java.util.ArrayList<>(other)));
+                assertEquals(intersection, result);
+                assertValidRedBlackTree(result);
+                result = difference(fromSorted(new java.util.ArrayList<>(expected)),
+                        fromSorted(new java.util.ArrayList<>(other)));
+                assertEquals(difference, result);
+                assertValidRedBlackTree(result);
+            }
+            RedBlackTree<Integer> left = fromSorted(new Integer[] { 1, 2, 3 });
+            RedBlackTree<Integer> right = fromSorted(new Integer[] { 5, 6 });
+            assertThrows(IllegalArgumentException.class, () -> join(left, 3, right));
+            assertThrows(IllegalArgumentException.class, () -> join(left, 4, left));
+            assertThrows(IllegalArgumentException.class, () -> union(left, left));
+            assertEquals("[ 1, 2, 3, 4, 5, 6 ]", join(left, 4, right).toInOrderString());
+        }
+
+        /**
+         * Checks insertNearFinger on ascending, descending, jittered and random
+         * streams against java.util.TreeSet, mixed with removals of the finger.
+         */
+        @Test
+        public void test13() {
+            java.util.Random random = new java.util.Random(13);
+            for (int stream = 0; stream < 4; stream++) {
+                RedBlackTree<Integer> tree = new RedBlackTree<>();
+                java.util.TreeSet<Integer> expected = new java.util.TreeSet<>();
+                for (int i = 0; i < 5000; i++) {
+                    int value;
+                    if (stream == 0) value = i;
+                    else if (stream == 1) value = -i;
+                    else if (stream == 2) value = i + random.nextInt(20) - 10;
+                    else value = random.nextInt(10000);
+                    assertEquals(expected.add(value), tree.insertNearFinger(value));
+                    if (i % 97 == 0) {
+                        expected.remove(value);
+                        tree.remove((Integer) value); // drops the finger
+                    }
+                }
+                assertEquals(expected, tree);
+                assertValidRedBlackTree(tree);
+            }
+            RedBlackTree<Integer> tree = new RedBlackTree<>();
+            for (int i = 0; i < 100; i += 2) tree.insertNearFinger(i);
+            assertFalse(tree.insertNearFinger(50));
+            assertTrue(tree.insertNearFinger(51));
+            assertTrue(tree.insertNearFinger(1));
+            assertFalse(tree.insertNearFinger(98));
+            RedBlackTree<Integer> upper = tree.split(60); // the finger moves to another tree
+            assertTrue(tree.insertNearFinger(59));
+            assertTrue(upper.insertNearFinger(61));
+            assertValidRedBlackTree(tree);
+            assertValidRedBlackTree(upper);
+            assertEquals(33, tree.size());
+            assertEquals(21, upper.size());
+        }
+
+        /**
+         * Value ordered by a long prefix and then by its name, to exercise the
+         * SortPrefixed path of compare.
+         */
+        private static final class Prefixed implements Comparable<Prefixed>, SortPrefixed {
+            final long prefix;
+            final String name;
+            Prefixed(long prefix, String name) { this.prefix = prefix; this.name = name; }
+
+            @Override
+            public long sortPrefix() {
+                return prefix;
+            }
+
+            @Override
+            public int compareTo(Prefixed other) {
+                int compare = Long.compare(prefix, other.prefix);
+                return compare != 0 ? compare : name.compareTo(other.name);
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                return o instanceof Prefixed && compareTo((Prefixed) o) == 0;
+            }
+
+            @Override
+            public int hashCode() {
+                return Long.hashCode(prefix) * 31 + name.hashCode();
+            }
+        }
+
+        /**
+         * Checks trees ordered by a comparator and the natural ordering fast paths
+         * against java.util.TreeSet.
+         */
+        @Test
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        public void test14() {
+            java.util.Random random = new java.util.Random(14);
+            Comparator<Integer> reverse = Comparator.reverseOrder();
+            RedBlackTree<Integer> descending = RedBlackTree.withComparator(reverse);
+            java.util.TreeSet<Integer> expected = new java.util.TreeSet<>(reverse);
+            for (int i = 0; i < 3000; i++) {
+                int value = random.nextInt(1000);
+                if (random.nextInt(4) == 0) assertEquals(expected.remove(value), descending.remove((Integer) value));
+                else assertEquals(expected.add(value), descending.add(value));
+            }
+            assertEquals(new java.util.ArrayList<>(expected), new java.util.ArrayList<>(descending));
+            assertEquals(expected.first(), descending.first());
+            assertEquals(expected.ceiling(500), descending.ceiling(500));
+            assertEquals(new java.util.ArrayList<>(expected.subSet(800, true, 200, false)),
+                    new java.util.ArrayList<>(descending.subSet(800, true, 200, false)));
+            assertValidRedBlackTree(descending);
+            assertSame(reverse, descending.comparator());
+            assertSame(reverse, descending.subSet(800, true, 200, false).comparator());
+            assertSame(reverse, descending.spliterator().getComparator());
+            assertEquals(-1, descending.descendingSet().comparator().compare(1, 2));
+
+            Comparator<String> ignoreCase = String.CASE_INSENSITIVE_ORDER;
+            RedBlackTree<String> names = RedBlackTree.withComparator(ignoreCase);
+            assertTrue(names.add("alpha"));
+            assertFalse(names.add("ALPHA"));
+            assertTrue(names.add("Beta"));
+            assertTrue(names.contains("BETA"));
+            assertEquals("[alpha, Beta]", new java.util.ArrayList<>(names).toString());
+
+            RedBlackTree<Long> longs = new RedBlackTree<>();
+            RedBlackTree<String> strings = new RedBlackTree<>();
+            RedBlackTree<Prefixed> prefixed = new RedBlackTree<>();
+            java.util.TreeSet<Prefixed> expectedPrefixed = new java.util.TreeSet<>();
+            for (int i = 0; i < 2000; i++) {
+                long value = random.nextInt(500) - 250;
+                longs.add(value);
+                strings.add(Long.toString(value));
+                Prefixed p = new Prefixed(value / 10, Long.toString(value));
+                assertEquals(expectedPrefixed.add(p), prefixed.add(p));
+            }
+            assertNull(longs.comparator());
+            assertNull(strings.spliterator().getComparator());
+            assertEquals(new java.util.ArrayList<>(new java.util.TreeSet<>(longs)), new java.util.ArrayList<>(longs));
+            assertEquals(new java.util.ArrayList<>(new java.util.TreeSet<>(strings)), new java.util.ArrayList<>(strings));
+            assertEquals(new java.util.ArrayList<>(expectedPrefixed), new java.util.ArrayList<>(prefixed));
+            assertValidRedBlackTree(longs);
+            assertValidRedBlackTree(strings);
+            assertValidRedBlackTree(prefixed);
+
+            // a value of another type must not fix the kind of an empty tree
+            RedBlackTree raw = new RedBlackTree<Integer>();
+            raw.add(1);
+            assertThrows(ClassCastException.class, () -> raw.contains("1"));
+            raw.add(2);
+            assertTrue(raw.contains(2));
+
+            RedBlackTree<Integer> natural = new RedBlackTree<>();
+            natural.add(1);
+            RedBlackTree<Integer> reversed = RedBlackTree.withComparator(reverse);
+            reversed.add(2);
+            assertThrows(IllegalArgumentException.class, () -> RedBlackTree.union(natural, reversed));
+            RedBlackTree<Integer> other = RedBlackTree.withComparator(reverse);
+            other.add(3);
+            RedBlackTree<Integer> union = RedBlackTree.union(reversed, other);
+            assertEquals("[3, 2]", new java.util.ArrayList<>(union).toString());
+            assertSame(reverse, union.comparator());
+        }
+
+        /**
+         * Checks insertAll with unsorted batches holding duplicates, and the
+         * parallel reduction and traversal against the sequential ones, on trees
+         * large enough to be split into several tasks.
+         */
+        @Test
+        public void test15() {
+            java.util.Random random = new java.util.Random(15);
+            RedBlackTree<Integer> tree = new RedBlackTree<>();
+            java.util.TreeSet<Integer> expected = new java.util.TreeSet<>();
+            for (int i = 0; i < 1000; i++) {
+                int value = random.nextInt(100_000);
+                tree.add(value);
+                expected.add(value);
+            }
+            List<Integer> batch = new ArrayList<>();
+            for (int i = 0; i < 60_000; i++) batch.add(random.nextInt(100_000));
+            int before = expected.size();
+            expected.addAll(batch);
+            assertEquals(expected.size() - before, tree.insertAll(batch));
+            assertEquals(new ArrayList<>(expected), new ArrayList<>(tree));
+            assertValidRedBlackTree(tree);
+            assertEquals(0, tree.insertAll(batch));
+            assertThrows(NullPointerException.class, () -> tree.insertAll(Arrays.asList(1, null)));
+            assertEquals(expected.size(), tree.size());
+
+            RedBlackTree<Integer> descending = RedBlackTree.<Integer>withComparator(Comparator.reverseOrder());
+            assertEquals(3, descending.insertAll(List.of(2, 3, 1, 3)));
+            assertEquals("[3, 2, 1]", new ArrayList<>(descending).toString());
+
+            long sum = tree.parallelReduce(0L, (total, value) -> total + value, Long::sum);
+            assertEquals(tree.stream().mapToLong(Integer::longValue).sum(), sum);
+            // a combiner that is not commutative sees the values in ascending order
+            List<Integer> ordered = tree.<List<Integer>>parallelReduce(new ArrayList<>(), (list, value) -> {
+                List<Integer> copy = new ArrayList<>(list);
+                copy.add(value);
+                return copy;
+            }, (left, right) -> {
+                List<Integer> joined = new ArrayList<>(left);
+                joined.addAll(right);
+                return joined;
+            });
+            assertEquals(new ArrayList<>(expected), ordered);
+            assertEquals("none", new RedBlackTree<Integer>().parallelReduce("none", (text, value) -> text + value,
+                    String::concat));
+
+            java.util.concurrent.atomic.LongAdder visited = new java.util.concurrent.atomic.LongAdder();
+            java.util.concurrent.atomic.LongAdder total = new java.util.concurrent.atomic.LongAdder();
+            tree.parallelForEach(value -> {
+                visited.increment();
+                total.add(value);
+            });
+            assertEquals(tree.size(), visited.intValue());
+            assertEquals(sum, total.sum());
+            // a tree below the threshold is traversed by a single task
+            assertThrows(ConcurrentModificationException.class,
+                    () -> descending.parallelForEach(value -> { if (value == 2) descending.add(0); }));
+        }
+
+        /**
+         * Splits a large tree at watermarks near both ends, in the middle and
+         * beyond the values, and checks the sizes of both trees, which split
+         * counts by walking only the smaller part.
+         */
+        @Test
+        public void test16() {
+            int count = 500_000;
+            List<Integer> evens = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) evens.add(2 * i);
+            RedBlackTree<Integer> tree = new RedBlackTree<>();
+            tree.insertAllSorted(evens.iterator());
+            for (int watermark : new int[] { -1, 1, 7, 2 * (count / 3) + 1, count + 1, 2 * count - 3, 2 * count + 1 }) {
+                RedBlackTree<Integer> upper = tree.split(watermark);
+                int lowerSize = Math.min(Math.max((watermark + 1) / 2, 0), count);
+                assertEquals(lowerSize, tree.size());
+                assertEquals(count - lowerSize, upper.size());
+                if (lowerSize > 0) assertEquals(2 * (lowerSize - 1), tree.last());
+                if (lowerSize < count) assertEquals(2 * lowerSize, upper.first());
+                assertValidRedBlackTree(tree);
+                assertValidRedBlackTree(upper);
+                tree = join(tree, watermark, upper);
+                tree.remove(watermark);
+                assertEquals(count, tree.size());
+            }
+            assertEquals(evens, new ArrayList<>(tree));
+        }
+
+        /**
+         * Asserts the red-black tree properties and parent references of a tree,
+         * and that its size is the number of its nodes.
+         */
+        static <T extends Comparable<T>> void assertValidRedBlackTree(RedBlackTree<T> tree) {
+            int nodes = 0;
+            for (Node<T> node = firstNode(tree.root); node != null; node = successor(node)) nodes++;
+            assertEquals(nodes, tree.size, "size does not match the nodes");
+            if (tree.root == null) return;
+            assertEquals(1, tree.root.blackHeight);
+            assertEquals(null, tree.root.parent);
+            blackHeightOf(tree, tree.root);
+        }
+
+        private static <T extends Comparable<T>> int blackHeightOf(RedBlackTree<T> tree, Node<T> node) {
+            if (node == null) return 1;
+            if (node.blackHeight == 0) {
+                assertTrue(node.leftChild == null || node.leftChild.blackHeight == 1, "red node with red child");
+                assertTrue(node.rightChild == null || node.rightChild.blackHeight == 1, "red node with red child");
+            }
+            if (node.leftChild != null) {
+                assertTrue(node.leftChild.parent == node, "broken parent reference");
+                assertTrue(tree.compare(node.leftChild.data, node.data) < 0, "values out of order");
+            }
+            if (node.rightChild != null) {
+                assertTrue(node.rightChild.parent == node, "broken parent reference");
+                assertTrue(tree.compare(node.rightChild.data, node.data) > 0, "values out of order");
+            }
+            int left = blackHeightOf(tree, node.leftChild);
+            assertEquals(left, blackHeightOf(tree, node.rightChild));
+            return left + node.blackHeight;
+        }
+
     }
 
 
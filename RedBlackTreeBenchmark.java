@@ -0,0 +1,980 @@
+
+    import java.io.IOException;
+    import java.io.UncheckedIOException;
+    import java.lang.management.ManagementFactory;
+    import java.lang.management.ThreadMXBean;
+    import java.nio.file.Files;
+    import java.nio.file.Path;
+    import java.util.ArrayList;
+    import java.util.Arrays;
+    import java.util.Comparator;
+    import java.util.HashMap;
+    import java.util.Iterator;
+    import java.util.List;
+    import java.util.Random;
+    import java.util.concurrent.CountDownLatch;
+    import java.util.function.IntFunction;
+    import java.util.function.IntSupplier;
+
+    /**
+     * Stand-alone benchmark harness for the RedBlackTree class. Each scenario is
+     * run for a number of warmup rounds followed by measured rounds, and the
+     * median round is reported as throughput (operations per second), allocation
+     * rate (bytes allocated by the benchmark thread per operation) and the height
+     * of the tree the scenario ran against. The keys are boxed before the
+     * timed region. The key streams are public: the JMH benchmarks of the jmh
+     * module draw the same ones.
+     *
+     * Usage: java RedBlackTreeBenchmark [--sizes 1000,10000,...] [--rounds n]
+     *                                   [--traversal-max n]
+     * (--traversal-max skips the traversal scenarios above the given size)
+     * Large sizes need a matching heap, e.g. -Xmx4g for 10M elements.
+     */
+    public class RedBlackTreeBenchmark {
+
+        private static final int WARMUP_ROUNDS = 3;
+        private static final long SEED = 42L;
+        private static final double ZIPF_EXPONENT = 1.0;
+
+        private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+        /**
+         * A single timed unit of work. Implementations return the number of
+         * operations they performed so that throughput can be derived.
+         */
+        private interface Body {
+            long run();
+        }
+
+        /**
+         * Builds the (untimed) state a Body runs against.
+         */
+        private interface Setup {
+            Body prepare();
+        }
+
+        private static int measuredRounds = 5;
+        private static int traversalMax = Integer.MAX_VALUE;
+
+        public static void main(String[] args) {
+            int[] sizes = { 1_000, 10_000, 100_000, 1_000_000 };
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--sizes")) {
+                    sizes = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray();
+                } else if (args[i].equals("--rounds")) {
+                    measuredRounds = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--traversal-max")) {
+                    traversalMax = Integer.parseInt(args[++i]);
+                } else {
+                    throw new IllegalArgumentException("Unknown argument: " + args[i]);
+                }
+            }
+
+            System.out.printf("%-28s %10s %16s %14s %8s%n",
+                    "scenario", "size", "ops/s", "bytes/op", "height");
+            for (int size : sizes) {
+                runInsertScenarios(size);
+                runContainsScenarios(size);
+                runPrimitiveScenarios(size);
+                runConcurrentScenarios(size);
+                runMapScenarios(size);
+                runSetOperationScenarios(size);
+                runSnapshotScenarios(size);
+                runDurableScenarios(size);
+                runIntervalScenarios(size);
+                runTraversalScenarios(size);
+            }
+        }
+
+        private static void runInsertScenarios(int size) {
+            Integer[] random = boxed(randomKeys(size));
+            insertScenario("insert/random", random);
+            // the same keys and tree shape through the recursive descent of before
+            RecursiveRedBlackTree<Integer>[] recursive = recursiveHolder();
+            report("insert/random/recursive", size, () -> {
+                RecursiveRedBlackTree<Integer> tree = new RecursiveRedBlackTree<>();
+                recursive[0] = tree;
+                return () -> {
+                    for (Integer key : random) tree.insertRecursively(key);
+                    return random.length;
+                };
+            }, () -> height(recursive[0]));
+            insertScenario("insert/ascending", boxed(ascendingKeys(size)));
+            insertScenario("insert/descending", boxed(descendingKeys(size)));
+            insertScenario("insert/zipf", boxed(zipfKeys(size)));
+
+            Integer[] jitter = boxed(jitterKeys(size));
+            insertScenario("insert/jitter", jitter);
+            fingerScenario("insertNearFinger/ascending", boxed(ascendingKeys(size)));
+            fingerScenario("insertNearFinger/jitter", jitter);
+            fingerScenario("insertNearFinger/random", random);
+
+            RedBlackTree<Integer>[] measured = holder();
+            report("insert/random/metrics", size, () -> {
+                RedBlackTree<Integer> tree = new RedBlackTree<>();
+                tree.enableMetrics();
+                measured[0] = tree;
+                return () -> {
+                    for (Integer key : random) tree.tryInsert(key);
+                    return random.length;
+                };
+            }, () -> height(measured[0]));
+            // against insert/random, the cost of the subtree sizes
+            RedBlackTree<Integer>[] ranked = holder();
+            report("orderStatistic/insert/random", size, () -> {
+                RedBlackTree<Integer> tree = new OrderStatisticTree<>();
+                ranked[0] = tree;
+                return () -> {
+                    for (Integer key : random) tree.tryInsert(key);
+                    return random.length;
+                };
+            }, () -> height(ranked[0]));
+            // bytes/op against insert/random is the node size difference
+            report("compact/insert/random", size, () -> {
+                CompactRedBlackTree<Integer> tree = new CompactRedBlackTree<>();
+                return () -> {
+                    for (Integer key : random) tree.add(key);
+                    return random.length;
+                };
+            }, () -> 0);
+            report("persistent/insert/random", size, () -> {
+                PersistentRedBlackTree<Integer> tree = new PersistentRedBlackTree<>();
+                return () -> {
+                    for (Integer key : random) tree.insert(key);
+                    return random.length;
+                };
+            }, () -> 0);
+
+            Integer[] sorted = new Integer[size];
+            for (int i = 0; i < size; i++) sorted[i] = i;
+            Integer[] removals = boxed(randomKeys(size));
+            report("remove/random", size, () -> {
+                RedBlackTree<Integer> tree = RedBlackTree.fromSorted(sorted);
+                return () -> {
+                    for (Integer key : removals) tree.remove(key);
+                    if (!tree.isEmpty()) throw new IllegalStateException("remove missed a value");
+                    return removals.length;
+                };
+            }, () -> 0);
+            report("pollFirst", size, () -> {
+                RedBlackTree<Integer> tree = RedBlackTree.fromSorted(sorted);
+                return () -> {
+                    while (tree.pollFirst() != null) { }
+                    return size;
+                };
+            }, () -> 0);
+
+            RedBlackTree<Integer>[] last = holder();
+            report("bulk/fromSorted", size, () -> () -> {
+                last[0] = RedBlackTree.fromSorted(sorted);
+                return size;
+            }, () -> height(last[0]));
+            // an unsorted batch with repeats, against insert/random
+            List<Integer> batch = new ArrayList<>(size);
+            batch.addAll(Arrays.asList(random));
+            report("bulk/insertAll/random", size, () -> () -> {
+                RedBlackTree<Integer> tree = new RedBlackTree<>();
+                tree.insertAll(batch);
+                last[0] = tree;
+                return size;
+            }, () -> height(last[0]));
+
+            // top 1000 of a stream, against trimming an unbounded tree with pollFirst
+            int top = 1000;
+            report("bounded/add/top1000", size, () -> {
+                BoundedRedBlackTree<Integer> tree = BoundedRedBlackTree.withCapacity(top);
+                last[0] = tree;
+                return () -> {
+                    for (Integer key : random) tree.add(key);
+                    return random.length;
+                };
+            }, () -> height(last[0]));
+            report("trimmed/add/top1000", size, () -> {
+                RedBlackTree<Integer> tree = new RedBlackTree<>();
+                last[0] = tree;
+                return () -> {
+                    for (Integer key : random) {
+                        if (tree.add(key) && tree.size() > top) tree.pollFirst();
+                    }
+                    return random.length;
+                };
+            }, () -> height(last[0]));
+        }
+
+        /**
+         * Inserts keys into an empty tree through tryInsert, which takes the
+         * same path as insert but returns false for the repeated keys of the
+         * skewed streams instead of throwing.
+         */
+        private static void insertScenario(String name, Integer[] keys) {
+            RedBlackTree<Integer>[] last = holder();
+            report(name, keys.length, () -> {
+                RedBlackTree<Integer> tree = new RedBlackTree<>();
+                last[0] = tree;
+                return () -> {
+                    for (Integer key : keys) tree.tryInsert(key);
+                    return keys.length;
+                };
+            }, () -> height(last[0]));
+        }
+
+        private static void fingerScenario(String name, Integer[] keys) {
+            RedBlackTree<Integer>[] last = holder();
+            report(name, keys.length, () -> {
+                RedBlackTree<Integer> tree = new RedBlackTree<>();
+                last[0] = tree;
+                return () -> {
+                    for (Integer key : keys) tree.insertNearFinger(key);
+                    return keys.length;
+                };
+            }, () -> height(last[0]));
+        }
+
+        private static void runContainsScenarios(int size) {
+            int[] keys = randomKeys(size);
+            RedBlackTree<Integer> tree = new RedBlackTree<>();
+            for (int key : keys) tree.insert(key * 2); // even keys are hits, odd keys are misses
+
+            Integer[] hits = new Integer[size];
+            Integer[] misses = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                hits[i] = keys[i] * 2;
+                misses[i] = keys[i] * 2 + 1;
+            }
+            report("contains/hit", size, () -> () -> {
+                int found = 0;
+                for (Integer key : hits) if (tree.contains(key)) found++;
+                if (found != hits.length) throw new IllegalStateException("missing hit");
+                return hits.length;
+            }, () -> height(tree));
+            RedBlackTree<Integer> measured = new RedBlackTree<>();
+            for (int key : keys) measured.insert(key * 2);
+            measured.enableMetrics();
+            report("contains/hit/metrics", size, () -> () -> {
+                int found = 0;
+                for (Integer key : hits) if (measured.contains(key)) found++;
+                if (found != hits.length) throw new IllegalStateException("missing hit");
+                return hits.length;
+            }, () -> height(measured));
+            report("contains/miss", size, () -> () -> {
+                int found = 0;
+                for (Integer key : misses) if (tree.contains(key)) found++;
+                if (found != 0) throw new IllegalStateException("unexpected hit");
+                return misses.length;
+            }, () -> height(tree));
+            // the recursive lookup of before, on a tree of the same shape
+            RecursiveRedBlackTree<Integer> recursive = new RecursiveRedBlackTree<>();
+            for (Integer key : hits) recursive.insertRecursively(key);
+            if (!recursive.toLevelOrderString().equals(tree.toLevelOrderString())) {
+                throw new IllegalStateException("the recursive insert built another tree");
+            }
+            report("contains/hit/recursive", size, () -> () -> {
+                int found = 0;
+                for (Integer key : hits) if (recursive.containsRecursively(key)) found++;
+                if (found != hits.length) throw new IllegalStateException("missing hit");
+                return hits.length;
+            }, () -> height(recursive));
+            report("contains/miss/recursive", size, () -> () -> {
+                int found = 0;
+                for (Integer key : misses) if (recursive.containsRecursively(key)) found++;
+                if (found != 0) throw new IllegalStateException("unexpected hit");
+                return misses.length;
+            }, () -> height(recursive));
+            OrderStatisticTree<Integer> ranked = new OrderStatisticTree<>();
+            for (int key : keys) ranked.insert(key * 2);
+            report("rank", size, () -> () -> {
+                long sum = 0;
+                for (Integer key : misses) sum += ranked.rank(key);
+                if (sum < 0) throw new IllegalStateException();
+                return misses.length;
+            }, () -> height(ranked));
+            Integer[] scanEnds = new Integer[Math.max(size / 100, 1)];
+            for (int i = 0; i < scanEnds.length; i++) scanEnds[i] = hits[i] + 200;
+            report("range/scan100", size, () -> () -> {
+                long sum = 0;
+                for (int i = 0; i < scanEnds.length; i++) {
+                    for (Integer value : tree.subSet(hits[i], true, scanEnds[i], false)) sum += value;
+                }
+                if (sum < 0) throw new IllegalStateException();
+                return scanEnds.length;
+            }, () -> height(tree));
+            report("select", size, () -> () -> {
+                long sum = 0;
+                for (int key : keys) sum += ranked.select(key);
+                if (sum < 0) throw new IllegalStateException();
+                return keys.length;
+            }, () -> height(ranked));
+            CompactRedBlackTree<Integer> compact = new CompactRedBlackTree<>();
+            for (int key : keys) compact.add(key * 2);
+            report("compact/contains/hit", size, () -> () -> {
+                int found = 0;
+                for (Integer key : hits) if (compact.contains(key)) found++;
+                if (found != hits.length) throw new IllegalStateException("missing hit");
+                return hits.length;
+            }, () -> 0);
+            mixedContainsScenario("contains/mixed", size, false);
+            mixedContainsScenario("contains/mixed/comparator", size, true);
+        }
+
+        /**
+         * Looks values up in an Integer, a Long, a String and an Id tree in turn,
+         * so the comparisons of one run see four key types. With viaComparator
+         * the trees are ordered by Comparator.naturalOrder(), which sends every
+         * comparison through the same compareTo call instead of the per-type
+         * paths of RedBlackTree.compare.
+         */
+        private static void mixedContainsScenario(String name, int size, boolean viaComparator) {
+            int[] keys = randomKeys(size);
+            List<RedBlackTree<?>> trees = new ArrayList<>();
+            List<Object[]> probes = new ArrayList<>();
+            addMixedTree(trees, probes, keys, key -> key, viaComparator);
+            addMixedTree(trees, probes, keys, key -> (long) key << 20, viaComparator);
+            addMixedTree(trees, probes, keys, key -> "key" + key, viaComparator);
+            addMixedTree(trees, probes, keys, Id::new, viaComparator);
+            report(name, size, () -> () -> {
+                int found = 0;
+                for (int i = 0; i < size; i++) {
+                    for (int t = 0; t < trees.size(); t++) if (trees.get(t).contains(probes.get(t)[i])) found++;
+                }
+                if (found != size * trees.size()) throw new IllegalStateException("missing hit");
+                return (long) size * trees.size();
+            }, () -> height(trees.get(0)));
+        }
+
+        private static <T extends Comparable<T>> void addMixedTree(List<RedBlackTree<?>> trees, List<Object[]> probes,
+                int[] keys, IntFunction<T> key, boolean viaComparator) {
+            RedBlackTree<T> tree = viaComparator ? RedBlackTree.<T>withComparator(Comparator.naturalOrder()) : new RedBlackTree<>();
+            Object[] values = new Object[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                T value = key.apply(keys[i]);
+                tree.add(value);
+                values[i] = value;
+            }
+            trees.add(tree);
+            probes.add(values);
+        }
+
+        /**
+         * RedBlackTree with the recursive insertHelper and containsHelper that
+         * insert and contains used before their descents became loops. The new
+         * node is linked and fixed up like in RedBlackTree, so both build the
+         * same tree from the same keys and their rows only differ in the
+         * recursion.
+         */
+        static final class RecursiveRedBlackTree<T extends Comparable<T>> extends RedBlackTree<T> {
+
+            /**
+             * Inserts data like insert, through a call per level.
+             * @return true if the value was inserted, false if it was already stored
+             */
+            boolean insertRecursively(T data) {
+                Node<T> newNode = newNode(data);
+                if (root == null) {
+                    newNode.blackHeight = 1;
+                    root = newNode;
+                } else if (!insertHelper(newNode, root)) {
+                    return false;
+                }
+                size++;
+                modCount++;
+                return true;
+            }
+
+            private boolean insertHelper(Node<T> newNode, Node<T> subtree) {
+                int compare = compare(newNode.data, subtree.data);
+                // do not allow duplicate values to be stored within this tree
+                if (compare == 0) return false;
+                Node<T> next = compare < 0 ? subtree.leftChild : subtree.rightChild;
+                if (next != null) return insertHelper(newNode, next);
+                if (compare < 0) subtree.leftChild = newNode;
+                else subtree.rightChild = newNode;
+                newNode.parent = subtree;
+                enforceRBTreePropertiesAfterInsert(newNode);
+                return true;
+            }
+
+            /**
+             * Looks data up like contains, through a call per level.
+             */
+            boolean containsRecursively(T data) {
+                return containsHelper(data, root);
+            }
+
+            private boolean containsHelper(T data, Node<T> subtree) {
+                if (subtree == null) return false;
+                int compare = compare(data, subtree.data);
+                if (compare < 0) return containsHelper(data, subtree.leftChild);
+                if (compare > 0) return containsHelper(data, subtree.rightChild);
+                return true;
+            }
+        }
+
+        /**
+         * Plain Comparable key, standing in for application key classes.
+         */
+        private static final class Id implements Comparable<Id> {
+            private final int id;
+            Id(int id) { this.id = id; }
+
+            @Override
+            public int compareTo(Id other) {
+                return Integer.compare(id, other.id);
+            }
+        }
+
+        /**
+         * Runs the random insert and the contains scenarios against the
+         * primitive-specialized LongRedBlackTree, for comparison with the boxed
+         * RedBlackTree numbers, and against the wide-node LongBTree, whose
+         * height column is the number of nodes a lookup reads. Every node is
+         * three or four cache lines: its keys straddle two lines of the keys
+         * array and its count and children are in the links array.
+         */
+        private static void runPrimitiveScenarios(int size) {
+            int[] keys = randomKeys(size);
+            LongRedBlackTree[] last = new LongRedBlackTree[1];
+            report("long/insert/random", size, () -> {
+                LongRedBlackTree tree = new LongRedBlackTree();
+                last[0] = tree;
+                return () -> {
+                    for (int key : keys) tree.insert(key);
+                    return keys.length;
+                };
+            }, () -> last[0].height());
+
+            LongRedBlackTree tree = LongRedBlackTree.withCapacity(size);
+            for (int key : keys) tree.insert(key * 2L);
+            report("long/contains/hit", size, () -> () -> {
+                int found = 0;
+                for (int key : keys) if (tree.contains(key * 2L)) found++;
+                if (found != keys.length) throw new IllegalStateException("missing hit");
+                return keys.length;
+            }, tree::height);
+            report("long/contains/miss", size, () -> () -> {
+                int found = 0;
+                for (int key : keys) if (tree.contains(key * 2L + 1)) found++;
+                if (found != 0) throw new IllegalStateException("unexpected hit");
+                return keys.length;
+            }, tree::height);
+
+            LongBTree[] lastBTree = new LongBTree[1];
+            report("btree/insert/random", size, () -> {
+                LongBTree bTree = new LongBTree();
+                lastBTree[0] = bTree;
+                return () -> {
+                    for (int key : keys) bTree.insert(key);
+                    return keys.length;
+                };
+            }, () -> lastBTree[0].height());
+
+            LongBTree bTree = LongBTree.withCapacity(size / LongBTree.MIN_KEYS);
+            for (int key : keys) bTree.insert(key * 2L);
+            report("btree/contains/hit", size, () -> () -> {
+                int found = 0;
+                for (int key : keys) if (bTree.contains(key * 2L)) found++;
+                if (found != keys.length) throw new IllegalStateException("missing hit");
+                return keys.length;
+            }, bTree::height);
+            report("btree/contains/miss", size, () -> () -> {
+                int found = 0;
+                for (int key : keys) if (bTree.contains(key * 2L + 1)) found++;
+                if (found != 0) throw new IllegalStateException("unexpected hit");
+                return keys.length;
+            }, bTree::height);
+
+            OffHeapLongRedBlackTree[] offHeap = new OffHeapLongRedBlackTree[1];
+            report("offheap/insert/random", size, () -> {
+                if (offHeap[0] != null) offHeap[0].close();
+                OffHeapLongRedBlackTree fresh = new OffHeapLongRedBlackTree();
+                offHeap[0] = fresh;
+                return () -> {
+                    for (int key : keys) fresh.insert(key * 2L);
+                    return keys.length;
+                };
+            }, () -> offHeap[0].height());
+            report("offheap/contains/hit", size, () -> () -> {
+                int found = 0;
+                for (int key : keys) if (offHeap[0].contains(key * 2L)) found++;
+                if (found != keys.length) throw new IllegalStateException("missing hit");
+                return keys.length;
+            }, () -> offHeap[0].height());
+            offHeap[0].close();
+        }
+
+        /**
+         * Stabbing queries against an IntervalTree of short random intervals,
+         * against a scan over the same intervals.
+         */
+        private static void runIntervalScenarios(int size) {
+            Random random = new Random(SEED);
+            IntervalTree<Integer> tree = new IntervalTree<>();
+            List<IntervalTree.Interval<Integer>> intervals = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                int start = random.nextInt(10 * size);
+                IntervalTree.Interval<Integer> interval = new IntervalTree.Interval<>(start, start + random.nextInt(100));
+                if (tree.add(interval)) intervals.add(interval);
+            }
+            Integer[] points = new Integer[1000];
+            for (int i = 0; i < points.length; i++) points[i] = random.nextInt(10 * size);
+            report("interval/stabbing", size, () -> () -> {
+                long found = 0;
+                for (Integer point : points) {
+                    for (Iterator<IntervalTree.Interval<Integer>> it = tree.stabbing(point); it.hasNext(); it.next()) found++;
+                }
+                if (found < 0) throw new IllegalStateException();
+                return points.length;
+            }, () -> height(tree));
+            report("interval/scan", size, () -> () -> {
+                long found = 0;
+                for (Integer point : points) {
+                    for (IntervalTree.Interval<Integer> interval : intervals) if (interval.overlaps(point, point)) found++;
+                }
+                if (found < 0) throw new IllegalStateException();
+                return points.length;
+            }, () -> 0);
+        }
+
+        /**
+         * Cold start: rebuilding a tree by replaying its keys through insert,
+         * against writing it to a snapshot file and loading that file.
+         */
+        private static void runSnapshotScenarios(int size) {
+            Integer[] keys = boxed(randomKeys(size));
+            RedBlackTree<Integer> tree = new RedBlackTree<>();
+            for (Integer key : keys) tree.add(key);
+            Path file;
+            try {
+                file = Files.createTempFile("benchmark", ".rbt");
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            report("replay/insert", size, () -> () -> {
+                RedBlackTree<Integer> replayed = new RedBlackTree<>();
+                for (Integer key : keys) replayed.add(key);
+                return keys.length;
+            }, () -> height(tree));
+            report("snapshot/write", size, () -> () -> {
+                try {
+                    tree.writeSnapshot(file, KeyCodec.INTEGER);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return tree.size();
+            }, () -> height(tree));
+            report("snapshot/load", size, () -> () -> {
+                try {
+                    return RedBlackTree.loadSnapshot(file, KeyCodec.INTEGER).size();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, () -> height(tree));
+            try {
+                Files.delete(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Adds through a DurableRedBlackTree against a ConcurrentRedBlackTree on
+         * 1, 4, 16 and 64 writer threads, and in batches of 100 through addAll.
+         * Every durable add waits for a force of the log, so these scenarios add
+         * at most 20,000 values per round.
+         */
+        private static void runDurableScenarios(int size) {
+            Integer[] keys = boxed(randomKeys(Math.min(size, 20_000)));
+            for (int threads : new int[] { 1, 4, 16, 64 }) {
+                report("concurrent/add/t" + threads, size, () -> {
+                    ConcurrentRedBlackTree<Integer> tree = new ConcurrentRedBlackTree<>();
+                    return () -> {
+                        writers(threads, keys, tree::add);
+                        return keys.length;
+                    };
+                }, () -> 0);
+                List<Path> directories = new ArrayList<>();
+                List<DurableRedBlackTree<Integer>> opened = new ArrayList<>();
+                report("durable/add/t" + threads, size, () -> {
+                    try {
+                        Path directory = Files.createTempDirectory("benchmark");
+                        directories.add(directory);
+                        DurableRedBlackTree<Integer> tree = DurableRedBlackTree.open(directory, KeyCodec.INTEGER);
+                        opened.add(tree);
+                        return () -> {
+                            writers(threads, keys, key -> {
+                                try {
+                                    tree.add(key);
+                                } catch (IOException e) {
+                                    throw new UncheckedIOException(e);
+                                }
+                            });
+                            return keys.length;
+                        };
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, () -> 0);
+                if (threads == 1) {
+                    report("durable/addAll/100", size, () -> {
+                        try {
+                            Path directory = Files.createTempDirectory("benchmark");
+                            directories.add(directory);
+                            DurableRedBlackTree<Integer> tree = DurableRedBlackTree.open(directory, KeyCodec.INTEGER);
+                            opened.add(tree);
+                            List<List<Integer>> batches = new ArrayList<>();
+                            for (int i = 0; i < keys.length; i += 100) {
+                                batches.add(Arrays.asList(keys).subList(i, Math.min(i + 100, keys.length)));
+                            }
+                            return () -> {
+                                try {
+                                    for (List<Integer> batch : batches) tree.addAll(batch);
+                                } catch (IOException e) {
+                                    throw new UncheckedIOException(e);
+                                }
+                                return keys.length;
+                            };
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }, () -> 0);
+                }
+                try {
+                    for (DurableRedBlackTree<Integer> tree : opened) tree.close();
+                    for (Path directory : directories) {
+                        try (java.util.stream.Stream<Path> files = Files.list(directory)) {
+                            for (Path file : (Iterable<Path>) files::iterator) Files.delete(file);
+                        }
+                        Files.delete(directory);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        /**
+         * Splits keys between the given number of threads, which pass their
+         * share to writer.
+         */
+        private static void writers(int threads, Integer[] keys, java.util.function.Consumer<Integer> writer) {
+            java.util.concurrent.atomic.AtomicInteger next = new java.util.concurrent.atomic.AtomicInteger();
+            readers(threads, () -> {
+                for (int i = next.getAndIncrement(); i < keys.length; i = next.getAndIncrement()) writer.accept(keys[i]);
+            });
+        }
+
+        /**
+         * Runs split followed by join at random keys, and the join-based union
+         * of a tree with an equally large and with a 100 times smaller tree,
+         * against adding the smaller tree's values one by one. The trees are
+         * built outside of the timed region.
+         */
+        private static void runSetOperationScenarios(int size) {
+            int[] keys = randomKeys(size);
+            RedBlackTree<Integer>[] tree = holder();
+            tree[0] = new RedBlackTree<>();
+            for (int key : keys) tree[0].insert(key * 2);
+            Integer[] cuts = new Integer[Math.min(size, 10_000)];
+            for (int i = 0; i < cuts.length; i++) cuts[i] = keys[i] * 2 + 1;
+            report("split+join", size, () -> () -> {
+                for (Integer key : cuts) {
+                    RedBlackTree<Integer> upper = tree[0].split(key);
+                    tree[0] = RedBlackTree.join(tree[0], key, upper);
+                    tree[0].remove(key);
+                }
+                return cuts.length;
+            }, () -> height(tree[0]));
+
+            Integer[] evens = new Integer[size];
+            Integer[] odds = new Integer[size];
+            Integer[] sparse = new Integer[Math.max(size / 100, 1)];
+            for (int i = 0; i < size; i++) {
+                evens[i] = i * 2;
+                odds[i] = i * 2 + 1;
+            }
+            for (int i = 0; i < sparse.length; i++) sparse[i] = i * 200 + 1;
+            RedBlackTree<Integer>[] last = holder();
+            report("union/n+n", size, () -> {
+                RedBlackTree<Integer> a = RedBlackTree.fromSorted(evens);
+                RedBlackTree<Integer> b = RedBlackTree.fromSorted(odds);
+                return () -> {
+                    last[0] = RedBlackTree.union(a, b);
+                    return size;
+                };
+            }, () -> height(last[0]));
+            report("union/n+n/100", size, () -> {
+                RedBlackTree<Integer> a = RedBlackTree.fromSorted(evens);
+                RedBlackTree<Integer> b = RedBlackTree.fromSorted(sparse);
+                return () -> {
+                    last[0] = RedBlackTree.union(a, b);
+                    return sparse.length;
+                };
+            }, () -> height(last[0]));
+            report("addAll/n+n/100", size, () -> {
+                RedBlackTree<Integer> a = RedBlackTree.fromSorted(evens);
+                RedBlackTree<Integer> b = RedBlackTree.fromSorted(sparse);
+                last[0] = a;
+                return () -> {
+                    a.addAll(b);
+                    return sparse.length;
+                };
+            }, () -> height(last[0]));
+        }
+
+        /**
+         * Compares RedBlackTreeMap with a RedBlackTree of keys next to a HashMap
+         * holding their payloads. The bytes/op of the put scenarios is the heap
+         * each entry takes, as nothing allocated there becomes garbage and the
+         * keys are boxed before the timed region.
+         */
+        private static void runMapScenarios(int size) {
+            Integer[] keys = boxed(randomKeys(size));
+            report("map/put/random", size, () -> {
+                RedBlackTreeMap<Integer, Integer> map = new RedBlackTreeMap<>();
+                return () -> {
+                    for (Integer key : keys) map.put(key, key);
+                    return keys.length;
+                };
+            }, () -> 0);
+            report("tree+hashmap/put/random", size, () -> {
+                RedBlackTree<Integer> tree = new RedBlackTree<>();
+                HashMap<Integer, Integer> payloads = new HashMap<>();
+                return () -> {
+                    for (Integer key : keys) {
+                        tree.tryInsert(key);
+                        payloads.put(key, key);
+                    }
+                    return keys.length;
+                };
+            }, () -> 0);
+
+            RedBlackTreeMap<Integer, Integer> map = new RedBlackTreeMap<>();
+            for (Integer key : keys) map.put(key, 0);
+            report("map/merge", size, () -> () -> {
+                for (Integer key : keys) map.merge(key, 1, Integer::sum);
+                return keys.length;
+            }, () -> 0);
+        }
+
+        /**
+         * Runs contains lookups from 1, 4, 16 and 64 reader threads against a
+         * ConcurrentRedBlackTree and, for comparison, against a RedBlackTree where
+         * every call is synchronized. Every thread performs the same number of
+         * lookups, so ops/s is the combined throughput of all readers.
+         */
+        private static void runConcurrentScenarios(int size) {
+            int[] keys = randomKeys(size);
+            ConcurrentRedBlackTree<Integer> concurrent = new ConcurrentRedBlackTree<>();
+            RedBlackTree<Integer> locked = new RedBlackTree<>();
+            for (int key : keys) {
+                concurrent.insert(key);
+                locked.insert(key);
+            }
+            Integer[] lookups = new Integer[Math.min(size, 100_000)];
+            for (int i = 0; i < lookups.length; i++) lookups[i] = keys[i];
+
+            for (int threads : new int[] { 1, 4, 16, 64 }) {
+                report("concurrent/contains/t" + threads, size, () -> () -> readers(threads, () -> {
+                    for (Integer key : lookups) {
+                        if (!concurrent.contains(key)) throw new IllegalStateException("missing hit");
+                    }
+                }) * lookups.length, () -> height(locked));
+                report("synchronized/contains/t" + threads, size, () -> () -> readers(threads, () -> {
+                    for (Integer key : lookups) {
+                        synchronized (locked) {
+                            if (!locked.contains(key)) throw new IllegalStateException("missing hit");
+                        }
+                    }
+                }) * lookups.length, () -> height(locked));
+            }
+        }
+
+        /**
+         * Runs reader on the given number of threads, released together.
+         * @return the number of threads
+         */
+        private static long readers(int threads, Runnable reader) {
+            CountDownLatch start = new CountDownLatch(1);
+            Thread[] workers = new Thread[threads];
+            for (int i = 0; i < threads; i++) {
+                workers[i] = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    reader.run();
+                });
+                workers[i].start();
+            }
+            start.countDown();
+            try {
+                for (Thread worker : workers) worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+            return threads;
+        }
+
+        private static void runTraversalScenarios(int size) {
+            if (size > traversalMax) return;
+            RedBlackTree<Integer> tree = new RedBlackTree<>();
+            for (int key : randomKeys(size)) tree.insert(key);
+            report("toInOrderString", size, () -> () -> {
+                if (tree.toInOrderString().isEmpty()) throw new IllegalStateException();
+                return size;
+            }, () -> height(tree));
+            report("toLevelOrderString", size, () -> () -> {
+                if (tree.toLevelOrderString().isEmpty()) throw new IllegalStateException();
+                return size;
+            }, () -> height(tree));
+            report("iterator", size, () -> () -> {
+                long sum = 0;
+                for (Integer value : tree) sum += value;
+                if (sum < 0) throw new IllegalStateException();
+                return size;
+            }, () -> height(tree));
+            report("stream/parallel/sum", size, () -> () -> {
+                if (tree.parallelStream().mapToLong(Integer::longValue).sum() < 0) throw new IllegalStateException();
+                return size;
+            }, () -> height(tree));
+            report("parallelReduce/sum", size, () -> () -> {
+                if (tree.parallelReduce(0L, (sum, value) -> sum + value, Long::sum) < 0) throw new IllegalStateException();
+                return size;
+            }, () -> height(tree));
+        }
+
+        /**
+         * Runs the warmup and measured rounds of a scenario and prints the median
+         * measured round.
+         * @param name of the scenario
+         * @param size number of elements the scenario works on
+         * @param setup creates the state for each round outside of the timed region
+         * @param height reports the height of the tree the scenario ran against
+         */
+        private static void report(String name, int size, Setup setup, IntSupplier height) {
+            for (int i = 0; i < WARMUP_ROUNDS; i++) setup.prepare().run();
+
+            double[] opsPerSecond = new double[measuredRounds];
+            double[] bytesPerOp = new double[measuredRounds];
+            for (int i = 0; i < measuredRounds; i++) {
+                Body body = setup.prepare();
+                long allocatedBefore = allocatedBytes();
+                long start = System.nanoTime();
+                long ops = body.run();
+                long elapsed = System.nanoTime() - start;
+                long allocated = allocatedBytes() - allocatedBefore;
+                opsPerSecond[i] = ops * 1e9 / elapsed;
+                bytesPerOp[i] = (double) allocated / ops;
+            }
+            Arrays.sort(opsPerSecond);
+            Arrays.sort(bytesPerOp);
+            System.out.printf("%-28s %10d %16.0f %14.1f %8d%n", name, size,
+                    opsPerSecond[measuredRounds / 2], bytesPerOp[measuredRounds / 2], height.getAsInt());
+        }
+
+        /**
+         * @return the number of bytes allocated so far by the current thread, or 0
+         *      when the JVM does not support allocation accounting
+         */
+        private static long allocatedBytes() {
+            if (THREADS instanceof com.sun.management.ThreadMXBean) {
+                return ((com.sun.management.ThreadMXBean) THREADS)
+                        .getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+            return 0;
+        }
+
+        /**
+         * Computes the height of a tree (number of nodes on its longest root to
+         * leaf path) with RedBlackTree.height, a recursive walk over every node.
+         */
+        static int height(RedBlackTree<?> tree) {
+            return tree == null ? 0 : tree.height();
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private static RedBlackTree<Integer>[] holder() {
+            return (RedBlackTree<Integer>[]) new RedBlackTree[1];
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private static RecursiveRedBlackTree<Integer>[] recursiveHolder() {
+            return (RecursiveRedBlackTree<Integer>[]) new RecursiveRedBlackTree[1];
+        }
+
+        /**
+         * Boxes keys ahead of the timed region, so that the scenarios of the
+         * object trees do not measure Integer.valueOf.
+         */
+        public static Integer[] boxed(int[] keys) {
+            Integer[] boxed = new Integer[keys.length];
+            for (int i = 0; i < keys.length; i++) boxed[i] = keys[i];
+            return boxed;
+        }
+
+        public static int[] randomKeys(int size) {
+            // a shuffled permutation so that every key is distinct
+            int[] keys = ascendingKeys(size);
+            Random random = new Random(SEED);
+            for (int i = size - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int swap = keys[i];
+                keys[i] = keys[j];
+                keys[j] = swap;
+            }
+            return keys;
+        }
+
+        public static int[] ascendingKeys(int size) {
+            int[] keys = new int[size];
+            for (int i = 0; i < size; i++) keys[i] = i;
+            return keys;
+        }
+
+        public static int[] descendingKeys(int size) {
+            int[] keys = new int[size];
+            for (int i = 0; i < size; i++) keys[i] = size - 1 - i;
+            return keys;
+        }
+
+        /**
+         * Ascending keys that are shuffled within blocks of 16, like timestamps
+         * that arrive slightly out of order.
+         */
+        public static int[] jitterKeys(int size) {
+            int[] keys = ascendingKeys(size);
+            Random random = new Random(SEED);
+            for (int block = 0; block < size; block += 16) {
+                int end = Math.min(block + 16, size);
+                for (int i = end - 1; i > block; i--) {
+                    int j = block + random.nextInt(i - block + 1);
+                    int swap = keys[i];
+                    keys[i] = keys[j];
+                    keys[j] = swap;
+                }
+            }
+            return keys;
+        }
+
+        /**
+         * Draws size keys from [0, size) following a Zipf distribution, so that
+         * low keys repeat often (the stream contains duplicates).
+         */
+        public static int[] zipfKeys(int size) {
+            double[] cumulative = new double[size];
+            double sum = 0;
+            for (int rank = 1; rank <= size; rank++) {
+                sum += 1.0 / Math.pow(rank, ZIPF_EXPONENT);
+                cumulative[rank - 1] = sum;
+            }
+            Random random = new Random(SEED);
+            int[] keys = new int[size];
+            for (int i = 0; i < size; i++) {
+                int index = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+                keys[i] = index >= 0 ? index : Math.min(-index - 1, size - 1);
+            }
+            return keys;
+        }
+    }
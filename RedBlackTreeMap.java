@@ -0,0 +1,438 @@
+
+    import java.util.AbstractMap;
+    import java.util.AbstractSet;
+    import java.util.Comparator;
+    import java.util.ConcurrentModificationException;
+    import java.util.Iterator;
+    import java.util.Map;
+    import java.util.NoSuchElementException;
+    import java.util.Objects;
+    import java.util.Random;
+    import java.util.Set;
+    import java.util.TreeMap;
+    import java.util.function.BiFunction;
+    import java.util.function.Function;
+    import static org.junit.jupiter.api.Assertions.*;
+    import org.junit.jupiter.api.Test;
+
+    /**
+     * Ordered map on top of RedBlackTree: the keys are stored in a RedBlackTree
+     * whose nodes also hold the value of their key, so every key is stored once
+     * and get, put, merge and compute take a single descent from the root. When
+     * the key is already present its value is replaced in the node, which does
+     * not change the structure of the tree.
+     * This map will not hold null keys, null values are allowed.
+     */
+    public class RedBlackTreeMap<K extends Comparable<K>, V> extends AbstractMap<K, V> {
+
+        /**
+         * Tree node that additionally holds the value of its key. Nodes are moved
+         * and not copied by the tree, so an entry stays valid until its key is
+         * removed.
+         */
+        protected static class MapNode<K, V> extends RedBlackTree.Node<K> implements Map.Entry<K, V> {
+            public V value;
+            public MapNode(K key) { super(key); }
+
+            @Override
+            public K getKey() {
+                return data;
+            }
+
+            @Override
+            public V getValue() {
+                return value;
+            }
+
+            @Override
+            public V setValue(V value) {
+                V old = this.value;
+                this.value = value;
+                return old;
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                if (!(o instanceof Map.Entry)) return false;
+                Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+                return data.equals(entry.getKey()) && Objects.equals(value, entry.getValue());
+            }
+
+            @Override
+            public int hashCode() {
+                return data.hashCode() ^ Objects.hashCode(value);
+            }
+
+            @Override
+            public String toString() {
+                return data + "=" + value;
+            }
+        }
+
+        /**
+         * The key tree, creating a MapNode for every inserted key.
+         */
+        private static final class KeyTree<K extends Comparable<K>, V> extends RedBlackTree<K> {
+            @Override
+            protected Node<K> newNode(K key) {
+                return new MapNode<K, V>(key);
+            }
+        }
+
+        private final KeyTree<K, V> keys = new KeyTree<K, V>();
+        private Set<Map.Entry<K, V>> entrySet;
+
+        /**
+         * Creates an empty map ordered by the natural ordering of its keys.
+         * Use withComparator for any other ordering.
+         */
+        public RedBlackTreeMap() {
+        }
+
+        /**
+         * Creates an empty map ordered by comparator.
+         * @param comparator the ordering of the keys, null for their natural
+         *      ordering
+         */
+        public static <K extends Comparable<K>, V> RedBlackTreeMap<K, V> withComparator(
+                Comparator<? super K> comparator) {
+            RedBlackTreeMap<K, V> map = new RedBlackTreeMap<>();
+            map.keys.setComparator(comparator);
+            return map;
+        }
+
+        /**
+         * @return the comparator ordering the keys, or null for their natural
+         *      ordering
+         */
+        public Comparator<? super K> comparator() {
+            return keys.comparator();
+        }
+
+        /**
+         * Returns the node of key, inserting a node with a null value when key is
+         * absent.
+         */
+        @SuppressWarnings("unchecked")
+        private MapNode<K, V> nodeFor(K key) {
+            return (MapNode<K, V>) keys.findOrInsert(key, null);
+        }
+
+        /**
+         * @return the node of key, or null when key is absent
+         * @throws NullPointerException when key is null
+         * @throws ClassCastException when key cannot be compared with the keys of
+         *      this map
+         */
+        @SuppressWarnings("unchecked")
+        private MapNode<K, V> findNode(Object key) {
+            if (key == null) throw new NullPointerException("This RedBlackTree cannot store null references.");
+            return (MapNode<K, V>) keys.findNode((K) key);
+        }
+
+        @Override
+        public int size() {
+            return keys.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return keys.isEmpty();
+        }
+
+        @Override
+        public void clear() {
+            keys.clear();
+        }
+
+        /**
+         * @throws NullPointerException when key is null
+         */
+        @Override
+        public boolean containsKey(Object key) {
+            return findNode(key) != null;
+        }
+
+        /**
+         * @throws NullPointerException when key is null
+         */
+        @Override
+        public V get(Object key) {
+            MapNode<K, V> node = findNode(key);
+            return node == null ? null : node.value;
+        }
+
+        /**
+         * @throws NullPointerException when key is null
+         */
+        @Override
+        public V getOrDefault(Object key, V defaultValue) {
+            MapNode<K, V> node = findNode(key);
+            return node == null ? defaultValue : node.value;
+        }
+
+        /**
+         * Associates value with key. An existing key keeps its node and only has
+         * its value replaced.
+         * @return the previous value of key, or null when key was absent
+         * @throws NullPointerException when key is null
+         */
+        @Override
+        public V put(K key, V value) {
+            return nodeFor(key).setValue(value);
+        }
+
+        /**
+         * Associates value with key unless key already has a non-null value.
+         * @return the current value of key, or null when value was associated
+         * @throws NullPointerException when key is null
+         */
+        @Override
+        public V putIfAbsent(K key, V value) {
+            MapNode<K, V> node = nodeFor(key);
+            if (node.value == null) node.value = value;
+            else return node.value;
+            return null;
+        }
+
+        /**
+         * @throws NullPointerException when key is null
+         */
+        @Override
+        public V remove(Object key) {
+            MapNode<K, V> node = findNode(key);
+            if (node == null) return null;
+            keys.removeNode(node);
+            return node.value;
+        }
+
+        /**
+         * Combines value with the current value of key, or associates it when key
+         * is absent or has a null value. The key is looked up once; when the
+         * function returns null the key is removed.
+         * @return the new value of key, or null when it was removed
+         * @throws NullPointerException when key, value or function is null
+         */
+        @Override
+        public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> function) {
+            if (value == null || function == null) throw new NullPointerException();
+            MapNode<K, V> node = nodeFor(key);
+            if (node.value == null) return node.value = value;
+            V merged = function.apply(node.value, value);
+            if (merged == null) keys.removeNode(node);
+            else node.value = merged;
+            return merged;
+        }
+
+        /**
+         * Computes the new value of key from its current value (null when absent).
+         * The key is looked up once; when the function returns null the key is
+         * removed, or not added when it was absent.
+         * @return the new value of key, or null when there is none
+         * @throws NullPointerException when key or function is null
+         */
+        @Override
+        public V compute(K key, BiFunction<? super K, ? super V, ? extends V> function) {
+            if (function == null) throw new NullPointerException();
+            int sizeBefore = keys.size();
+            MapNode<K, V> node = nodeFor(key);
+            V computed;
+            try {
+                computed = function.apply(key, node.value);
+            } catch (RuntimeException e) {
+                if (keys.size() != sizeBefore) keys.removeNode(node);
+                throw e;
+            }
+            if (computed == null) keys.removeNode(node);
+            else node.value = computed;
+            return computed;
+        }
+
+        /**
+         * Computes the value of key when it is absent or has a null value. The
+         * key is looked up once; when the function returns null nothing is added.
+         * @return the current (possibly computed) value of key
+         * @throws NullPointerException when key or function is null
+         */
+        @Override
+        public V computeIfAbsent(K key, Function<? super K, ? extends V> function) {
+            if (function == null) throw new NullPointerException();
+            int sizeBefore = keys.size();
+            MapNode<K, V> node = nodeFor(key);
+            if (node.value != null) return node.value;
+            V computed;
+            try {
+                computed = function.apply(key);
+            } catch (RuntimeException e) {
+                if (keys.size() != sizeBefore) keys.removeNode(node);
+                throw e;
+            }
+            if (computed != null) node.value = computed;
+            else if (keys.size() != sizeBefore) keys.removeNode(node);
+            return computed;
+        }
+
+        /**
+         * @return the smallest key of this map
+         * @throws NoSuchElementException when this map is empty
+         */
+        public K firstKey() {
+            return keys.first();
+        }
+
+        /**
+         * @return the largest key of this map
+         * @throws NoSuchElementException when this map is empty
+         */
+        public K lastKey() {
+            return keys.last();
+        }
+
+        /**
+         * @return the entry with the smallest key greater than or equal to key,
+         *      or null when there is none
+         */
+        @SuppressWarnings("unchecked")
+        public Map.Entry<K, V> ceilingEntry(K key) {
+            return (MapNode<K, V>) keys.ceilingNode(Objects.requireNonNull(key), true);
+        }
+
+        /**
+         * @return the entry with the largest key smaller than or equal to key, or
+         *      null when there is none
+         */
+        @SuppressWarnings("unchecked")
+        public Map.Entry<K, V> floorEntry(K key) {
+            return (MapNode<K, V>) keys.floorNode(Objects.requireNonNull(key), true);
+        }
+
+        /**
+         * Returns the entries of this map in ascending key order. The entries are
+         * the nodes of the tree, so setValue writes through to the map.
+         */
+        @Override
+        public Set<Map.Entry<K, V>> entrySet() {
+            if (entrySet == null) entrySet = new EntrySet();
+            return entrySet;
+        }
+
+        private final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return keys.size();
+            }
+
+            @Override
+            public void clear() {
+                keys.clear();
+            }
+        }
+
+        /**
+         * In-order iterator over the nodes of the key tree, failing fast on
+         * concurrent modification like the iterator of RedBlackTree.
+         */
+        private final class EntryIterator implements Iterator<Map.Entry<K, V>> {
+            private RedBlackTree.Node<K> next = RedBlackTree.firstNode(keys.root);
+            private RedBlackTree.Node<K> lastReturned;
+            private int expectedModCount = keys.modCount;
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public Map.Entry<K, V> next() {
+                if (keys.modCount != expectedModCount) throw new ConcurrentModificationException();
+                if (next == null) throw new NoSuchElementException();
+                lastReturned = next;
+                next = RedBlackTree.successor(next);
+                return (MapNode<K, V>) lastReturned;
+            }
+
+            @Override
+            public void remove() {
+                if (lastReturned == null) throw new IllegalStateException();
+                if (keys.modCount != expectedModCount) throw new ConcurrentModificationException();
+                keys.removeNode(lastReturned);
+                lastReturned = null;
+                expectedModCount = keys.modCount;
+            }
+        }
+
+        /**
+         * Checks put, get, merge, compute and remove against a java.util.TreeMap.
+         */
+        @Test
+        public void testAgainstTreeMap() {
+            RedBlackTreeMap<Integer, Integer> map = new RedBlackTreeMap<>();
+            TreeMap<Integer, Integer> expected = new TreeMap<>();
+            Random random = new Random(13);
+            for (int i = 0; i < 20000; i++) {
+                int key = random.nextInt(1000);
+                int value = random.nextInt(100);
+                switch (random.nextInt(6)) {
+                    case 0: assertEquals(expected.put(key, value), map.put(key, value)); break;
+                    case 1: assertEquals(expected.merge(key, value, Integer::sum), map.merge(key, value, Integer::sum)); break;
+                    case 2: assertEquals(expected.compute(key, (k, v) -> v == null || v > 50 ? null : v + 1),
+                            map.compute(key, (k, v) -> v == null || v > 50 ? null : v + 1)); break;
+                    case 3: assertEquals(expected.remove(key), map.remove(key)); break;
+                    case 4: assertEquals(expected.computeIfAbsent(key, k -> k % 2 == 0 ? null : k),
+                            map.computeIfAbsent(key, k -> k % 2 == 0 ? null : k)); break;
+                    default: assertEquals(expected.get(key), map.get(key));
+                }
+            }
+            assertEquals(expected, map);
+            assertEquals(expected.size(), map.size());
+            assertEquals(expected.toString(), map.toString());
+            assertEquals(expected.firstKey(), map.firstKey());
+            assertEquals(expected.lastKey(), map.lastKey());
+            assertEquals(expected.ceilingEntry(500), map.ceilingEntry(500));
+            assertEquals(expected.floorEntry(500), map.floorEntry(500));
+            RedBlackTree.assertValidRedBlackTree(map.keys);
+
+            map.entrySet().removeIf(entry -> entry.getKey() % 3 == 0);
+            expected.entrySet().removeIf(entry -> entry.getKey() % 3 == 0);
+            assertEquals(expected, map);
+            RedBlackTree.assertValidRedBlackTree(map.keys);
+        }
+
+        /**
+         * Checks that updating an existing key changes the value in its node and
+         * leaves the tree structure alone.
+         */
+        @Test
+        public void testUpdateInPlace() {
+            RedBlackTreeMap<String, Integer> map = new RedBlackTreeMap<>();
+            for (String key : new String[] { "d", "b", "f", "a", "c", "e", "g" }) map.put(key, 1);
+            String structure = map.keys.toLevelOrderString();
+            Map.Entry<String, Integer> entry = map.ceilingEntry("c");
+            int modCount = map.keys.modCount;
+
+            assertEquals(1, map.put("c", 2));
+            assertEquals(5, map.merge("c", 3, Integer::sum));
+            assertEquals(6, map.compute("c", (k, v) -> v + 1));
+            assertEquals(6, entry.getValue());
+            entry.setValue(7);
+            assertEquals(7, map.get("c"));
+            assertEquals(structure, map.keys.toLevelOrderString());
+            assertEquals(modCount, map.keys.modCount);
+
+            assertNull(map.compute("x", (k, v) -> null));
+            assertFalse(map.containsKey("x"));
+            assertThrows(IllegalStateException.class, () -> map.compute("y", (k, v) -> {
+                throw new IllegalStateException();
+            }));
+            assertFalse(map.containsKey("y"));
+            assertEquals(7, map.size());
+            assertThrows(NullPointerException.class, () -> map.put(null, 1));
+            RedBlackTree.assertValidRedBlackTree(map.keys);
+        }
+    }
@@ -0,0 +1,273 @@
+
+    import java.io.IOException;
+    import java.nio.BufferUnderflowException;
+    import java.nio.ByteBuffer;
+    import java.nio.MappedByteBuffer;
+    import java.nio.channels.FileChannel;
+    import java.nio.file.Files;
+    import java.nio.file.Path;
+    import java.nio.file.StandardCopyOption;
+    import java.nio.file.StandardOpenOption;
+    import java.util.Comparator;
+    import java.util.Random;
+    import static org.junit.jupiter.api.Assertions.*;
+    import org.junit.jupiter.api.Test;
+
+    /**
+     * Binary snapshot files of a RedBlackTree. A snapshot holds the nodes in
+     * pre-order, each as one flags byte (its color and which children it has)
+     * followed by its value in the format of a KeyCodec. Loading maps the file
+     * into memory and rebuilds every node with its stored color and children in
+     * one pass over the file, so it takes no comparison and no rotation.
+     *
+     * The file starts with a 12 byte header: the magic number, the format version
+     * and the number of nodes. Snapshots are written to a temporary file that
+     * replaces the target only once it is complete, so an interrupted write
+     * leaves the previous snapshot in place. The order of the stored values is
+     * not checked while loading, the file has to come from writeSnapshot with
+     * the same codec and ordering. A snapshot file is limited to 2 GB.
+     */
+    public final class RedBlackTreeSnapshot {
+
+        private static final int MAGIC = 0x52425453; // "RBTS"
+        private static final int VERSION = 1;
+        private static final int HEADER_SIZE = 3 * Integer.BYTES;
+        private static final int BUFFER_SIZE = 1 << 20;
+        // the height of a red-black tree of n nodes is at most 2 * log2(n + 1)
+        private static final int MAX_DEPTH = 2 * Integer.SIZE + 2;
+
+        // bits of the flags byte in front of every value
+        private static final int BLACK = 1, HAS_LEFT = 2, HAS_RIGHT = 4;
+
+        private RedBlackTreeSnapshot() {
+        }
+
+        /**
+         * Buffered pre-order writer over a FileChannel.
+         */
+        private static final class Writer<T> {
+            private final FileChannel channel;
+            private final KeyCodec<? super T> codec;
+            private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+            Writer(FileChannel channel, KeyCodec<? super T> codec) {
+                this.channel = channel;
+                this.codec = codec;
+            }
+
+            void writeNode(RedBlackTree.Node<T> node) throws IOException {
+                int recordSize = 1 + codec.encodedSize(node.data);
+                if (buffer.remaining() < recordSize) {
+                    flush();
+                    // a value larger than the buffer gets a buffer of its own
+                    if (buffer.capacity() < recordSize) buffer = ByteBuffer.allocate(recordSize);
+                }
+                buffer.put((byte) ((node.blackHeight == 1 ? BLACK : 0)
+                        | (node.leftChild != null ? HAS_LEFT : 0)
+                        | (node.rightChild != null ? HAS_RIGHT : 0)));
+                int start = buffer.position();
+                codec.encode(node.data, buffer);
+                if (buffer.position() - start != recordSize - 1) throw new IllegalStateException(
+                        "The codec wrote " + (buffer.position() - start) + " bytes for a value of "
+                        + (recordSize - 1) + " bytes.");
+                if (node.leftChild != null) writeNode(node.leftChild);
+                if (node.rightChild != null) writeNode(node.rightChild);
+            }
+
+            void flush() throws IOException {
+                buffer.flip();
+                while (buffer.hasRemaining()) channel.write(buffer);
+                buffer.clear();
+            }
+        }
+
+        /**
+         * Writes the nodes of tree to file, replacing file once the snapshot is
+         * complete and forced to the storage device. The directory is forced
+         * after the rename, so the new snapshot is durable when this returns.
+         * @throws IOException when the snapshot cannot be written
+         */
+        public static <T extends Comparable<T>> void write(RedBlackTree<T> tree, Path file, KeyCodec<? super T> codec)
+                throws IOException {
+            Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                Writer<T> writer = new Writer<>(channel, codec);
+                writer.buffer.putInt(MAGIC).putInt(VERSION).putInt(tree.size);
+                if (tree.root != null) writer.writeNode(tree.root);
+                writer.flush();
+                channel.force(true);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            forceDirectory(file);
+        }
+
+        /**
+         * Forces the directory holding file to the storage device, so that the
+         * creation or renaming of file survives a crash. Forcing the file itself
+         * only covers its contents, not its directory entry. Windows cannot
+         * open a directory as a channel and is skipped.
+         * @throws IOException when the directory cannot be forced
+         */
+        static void forceDirectory(Path file) throws IOException {
+            if (System.getProperty("os.name").startsWith("Windows")) return;
+            Path directory = file.toAbsolutePath().getParent();
+            try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+                channel.force(true);
+            }
+        }
+
+        /**
+         * Loads a snapshot into a new tree ordered by the natural ordering of
+         * its values.
+         * @throws IOException when file cannot be read, or is not a complete
+         *      snapshot
+         */
+        public static <T extends Comparable<T>> RedBlackTree<T> load(Path file, KeyCodec<T> codec) throws IOException {
+            return load(file, codec, null);
+        }
+
+        /**
+         * Loads a snapshot into a new tree ordered by comparator, which has to be
+         * the ordering of the tree the snapshot was written from.
+         * @throws IOException when file cannot be read, or is not a complete
+         *      snapshot
+         */
+        public static <T extends Comparable<T>> RedBlackTree<T> load(Path file, KeyCodec<T> codec,
+                Comparator<? super T> comparator) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long length = channel.size();
+                if (length > Integer.MAX_VALUE) throw new IOException("Snapshot " + file + " is larger than 2 GB.");
+                MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+                try {
+                    if (in.getInt() != MAGIC) throw new IOException(file + " is not a RedBlackTree snapshot.");
+                    int version = in.getInt();
+                    if (version != VERSION) throw new IOException(
+                            "Snapshot " + file + " has the unsupported version " + version + ".");
+                    int size = in.getInt();
+                    RedBlackTree<T> tree = RedBlackTree.<T>withComparator(comparator);
+                    if (size > 0) tree.root = readNode(in, codec, tree, null, 0);
+                    if (tree.size != size || in.hasRemaining()) throw new IOException(
+                            "Snapshot " + file + " does not hold the " + size + " values of its header.");
+                    return tree;
+                } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException truncated) {
+                    throw new IOException("Snapshot " + file + " is truncated or corrupt.", truncated);
+                }
+            }
+        }
+
+        private static <T extends Comparable<T>> RedBlackTree.Node<T> readNode(ByteBuffer in, KeyCodec<T> codec,
+                RedBlackTree<T> tree, RedBlackTree.Node<T> parent, int depth) throws IOException {
+            if (depth > MAX_DEPTH) throw new IOException("The snapshot is deeper than any red-black tree.");
+            int flags = in.get();
+            if ((flags & ~(BLACK | HAS_LEFT | HAS_RIGHT)) != 0) throw new IOException("Unknown node flags " + flags + ".");
+            RedBlackTree.Node<T> node = tree.newNode(codec.decode(in));
+            node.blackHeight = flags & BLACK;
+            node.parent = parent;
+            if ((flags & HAS_LEFT) != 0) node.leftChild = readNode(in, codec, tree, node, depth + 1);
+            if ((flags & HAS_RIGHT) != 0) node.rightChild = readNode(in, codec, tree, node, depth + 1);
+            tree.updateAugment(node);
+            tree.size++;
+            return node;
+        }
+
+        /**
+         * Writes and loads Integer, Long and String trees and checks that the
+         * loaded trees have the same shape and colors as the written ones.
+         */
+        @Test
+        public void testRoundTrip() throws IOException {
+            Path directory = Files.createTempDirectory("snapshot");
+            try {
+                Random random = new Random(18);
+                RedBlackTree<Integer> ints = new RedBlackTree<>();
+                RedBlackTree<Long> longs = new RedBlackTree<>();
+                RedBlackTree<String> strings = RedBlackTree.<String>withComparator(Comparator.reverseOrder());
+                for (int i = 0; i < 20000; i++) {
+                    int value = random.nextInt(30000) - 15000;
+                    if (random.nextInt(4) == 0) ints.remove((Integer) value);
+                    else ints.add(value);
+                    longs.add((long) value << 33);
+                    if (i < 2000) strings.add("k\u00e9y-\u4e2d-\ud83d\ude00-" + value);
+                }
+                Path file = directory.resolve("ints.rbt");
+                ints.writeSnapshot(file, KeyCodec.INTEGER);
+                assertSameTree(ints.root, RedBlackTree.loadSnapshot(file, KeyCodec.INTEGER).root);
+                RedBlackTree<Integer> loaded = RedBlackTree.loadSnapshot(file, KeyCodec.INTEGER);
+                assertEquals(ints, loaded);
+                RedBlackTree.assertValidRedBlackTree(loaded);
+                loaded.add(Integer.MAX_VALUE);
+                assertTrue(loaded.remove((Object) ints.first()));
+                RedBlackTree.assertValidRedBlackTree(loaded);
+
+                longs.writeSnapshot(file, KeyCodec.LONG); // replaces the previous snapshot
+                assertSameTree(longs.root, RedBlackTree.loadSnapshot(file, KeyCodec.LONG).root);
+
+                strings.writeSnapshot(file, KeyCodec.STRING);
+                RedBlackTree<String> loadedStrings = load(file, KeyCodec.STRING, Comparator.reverseOrder());
+                assertSameTree(strings.root, loadedStrings.root);
+                RedBlackTree.assertValidRedBlackTree(loadedStrings);
+
+                new RedBlackTree<Integer>().writeSnapshot(file, KeyCodec.INTEGER);
+                assertTrue(RedBlackTree.loadSnapshot(file, KeyCodec.INTEGER).isEmpty());
+                assertEquals(HEADER_SIZE, Files.size(file));
+                assertEquals(4 + "a\ud800b".getBytes(java.nio.charset.StandardCharsets.UTF_8).length,
+                        KeyCodec.STRING.encodedSize("a\ud800b")); // lone surrogate
+            } finally {
+                deleteAll(directory);
+            }
+        }
+
+        /**
+         * Checks that truncated, extended and foreign files are rejected.
+         */
+        @Test
+        public void testCorruptSnapshot() throws IOException {
+            Path directory = Files.createTempDirectory("snapshot");
+            try {
+                RedBlackTree<Integer> tree = new RedBlackTree<>();
+                for (int i = 0; i < 1000; i++) tree.add(i);
+                Path file = directory.resolve("tree.rbt");
+                tree.writeSnapshot(file, KeyCodec.INTEGER);
+                byte[] bytes = Files.readAllBytes(file);
+
+                Path corrupt = directory.resolve("corrupt.rbt");
+                Files.write(corrupt, java.util.Arrays.copyOf(bytes, bytes.length - 3));
+                assertThrows(IOException.class, () -> RedBlackTree.loadSnapshot(corrupt, KeyCodec.INTEGER));
+                Files.write(corrupt, java.util.Arrays.copyOf(bytes, bytes.length + 5));
+                assertThrows(IOException.class, () -> RedBlackTree.loadSnapshot(corrupt, KeyCodec.INTEGER));
+                byte[] foreign = bytes.clone();
+                foreign[0] = 'X';
+                Files.write(corrupt, foreign);
+                assertThrows(IOException.class, () -> RedBlackTree.loadSnapshot(corrupt, KeyCodec.INTEGER));
+                byte[] flags = bytes.clone();
+                flags[HEADER_SIZE] = (byte) 0x80;
+                Files.write(corrupt, flags);
+                assertThrows(IOException.class, () -> RedBlackTree.loadSnapshot(corrupt, KeyCodec.INTEGER));
+                assertFalse(Files.exists(directory.resolve("tree.rbt.tmp")));
+            } finally {
+                deleteAll(directory);
+            }
+        }
+
+        private static <T> void assertSameTree(RedBlackTree.Node<T> expected, RedBlackTree.Node<T> actual) {
+            if (expected == null) {
+                assertNull(actual);
+                return;
+            }
+            assertNotNull(actual);
+            assertEquals(expected.data, actual.data);
+            assertEquals(expected.blackHeight, actual.blackHeight);
+            if (actual.leftChild != null) assertSame(actual, actual.leftChild.parent);
+            if (actual.rightChild != null) assertSame(actual, actual.rightChild.parent);
+            assertSameTree(expected.leftChild, actual.leftChild);
+            assertSameTree(expected.rightChild, actual.rightChild);
+        }
+
+        private static void deleteAll(Path directory) throws IOException {
+            try (java.util.stream.Stream<Path> files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) Files.delete(file);
+            }
+            Files.delete(directory);
+        }
+    }
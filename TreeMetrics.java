@@ -0,0 +1,233 @@
+
+    import java.util.concurrent.atomic.LongAdder;
+    import jdk.jfr.Category;
+    import jdk.jfr.Description;
+    import jdk.jfr.Event;
+    import jdk.jfr.Label;
+    import jdk.jfr.Name;
+    import jdk.jfr.Timespan;
+    import static org.junit.jupiter.api.Assertions.*;
+    import org.junit.jupiter.api.Test;
+
+    /**
+     * Counters of the work a RedBlackTree does, collected once enableMetrics was
+     * called on the tree: rotations by direction, case 1 recolorings of the
+     * insert fixup, comparisons, operations (inserts, lookups and removals) and
+     * a histogram of the depth at which their descents ended. Operations slower
+     * than the slow threshold are counted and reported as SlowOperation events
+     * to Java Flight Recorder.
+     *
+     * A tree without metrics only pays a null check per hook. The counters are
+     * LongAdders, so the optimistic readers of a ConcurrentRedBlackTree can
+     * record into them at the same time.
+     */
+    public final class TreeMetrics {
+
+        public static final long DEFAULT_SLOW_NANOS = 1_000_000L;
+        // the height of a red-black tree of n nodes is at most 2 * log2(n + 1)
+        private static final int MAX_DEPTH = 2 * Integer.SIZE + 2;
+
+        /**
+         * Flight Recorder event for an operation that took at least the slow
+         * threshold of the metrics of its tree.
+         */
+        @Name("RedBlackTree.SlowOperation")
+        @Label("Slow RedBlackTree Operation")
+        @Category("RedBlackTree")
+        @Description("An insert, lookup or removal that took at least the slow threshold")
+        static final class SlowOperation extends Event {
+            @Label("Operation")
+            String operation;
+            @Label("Duration")
+            @Timespan(Timespan.NANOSECONDS)
+            long nanos;
+            @Label("Depth")
+            int depth;
+            @Label("Tree Size")
+            int size;
+        }
+
+        final LongAdder leftRotations = new LongAdder();
+        final LongAdder rightRotations = new LongAdder();
+        final LongAdder recolorings = new LongAdder();
+        final LongAdder comparisons = new LongAdder();
+        private final LongAdder operations = new LongAdder();
+        private final LongAdder slowOperations = new LongAdder();
+        private final LongAdder[] depths = new LongAdder[MAX_DEPTH + 1];
+        private volatile long slowNanos = DEFAULT_SLOW_NANOS;
+
+        TreeMetrics() {
+            for (int i = 0; i < depths.length; i++) depths[i] = new LongAdder();
+        }
+
+        /**
+         * Records a descent that ended at the given depth, the root having
+         * depth 0.
+         */
+        void descended(int depth) {
+            depths[Math.min(depth, MAX_DEPTH)].increment();
+        }
+
+        /**
+         * Records a finished operation that started at startNanos (a
+         * System.nanoTime value).
+         */
+        void operation(String name, long startNanos, int depth, int size) {
+            operations.increment();
+            long nanos = System.nanoTime() - startNanos;
+            if (nanos < slowNanos) return;
+            slowOperations.increment();
+            SlowOperation event = new SlowOperation();
+            if (event.isEnabled()) {
+                event.operation = name;
+                event.nanos = nanos;
+                event.depth = depth;
+                event.size = size;
+                event.commit();
+            }
+        }
+
+        /**
+         * @return the number of left rotations
+         */
+        public long leftRotations() {
+            return leftRotations.sum();
+        }
+
+        /**
+         * @return the number of right rotations
+         */
+        public long rightRotations() {
+            return rightRotations.sum();
+        }
+
+        /**
+         * @return the number of case 1 steps of the insert fixup (red parent and
+         *      red uncle), each of which recolors three nodes and moves the
+         *      violation two levels up; long cascades show up as many of these
+         *      per insert
+         */
+        public long recolorings() {
+            return recolorings.sum();
+        }
+
+        /**
+         * @return the number of comparisons between values
+         */
+        public long comparisons() {
+            return comparisons.sum();
+        }
+
+        /**
+         * @return the number of inserts, lookups and removals
+         */
+        public long operations() {
+            return operations.sum();
+        }
+
+        /**
+         * @return the average number of comparisons per operation, 0 before the
+         *      first operation
+         */
+        public double comparisonsPerOperation() {
+            long operations = operations();
+            return operations == 0 ? 0 : (double) comparisons() / operations;
+        }
+
+        /**
+         * @return the number of operations that took at least the slow threshold
+         */
+        public long slowOperations() {
+            return slowOperations.sum();
+        }
+
+        /**
+         * @return the number of descents that ended at each depth, index 0 being
+         *      the root; the array ends at the deepest depth seen
+         */
+        public long[] depthHistogram() {
+            long[] histogram = new long[depths.length];
+            int length = 0;
+            for (int i = 0; i < depths.length; i++) {
+                histogram[i] = depths[i].sum();
+                if (histogram[i] != 0) length = i + 1;
+            }
+            return java.util.Arrays.copyOf(histogram, length);
+        }
+
+        /**
+         * @return the slow threshold in nanoseconds
+         */
+        public long slowNanos() {
+            return slowNanos;
+        }
+
+        /**
+         * Sets the duration from which operations count as slow and are
+         * reported to Flight Recorder.
+         */
+        public void setSlowNanos(long slowNanos) {
+            this.slowNanos = slowNanos;
+        }
+
+        /**
+         * Sets all counters back to 0.
+         */
+        public void reset() {
+            leftRotations.reset();
+            rightRotations.reset();
+            recolorings.reset();
+            comparisons.reset();
+            operations.reset();
+            slowOperations.reset();
+            for (LongAdder depth : depths) depth.reset();
+        }
+
+        @Override
+        public String toString() {
+            return "TreeMetrics[operations=" + operations() + ", comparisons=" + comparisons()
+                    + ", leftRotations=" + leftRotations() + ", rightRotations=" + rightRotations()
+                    + ", recolorings=" + recolorings() + ", slowOperations=" + slowOperations()
+                    + ", depths=" + java.util.Arrays.toString(depthHistogram()) + "]";
+        }
+
+        /**
+         * Checks the counters on trees whose rotations and recolorings are known.
+         */
+        @Test
+        public void testCounters() {
+            RedBlackTree<Integer> ascending = new RedBlackTree<>();
+            TreeMetrics metrics = ascending.enableMetrics();
+            assertSame(metrics, ascending.metrics());
+            ascending.insert(1);
+            ascending.insert(2);
+            ascending.insert(3); // line: one left rotation
+            assertEquals(1, metrics.leftRotations());
+            assertEquals(0, metrics.rightRotations());
+            ascending.insert(4); // red uncle: one recoloring
+            assertEquals(1, metrics.recolorings());
+            assertEquals(4, metrics.operations());
+            assertEquals(0 + 1 + 2 + 2, metrics.comparisons());
+            assertArrayEquals(new long[] { 1, 1, 2 }, metrics.depthHistogram());
+
+            assertTrue(ascending.contains(4));
+            assertEquals(5, metrics.operations());
+            assertEquals(3, ascending.height());
+            metrics.reset();
+            assertEquals(0, metrics.comparisons());
+            assertArrayEquals(new long[0], metrics.depthHistogram());
+
+            RedBlackTree<Integer> descending = new RedBlackTree<>();
+            TreeMetrics other = descending.enableMetrics();
+            for (int i = 3; i >= 1; i--) descending.insert(i);
+            assertEquals(1, other.rightRotations());
+            other.setSlowNanos(0); // every operation is slow now
+            descending.remove((Integer) 2);
+            assertEquals(1, other.slowOperations());
+
+            descending.disableMetrics();
+            assertNull(descending.metrics());
+            descending.insert(2);
+            assertEquals(4, other.operations());
+        }
+    }
@@ -0,0 +1,339 @@
+
+    import java.io.Closeable;
+    import java.io.IOException;
+    import java.nio.ByteBuffer;
+    import java.nio.MappedByteBuffer;
+    import java.nio.channels.FileChannel;
+    import java.nio.file.Files;
+    import java.nio.file.Path;
+    import java.nio.file.StandardOpenOption;
+    import java.util.ArrayList;
+    import java.util.List;
+    import java.util.concurrent.locks.Condition;
+    import java.util.concurrent.locks.ReentrantLock;
+    import java.util.zip.CRC32C;
+    import static org.junit.jupiter.api.Assertions.*;
+    import org.junit.jupiter.api.Test;
+
+    /**
+     * Append-only log of tree mutations with group commit. append encodes a
+     * mutation into an in-memory batch and returns its sequence number; sync
+     * makes a sequence number durable. The first thread that syncs becomes the
+     * leader: it writes the whole batch (every mutation appended by any thread
+     * so far) and forces it to the storage device once, while the threads that
+     * sync in the meantime wait for that force or start the next batch.
+     *
+     * Every record is the int length of its body, the CRC32C of its body and the
+     * body itself: the operation byte followed by the value in the format of a
+     * KeyCodec. Opening a log replays its records and cuts the file off at the
+     * first record that is incomplete or fails its checksum, which is where a
+     * crash interrupted the last write.
+     */
+    public final class WriteAheadLog<T> implements Closeable {
+
+        public static final byte INSERT = 1;
+        public static final byte REMOVE = 2;
+
+        private static final int RECORD_HEADER = 2 * Integer.BYTES;
+        private static final int INITIAL_BATCH = 64 * 1024;
+
+        /**
+         * Receives the records of a log while it is opened.
+         */
+        public interface Replay<T> {
+            void apply(byte operation, T value);
+        }
+
+        // set by open, which is the only way to create a usable log
+        private FileChannel channel;
+        private KeyCodec<T> codec;
+        private final CRC32C crc = new CRC32C(); // guarded by lock
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition synced = lock.newCondition();
+
+        // all fields below are guarded by lock
+        private ByteBuffer batch = ByteBuffer.allocate(INITIAL_BATCH); // appended, not yet written
+        private ByteBuffer spare = ByteBuffer.allocate(INITIAL_BATCH); // swapped in by the leader
+        private long appended; // sequence number of the last appended record
+        private long durable; // sequence number of the last forced record
+        private boolean syncing; // true while a leader writes and forces a batch
+        private long fileSize; // bytes written to the file
+        private IOException failure; // the first write error, fails every later call
+        private boolean closed;
+
+        private WriteAheadLog() {
+        }
+
+        /**
+         * Opens the log in file, creating it when it does not exist, and passes
+         * its complete records to replay in the order they were appended. A torn
+         * record at the end of the file is removed. A new file is made durable
+         * by forcing its directory.
+         * @throws IOException when file cannot be read or written
+         */
+        public static <T> WriteAheadLog<T> open(Path file, KeyCodec<T> codec, Replay<? super T> replay)
+                throws IOException {
+            boolean created = Files.notExists(file);
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            try {
+                if (created) RedBlackTreeSnapshot.forceDirectory(file);
+                long valid = replay(channel, codec, replay);
+                if (valid < channel.size()) {
+                    channel.truncate(valid);
+                    channel.force(true);
+                }
+                channel.position(valid);
+                WriteAheadLog<T> log = new WriteAheadLog<>();
+                log.channel = channel;
+                log.codec = codec;
+                log.fileSize = valid;
+                return log;
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         * @return the number of bytes of complete records at the start of the file
+         */
+        private static <T> long replay(FileChannel channel, KeyCodec<T> codec, Replay<? super T> replay)
+                throws IOException {
+            long length = channel.size();
+            if (length > Integer.MAX_VALUE) throw new IOException("The log is larger than 2 GB.");
+            if (length == 0) return 0;
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            CRC32C crc = new CRC32C();
+            while (in.remaining() >= RECORD_HEADER) {
+                int start = in.position();
+                int bodyLength = in.getInt();
+                int checksum = in.getInt();
+                if (bodyLength < 1 || bodyLength > in.remaining()) return start;
+                ByteBuffer body = in.slice().limit(bodyLength);
+                crc.reset();
+                crc.update(body.duplicate());
+                if ((int) crc.getValue() != checksum) return start;
+                byte operation = body.get();
+                T value;
+                try {
+                    value = codec.decode(body);
+                } catch (RuntimeException corrupt) {
+                    return start;
+                }
+                if (body.hasRemaining() || (operation != INSERT && operation != REMOVE)) return start;
+                replay.apply(operation, value);
+                in.position(start + RECORD_HEADER + bodyLength);
+            }
+            return in.position();
+        }
+
+        /**
+         * Adds a mutation to the current batch. The mutation is not durable
+         * until sync returns for its sequence number.
+         * @return the sequence number of the mutation
+         * @throws IOException when an earlier write failed or the log is closed
+         */
+        public long append(byte operation, T value) throws IOException {
+            int bodyLength = 1 + codec.encodedSize(value);
+            lock.lock();
+            try {
+                checkUsable();
+                if (batch.remaining() < RECORD_HEADER + bodyLength) {
+                    ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * batch.capacity(),
+                            batch.position() + RECORD_HEADER + bodyLength));
+                    batch.flip();
+                    batch = larger.put(batch);
+                }
+                int start = batch.position();
+                batch.position(start + RECORD_HEADER);
+                batch.put(operation);
+                codec.encode(value, batch);
+                if (batch.position() - start - RECORD_HEADER != bodyLength) {
+                    batch.position(start);
+                    throw new IllegalStateException("The codec wrote a different number of bytes than encodedSize.");
+                }
+                crc.reset();
+                crc.update(batch.array(), start + RECORD_HEADER, bodyLength);
+                batch.putInt(start, bodyLength).putInt(start + Integer.BYTES, (int) crc.getValue());
+                return ++appended;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Returns once the mutation with the given sequence number, and every
+         * mutation appended before it, has been forced to the storage device.
+         * @throws IOException when the batch holding the mutation could not be
+         *      written
+         */
+        public void sync(long sequence) throws IOException {
+            lock.lock();
+            try {
+                while (durable < sequence) {
+                    if (failure != null) throw new IOException("The log failed to write earlier.", failure);
+                    if (syncing) {
+                        synced.awaitUninterruptibly();
+                        continue;
+                    }
+                    // become the leader of the next batch
+                    syncing = true;
+                    ByteBuffer writing = batch;
+                    long last = appended;
+                    batch = spare;
+                    lock.unlock();
+                    IOException error = null;
+                    try {
+                        writing.flip();
+                        while (writing.hasRemaining()) channel.write(writing);
+                        channel.force(false);
+                    } catch (IOException e) {
+                        error = e;
+                    } finally {
+                        lock.lock();
+                    }
+                    fileSize += writing.limit();
+                    spare = writing.clear();
+                    syncing = false;
+                    if (error != null) failure = error;
+                    else durable = last;
+                    synced.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Makes every appended mutation durable.
+         */
+        public void syncAll() throws IOException {
+            long last;
+            lock.lock();
+            try {
+                last = appended;
+            } finally {
+                lock.unlock();
+            }
+            sync(last);
+        }
+
+        /**
+         * @return the number of bytes in the log file, not counting the batch
+         *      that has not been written yet
+         */
+        public long fileSize() {
+            lock.lock();
+            try {
+                return fileSize;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Empties the log after its mutations were saved elsewhere (in a
+         * snapshot). The caller has to make sure no mutation is appended while
+         * the log is truncated.
+         * @throws IOException when the log cannot be truncated
+         */
+        public void truncate() throws IOException {
+            syncAll();
+            lock.lock();
+            try {
+                checkUsable();
+                channel.truncate(0);
+                channel.position(0);
+                channel.force(true);
+                fileSize = 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void checkUsable() throws IOException {
+            if (closed) throw new IOException("The log is closed.");
+            if (failure != null) throw new IOException("The log failed to write earlier.", failure);
+        }
+
+        /**
+         * Makes every appended mutation durable and closes the file.
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                if (failure == null && !closed) syncAll();
+            } finally {
+                lock.lock();
+                try {
+                    closed = true;
+                    channel.close();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        /**
+         * Appends from several threads, then reopens the log and checks that the
+         * records replay in sequence order and that a torn tail is cut off.
+         */
+        @Test
+        public void testGroupCommitAndReplay() throws Exception {
+            Path file = Files.createTempFile("wal", ".log");
+            try {
+                WriteAheadLog<Integer> log = open(file, KeyCodec.INTEGER, (operation, value) -> fail("empty log"));
+                List<Thread> writers = new ArrayList<>();
+                for (int t = 0; t < 8; t++) {
+                    int offset = t * 1000;
+                    writers.add(new Thread(() -> {
+                        try {
+                            for (int i = 0; i < 500; i++) log.sync(log.append(INSERT, offset + i));
+                        } catch (IOException e) {
+                            throw new AssertionError(e);
+                        }
+                    }));
+                }
+                for (Thread writer : writers) writer.start();
+                for (Thread writer : writers) writer.join();
+                log.append(REMOVE, 3);
+                log.close();
+                assertThrows(IOException.class, () -> log.append(INSERT, 1));
+
+                List<Integer> inserted = new ArrayList<>();
+                List<Integer> removed = new ArrayList<>();
+                WriteAheadLog<Integer> reopened = open(file, KeyCodec.INTEGER,
+                        (operation, value) -> (operation == INSERT ? inserted : removed).add(value));
+                assertEquals(4000, inserted.size());
+                assertEquals(List.of(3), removed);
+                for (int t = 0; t < 8; t++) {
+                    // the values of one writer keep their order
+                    int last = -1;
+                    for (int value : inserted) {
+                        if (value / 1000 != t) continue;
+                        assertTrue(value > last);
+                        last = value;
+                    }
+                }
+                long complete = reopened.fileSize();
+                assertEquals(Files.size(file), complete);
+                reopened.close();
+
+                // a torn record at the end is cut off
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    channel.write(ByteBuffer.wrap(new byte[] { 0, 0, 0, 5, 1, 2, 3, 4, INSERT, 0 }), complete);
+                }
+                List<Integer> replayed = new ArrayList<>();
+                WriteAheadLog<Integer> repaired = open(file, KeyCodec.INTEGER, (operation, value) -> replayed.add(value));
+                assertEquals(4001, replayed.size());
+                assertEquals(complete, Files.size(file));
+                repaired.sync(repaired.append(INSERT, 9999));
+                repaired.truncate();
+                assertEquals(0, Files.size(file));
+                repaired.close();
+            } finally {
+                Files.delete(file);
+            }
+        }
+    }
@@ -0,0 +1,149 @@
+
+    package rbt.jmh;
+
+    import java.util.concurrent.TimeUnit;
+    import org.openjdk.jmh.annotations.Benchmark;
+    import org.openjdk.jmh.annotations.BenchmarkMode;
+    import org.openjdk.jmh.annotations.Fork;
+    import org.openjdk.jmh.annotations.Group;
+    import org.openjdk.jmh.annotations.GroupThreads;
+    import org.openjdk.jmh.annotations.Measurement;
+    import org.openjdk.jmh.annotations.Mode;
+    import org.openjdk.jmh.annotations.OutputTimeUnit;
+    import org.openjdk.jmh.annotations.Param;
+    import org.openjdk.jmh.annotations.Scope;
+    import org.openjdk.jmh.annotations.Setup;
+    import org.openjdk.jmh.annotations.State;
+    import org.openjdk.jmh.annotations.Warmup;
+    import org.openjdk.jmh.infra.ThreadParams;
+    import org.openjdk.jmh.runner.Runner;
+    import org.openjdk.jmh.runner.RunnerException;
+    import org.openjdk.jmh.runner.options.CommandLineOptionException;
+    import org.openjdk.jmh.runner.options.CommandLineOptions;
+    import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+    /**
+     * Looks up keys from many threads in a ConcurrentRedBlackTree, whose
+     * contains runs under an optimistic read, and in a RedBlackTree whose
+     * every call is synchronized. The score is the combined throughput of all
+     * threads, so it grows with the thread count for the concurrent tree
+     * (up to the number of cores) and stays flat for the synchronized one.
+     *
+     * The readWhileWriting groups run three readers next to one writer, which
+     * adds and removes the odd keys the tree does not hold, so its size stays
+     * the same.
+     *
+     * main runs the benchmarks on 1, 4, 16 and 64 threads:
+     * java -cp jmh/target/benchmarks.jar rbt.jmh.ConcurrentReadBenchmark
+     * Any further JMH options, like -prof gc, are passed through.
+     */
+    @State(Scope.Benchmark)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 5)
+    @Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+    public class ConcurrentReadBenchmark {
+
+        @Param({ "10000", "1000000" })
+        int size;
+
+        private Object concurrent;
+        private Object locked;
+        private Integer[] hits;
+        private Integer[] misses;
+
+        /**
+         * The position of one thread in the keys. Every thread starts at
+         * another offset, so the threads do not look up the same keys in step.
+         */
+        @State(Scope.Thread)
+        public static class Cursor {
+            int next;
+
+            @Setup
+            public void start(ConcurrentReadBenchmark benchmark, ThreadParams thread) {
+                next = (int) ((long) benchmark.size * thread.getThreadIndex() / thread.getThreadCount());
+            }
+
+            int advance(int size) {
+                int index = next;
+                next = index + 1 == size ? 0 : index + 1;
+                return index;
+            }
+        }
+
+        @Setup
+        public void buildTrees() throws Throwable {
+            Integer[] keys = Trees.keys("random", size);
+            concurrent = (Object) Trees.NEW_CONCURRENT_TREE.invokeExact();
+            locked = (Object) Trees.NEW_TREE.invokeExact();
+            hits = new Integer[size];
+            misses = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                hits[i] = keys[i] * 2;
+                misses[i] = keys[i] * 2 + 1;
+                boolean inserted = (boolean) Trees.CONCURRENT_ADD.invokeExact(concurrent, (Object) hits[i]);
+                inserted &= (boolean) Trees.TRY_INSERT.invokeExact(locked, (Object) hits[i]);
+                if (!inserted) throw new IllegalStateException("repeated key " + hits[i]);
+            }
+        }
+
+        @Benchmark
+        public boolean concurrentContains(Cursor cursor) throws Throwable {
+            return (boolean) Trees.CONCURRENT_CONTAINS.invokeExact(concurrent, (Object) hits[cursor.advance(size)]);
+        }
+
+        @Benchmark
+        public boolean synchronizedContains(Cursor cursor) throws Throwable {
+            Object key = hits[cursor.advance(size)];
+            synchronized (locked) {
+                return (boolean) Trees.CONTAINS.invokeExact(locked, key);
+            }
+        }
+
+        @Benchmark
+        @Group("concurrentReadWhileWriting")
+        @GroupThreads(3)
+        public boolean concurrentReader(Cursor cursor) throws Throwable {
+            return concurrentContains(cursor);
+        }
+
+        @Benchmark
+        @Group("concurrentReadWhileWriting")
+        @GroupThreads(1)
+        public boolean concurrentWriter(Cursor cursor) throws Throwable {
+            Object key = misses[cursor.advance(size)];
+            boolean added = (boolean) Trees.CONCURRENT_ADD.invokeExact(concurrent, key);
+            return added & (boolean) Trees.CONCURRENT_REMOVE.invokeExact(concurrent, key);
+        }
+
+        @Benchmark
+        @Group("synchronizedReadWhileWriting")
+        @GroupThreads(3)
+        public boolean synchronizedReader(Cursor cursor) throws Throwable {
+            return synchronizedContains(cursor);
+        }
+
+        @Benchmark
+        @Group("synchronizedReadWhileWriting")
+        @GroupThreads(1)
+        public boolean synchronizedWriter(Cursor cursor) throws Throwable {
+            Object key = misses[cursor.advance(size)];
+            synchronized (locked) {
+                boolean added = (boolean) Trees.TRY_INSERT.invokeExact(locked, key);
+                return added & (boolean) Trees.REMOVE.invokeExact(locked, key);
+            }
+        }
+
+        public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+            CommandLineOptions options = new CommandLineOptions(args);
+            for (int threads : new int[] { 1, 4, 16, 64 }) {
+                new Runner(new OptionsBuilder()
+                        .parent(options)
+                        .include(ConcurrentReadBenchmark.class.getName())
+                        .threads(threads)
+                        .build()).run();
+            }
+        }
+    }
@@ -0,0 +1,75 @@
+
+    package rbt.jmh;
+
+    import java.util.concurrent.TimeUnit;
+    import org.openjdk.jmh.annotations.Benchmark;
+    import org.openjdk.jmh.annotations.BenchmarkMode;
+    import org.openjdk.jmh.annotations.Fork;
+    import org.openjdk.jmh.annotations.Measurement;
+    import org.openjdk.jmh.annotations.Mode;
+    import org.openjdk.jmh.annotations.OutputTimeUnit;
+    import org.openjdk.jmh.annotations.Param;
+    import org.openjdk.jmh.annotations.Scope;
+    import org.openjdk.jmh.annotations.Setup;
+    import org.openjdk.jmh.annotations.State;
+    import org.openjdk.jmh.annotations.TearDown;
+    import org.openjdk.jmh.annotations.Warmup;
+
+    /**
+     * Looks up one key per operation in a RedBlackTree of size random keys.
+     * The tree holds the even keys, so hit looks up stored keys and miss the
+     * odd keys between them, both in the random order of the insertions and
+     * boxed in the setup. The height of the tree is printed at the end of
+     * every trial.
+     */
+    @State(Scope.Thread)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 5)
+    @Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+    public class ContainsBenchmark {
+
+        @Param({ "1000", "10000", "100000", "1000000", "10000000" })
+        int size;
+
+        private Object tree;
+        private Integer[] hits;
+        private Integer[] misses;
+        private int next; // index of the next key to look up
+
+        @Setup
+        public void buildTree() throws Throwable {
+            Integer[] keys = Trees.keys("random", size);
+            tree = (Object) Trees.NEW_TREE.invokeExact();
+            hits = new Integer[size];
+            misses = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                hits[i] = keys[i] * 2;
+                misses[i] = keys[i] * 2 + 1;
+                boolean inserted = (boolean) Trees.TRY_INSERT.invokeExact(tree, (Object) hits[i]);
+                if (!inserted) throw new IllegalStateException("repeated key " + hits[i]);
+            }
+        }
+
+        @Benchmark
+        public boolean hit() throws Throwable {
+            return (boolean) Trees.CONTAINS.invokeExact(tree, (Object) hits[advance()]);
+        }
+
+        @Benchmark
+        public boolean miss() throws Throwable {
+            return (boolean) Trees.CONTAINS.invokeExact(tree, (Object) misses[advance()]);
+        }
+
+        private int advance() {
+            int index = next;
+            next = index + 1 == size ? 0 : index + 1;
+            return index;
+        }
+
+        @TearDown
+        public void printHeight() {
+            System.out.println("height " + Trees.height(tree));
+        }
+    }
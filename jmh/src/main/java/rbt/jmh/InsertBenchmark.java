@@ -0,0 +1,68 @@
+
+    package rbt.jmh;
+
+    import java.util.concurrent.TimeUnit;
+    import org.openjdk.jmh.annotations.Benchmark;
+    import org.openjdk.jmh.annotations.BenchmarkMode;
+    import org.openjdk.jmh.annotations.Fork;
+    import org.openjdk.jmh.annotations.Measurement;
+    import org.openjdk.jmh.annotations.Mode;
+    import org.openjdk.jmh.annotations.OutputTimeUnit;
+    import org.openjdk.jmh.annotations.Param;
+    import org.openjdk.jmh.annotations.Scope;
+    import org.openjdk.jmh.annotations.Setup;
+    import org.openjdk.jmh.annotations.State;
+    import org.openjdk.jmh.annotations.TearDown;
+    import org.openjdk.jmh.annotations.Warmup;
+
+    /**
+     * Inserts a stream of size keys into an empty RedBlackTree. The score is
+     * the time of the whole stream, so score / size is the time of one
+     * insertion and gc.alloc.rate.norm / size (with -prof gc) the bytes of one
+     * node. The keys are boxed in the setup, and the insertions go through
+     * tryInsert, which takes the path of insert but returns false for the
+     * repeated keys of the zipf stream instead of throwing.
+     *
+     * The height of the last tree is printed at the end of every trial, a
+     * regression of the insert fixup shows up there as well as in the score.
+     */
+    @State(Scope.Benchmark)
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 5)
+    @Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+    public class InsertBenchmark {
+
+        @Param({ "1000", "10000", "100000", "1000000", "10000000" })
+        int size;
+
+        @Param({ "random", "ascending", "descending", "zipf" })
+        String stream;
+
+        private Integer[] keys;
+        private Object last; // the tree of the last invocation
+        private int lastInserted; // the number of distinct keys in it
+
+        @Setup
+        public void drawKeys() {
+            keys = Trees.keys(stream, size);
+        }
+
+        @Benchmark
+        public Object insert() throws Throwable {
+            Object tree = (Object) Trees.NEW_TREE.invokeExact();
+            int inserted = 0;
+            for (Integer key : keys) {
+                if ((boolean) Trees.TRY_INSERT.invokeExact(tree, (Object) key)) inserted++;
+            }
+            last = tree;
+            lastInserted = inserted;
+            return tree;
+        }
+
+        @TearDown
+        public void printHeight() {
+            System.out.println("height " + Trees.height(last) + ", " + lastInserted + " distinct keys");
+        }
+    }
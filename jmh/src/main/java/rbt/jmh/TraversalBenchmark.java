@@ -0,0 +1,60 @@
+
+    package rbt.jmh;
+
+    import java.util.concurrent.TimeUnit;
+    import org.openjdk.jmh.annotations.Benchmark;
+    import org.openjdk.jmh.annotations.BenchmarkMode;
+    import org.openjdk.jmh.annotations.Fork;
+    import org.openjdk.jmh.annotations.Measurement;
+    import org.openjdk.jmh.annotations.Mode;
+    import org.openjdk.jmh.annotations.OutputTimeUnit;
+    import org.openjdk.jmh.annotations.Param;
+    import org.openjdk.jmh.annotations.Scope;
+    import org.openjdk.jmh.annotations.Setup;
+    import org.openjdk.jmh.annotations.State;
+    import org.openjdk.jmh.annotations.TearDown;
+    import org.openjdk.jmh.annotations.Warmup;
+
+    /**
+     * Renders a RedBlackTree of size random keys with toInOrderString and
+     * toLevelOrderString. The score is the time of one whole string, and
+     * gc.alloc.rate.norm (with -prof gc) the bytes it allocates. The height of
+     * the tree is printed at the end of every trial.
+     */
+    @State(Scope.Benchmark)
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 5)
+    @Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+    public class TraversalBenchmark {
+
+        @Param({ "1000", "10000", "100000", "1000000", "10000000" })
+        int size;
+
+        private Object tree;
+
+        @Setup
+        public void buildTree() throws Throwable {
+            tree = (Object) Trees.NEW_TREE.invokeExact();
+            for (Integer key : Trees.keys("random", size)) {
+                boolean inserted = (boolean) Trees.TRY_INSERT.invokeExact(tree, (Object) key);
+                if (!inserted) throw new IllegalStateException("repeated key " + key);
+            }
+        }
+
+        @Benchmark
+        public String toInOrderString() throws Throwable {
+            return (String) Trees.TO_IN_ORDER_STRING.invokeExact(tree);
+        }
+
+        @Benchmark
+        public String toLevelOrderString() throws Throwable {
+            return (String) Trees.TO_LEVEL_ORDER_STRING.invokeExact(tree);
+        }
+
+        @TearDown
+        public void printHeight() {
+            System.out.println("height " + Trees.height(tree));
+        }
+    }
@@ -0,0 +1,108 @@
+
+    package rbt.jmh;
+
+    import java.lang.invoke.MethodHandle;
+    import java.lang.invoke.MethodHandles;
+    import java.lang.invoke.MethodType;
+
+    /**
+     * Method handles to the tree classes and to the key streams of
+     * RedBlackTreeBenchmark. Those classes are in the default package, which a
+     * class of a named package cannot import, while JMH does not accept
+     * benchmarks in the default package. The handles are static final, so the
+     * JIT compiles a call through them like a direct call.
+     *
+     * Every handle takes and returns Object for the trees and keys, call them
+     * with invokeExact and casts to exactly these types.
+     */
+    final class Trees {
+
+        /** () -> new RedBlackTree() */
+        static final MethodHandle NEW_TREE;
+        /** (Object tree, Object key) -> boolean, RedBlackTree.tryInsert */
+        static final MethodHandle TRY_INSERT;
+        /** (Object tree, Object key) -> boolean, RedBlackTree.contains */
+        static final MethodHandle CONTAINS;
+        /** (Object tree, Object key) -> boolean, RedBlackTree.remove */
+        static final MethodHandle REMOVE;
+        /** (Object tree) -> int, RedBlackTree.height */
+        static final MethodHandle HEIGHT;
+        /** (Object tree) -> String, RedBlackTree.toInOrderString */
+        static final MethodHandle TO_IN_ORDER_STRING;
+        /** (Object tree) -> String, RedBlackTree.toLevelOrderString */
+        static final MethodHandle TO_LEVEL_ORDER_STRING;
+        /** () -> new ConcurrentRedBlackTree() */
+        static final MethodHandle NEW_CONCURRENT_TREE;
+        /** (Object tree, Object key) -> boolean, ConcurrentRedBlackTree.add */
+        static final MethodHandle CONCURRENT_ADD;
+        /** (Object tree, Object key) -> boolean, ConcurrentRedBlackTree.remove */
+        static final MethodHandle CONCURRENT_REMOVE;
+        /** (Object tree, Object key) -> boolean, ConcurrentRedBlackTree.contains */
+        static final MethodHandle CONCURRENT_CONTAINS;
+
+        static {
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+                Class<?> tree = Class.forName("RedBlackTree");
+                NEW_TREE = lookup.findConstructor(tree, MethodType.methodType(void.class))
+                        .asType(MethodType.methodType(Object.class));
+                TRY_INSERT = lookup.findVirtual(tree, "tryInsert", MethodType.methodType(boolean.class, Comparable.class))
+                        .asType(MethodType.methodType(boolean.class, Object.class, Object.class));
+                CONTAINS = lookup.findVirtual(tree, "contains", MethodType.methodType(boolean.class, Comparable.class))
+                        .asType(MethodType.methodType(boolean.class, Object.class, Object.class));
+                REMOVE = lookup.findVirtual(tree, "remove", MethodType.methodType(boolean.class, Object.class))
+                        .asType(MethodType.methodType(boolean.class, Object.class, Object.class));
+                HEIGHT = lookup.findVirtual(tree, "height", MethodType.methodType(int.class))
+                        .asType(MethodType.methodType(int.class, Object.class));
+                TO_IN_ORDER_STRING = lookup.findVirtual(tree, "toInOrderString", MethodType.methodType(String.class))
+                        .asType(MethodType.methodType(String.class, Object.class));
+                TO_LEVEL_ORDER_STRING = lookup.findVirtual(tree, "toLevelOrderString", MethodType.methodType(String.class))
+                        .asType(MethodType.methodType(String.class, Object.class));
+                Class<?> concurrent = Class.forName("ConcurrentRedBlackTree");
+                NEW_CONCURRENT_TREE = lookup.findConstructor(concurrent, MethodType.methodType(void.class))
+                        .asType(MethodType.methodType(Object.class));
+                CONCURRENT_ADD = lookup.findVirtual(concurrent, "add", MethodType.methodType(boolean.class, Comparable.class))
+                        .asType(MethodType.methodType(boolean.class, Object.class, Object.class));
+                CONCURRENT_REMOVE = lookup.findVirtual(concurrent, "remove", MethodType.methodType(boolean.class, Comparable.class))
+                        .asType(MethodType.methodType(boolean.class, Object.class, Object.class));
+                CONCURRENT_CONTAINS = lookup.findVirtual(concurrent, "contains", MethodType.methodType(boolean.class, Comparable.class))
+                        .asType(MethodType.methodType(boolean.class, Object.class, Object.class));
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private Trees() {
+        }
+
+        /**
+         * Draws a key stream of RedBlackTreeBenchmark, boxed, so that the
+         * benchmarks measure the same keys as the harness.
+         * @param stream random, ascending, descending, jitter or zipf
+         * @param size number of keys
+         * @return the keys, boxed before any benchmark runs
+         */
+        static Integer[] keys(String stream, int size) {
+            try {
+                Class<?> harness = Class.forName("RedBlackTreeBenchmark");
+                MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+                int[] keys = (int[]) lookup.findStatic(harness, stream + "Keys",
+                        MethodType.methodType(int[].class, int.class)).invoke(size);
+                return (Integer[]) lookup.findStatic(harness, "boxed",
+                        MethodType.methodType(Integer[].class, int[].class)).invoke(keys);
+            } catch (Throwable e) {
+                throw new IllegalArgumentException("Cannot draw the " + stream + " keys.", e);
+            }
+        }
+
+        /**
+         * @return the height of tree, which visits every node
+         */
+        static int height(Object tree) {
+            try {
+                return (int) HEIGHT.invokeExact(tree);
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }